@@ -20,15 +20,23 @@ import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Scope;
+import org.springframework.util.StringUtils;
+import org.thingsboard.gateway.service.AbstractPersistentService;
 import org.thingsboard.gateway.service.DefaultTenantManagerService;
+import org.thingsboard.gateway.service.MemoryPersistentService;
 import org.thingsboard.gateway.service.PersistentFileService;
 import org.thingsboard.gateway.service.PersistentFileServiceImpl;
 import org.thingsboard.gateway.service.TenantManagerService;
+import org.thingsboard.gateway.service.TieredPersistentService;
 import org.thingsboard.gateway.service.conf.TbPersistenceConfiguration;
 import org.thingsboard.gateway.service.conf.TbTenantConfiguration;
 import org.thingsboard.gateway.service.gateway.GatewayService;
 import org.thingsboard.gateway.service.gateway.MqttGatewayService;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
@@ -38,6 +46,8 @@ import java.util.function.Consumer;
 public class GatewayConfiguration {
 
     public static final int NIO_EVENT_LOOP_GROUP_THREADS = 100;
+    public static final String MEMORY_PERSISTENCE_TYPE = "memory";
+    public static final String TIERED_PERSISTENCE_TYPE = "tiered";
 
     @Bean
     public TenantManagerService getTenantManagerService() {
@@ -52,7 +62,14 @@ public class GatewayConfiguration {
     @Bean
     @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
     public PersistentFileService getPersistentFileServiceBean(String tenantName, TbPersistenceConfiguration tbPersistenceConfiguration) {
-        PersistentFileServiceImpl persistentFileService = new PersistentFileServiceImpl();
+        AbstractPersistentService persistentFileService;
+        if (MEMORY_PERSISTENCE_TYPE.equalsIgnoreCase(tbPersistenceConfiguration.getType())) {
+            persistentFileService = new MemoryPersistentService();
+        } else if (TIERED_PERSISTENCE_TYPE.equalsIgnoreCase(tbPersistenceConfiguration.getType())) {
+            persistentFileService = new TieredPersistentService();
+        } else {
+            persistentFileService = new PersistentFileServiceImpl();
+        }
         persistentFileService.setTenantName(tenantName);
         persistentFileService.setPersistence(tbPersistenceConfiguration);
         return persistentFileService;
@@ -62,11 +79,59 @@ public class GatewayConfiguration {
     @Bean
     @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
     public GatewayService getGatewayServiceBean(TbTenantConfiguration configuration, Consumer<String> extensionsConfigListener) {
+        int sessions = Math.max(1, configuration.getConnection().getSessions());
+        checkRemovedSessionsStorage(configuration, sessions);
         MqttGatewayService gatewayService = new MqttGatewayService(configuration, extensionsConfigListener);
-        gatewayService.setPersistentFileService(getPersistentFileServiceBean(configuration.getLabel(), configuration.getPersistence()));
+        List<PersistentFileService> persistentFileServices = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            // the first session keeps the storage of the tenant, so it stays compatible with a single session
+            String tenantName = i == 0 ? configuration.getLabel() : getSessionTenantName(configuration, i);
+            persistentFileServices.add(getPersistentFileServiceBean(tenantName, configuration.getPersistence()));
+        }
+        gatewayService.setPersistentFileServices(persistentFileServices);
         return gatewayService;
     }
 
+    private static String getSessionTenantName(TbTenantConfiguration configuration, int session) {
+        return configuration.getLabel() + "-" + session;
+    }
+
+    /**
+     * Refuses to start while sessions removed from the configuration still have stored messages. Nothing reads their
+     * storage any more, and their devices are now routed to other sessions.
+     */
+    static void checkRemovedSessionsStorage(TbTenantConfiguration configuration, int sessions) {
+        TbPersistenceConfiguration persistence = configuration.getPersistence();
+        if (persistence == null || StringUtils.isEmpty(persistence.getPath())) {
+            return;
+        }
+        String sessionDirPrefix = AbstractPersistentService.getStorageDir(persistence, configuration.getLabel() + "-").getName();
+        File[] dirs = new File(persistence.getPath()).listFiles(File::isDirectory);
+        if (dirs == null) {
+            return;
+        }
+        List<String> removed = new ArrayList<>();
+        int requiredSessions = sessions;
+        for (File dir : dirs) {
+            String name = dir.getName();
+            if (!name.startsWith(sessionDirPrefix) || !name.substring(sessionDirPrefix.length()).matches("\\d{1,9}")) {
+                continue;
+            }
+            int session = Integer.parseInt(name.substring(sessionDirPrefix.length()));
+            String[] files = dir.list();
+            if (session >= sessions && files != null && files.length > 0) {
+                removed.add(dir.getAbsolutePath());
+                requiredSessions = Math.max(requiredSessions, session + 1);
+            }
+        }
+        if (!removed.isEmpty()) {
+            Collections.sort(removed);
+            throw new IllegalStateException("[" + configuration.getLabel() + "] Storage of removed sessions " + removed
+                    + " still holds messages, but connection.sessions is " + sessions + ". Set connection.sessions to "
+                    + requiredSessions + " until these messages are sent, or delete the directories to drop them!");
+        }
+    }
+
     @Bean
     public NioEventLoopGroup getNioEventLoopGroupBean() {
         return new NioEventLoopGroup(NIO_EVENT_LOOP_GROUP_THREADS);
@@ -22,7 +22,9 @@ import org.thingsboard.gateway.extensions.http.conf.HttpConfiguration;
 import org.thingsboard.gateway.extensions.http.conf.HttpConverterConfiguration;
 import org.thingsboard.gateway.extensions.http.conf.mapping.HttpDeviceDataConverter;
 import org.thingsboard.gateway.service.conf.TbExtensionConfiguration;
+import org.thingsboard.gateway.service.gateway.GatewayOverloadedException;
 import org.thingsboard.gateway.service.gateway.GatewayService;
+import org.thingsboard.gateway.service.gateway.PressureLevel;
 import org.thingsboard.gateway.service.MqttDeliveryFuture;
 import org.thingsboard.gateway.service.data.DeviceData;
 import org.thingsboard.gateway.util.ConfigurationTools;
@@ -92,6 +94,9 @@ public class DefaultHttpService extends ExtensionUpdate implements HttpService {
         log.trace("[{}] Processing request body [{}] for converterId [{}] and token [{}]", gateway.getTenantLabel(), body, converterId, token);
         HttpConverterConfiguration configuration = httpConverterConfigurations.get(converterId);
         if (configuration != null) {
+            if (gateway.getPressureLevel() == PressureLevel.CRITICAL) {
+                throw new GatewayOverloadedException("Gateway [" + gateway.getTenantLabel() + "] is overloaded, retry later!");
+            }
             if (StringUtils.isEmpty(configuration.getToken()) || configuration.getToken().equals(token)) {
                 processBody(body, configuration);
             } else {
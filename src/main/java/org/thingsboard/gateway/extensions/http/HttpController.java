@@ -23,6 +23,7 @@ import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.thingsboard.gateway.extensions.http.conf.HttpRequestProcessingError;
 import org.thingsboard.gateway.service.TenantManagerService;
+import org.thingsboard.gateway.service.gateway.GatewayOverloadedException;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
@@ -31,6 +32,8 @@ import java.io.IOException;
 @Slf4j
 public class HttpController {
     private static final String TOKEN_HEADER = "Authorization";
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+    private static final String RETRY_AFTER_SECONDS = "1";
 
     @Autowired
     private TenantManagerService service;
@@ -61,6 +64,10 @@ public class HttpController {
                     response.setStatus(HttpStatus.FORBIDDEN.value());
                     mapper.writeValue(response.getWriter(),
                             new HttpRequestProcessingError("You don't have permission to perform this operation!"));
+                } else if (exception instanceof GatewayOverloadedException) {
+                    response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+                    response.setHeader(RETRY_AFTER_HEADER, RETRY_AFTER_SECONDS);
+                    mapper.writeValue(response.getWriter(), new HttpRequestProcessingError(exception.getMessage()));
                 } else {
                     response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
                     mapper.writeValue(response.getWriter(), new HttpRequestProcessingError(exception.getMessage()));
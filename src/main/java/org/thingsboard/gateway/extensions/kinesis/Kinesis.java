@@ -9,6 +9,7 @@ import org.thingsboard.gateway.service.data.DeviceData;
 import org.thingsboard.gateway.util.JsonTools;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 
 import java.net.InetAddress;
@@ -39,8 +40,13 @@ import org.thingsboard.server.common.data.kv.*;
 public class Kinesis {
     public static final String EVENTS_STARTED_PATH = "/events/started";
 
+    private static final ObjectReader MESSAGE_READER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(KinesisMessage.class);
+
     private GatewayService gateway;
     private KinesisStreamConfiguration configuration;
+    private final KinesisPathParser pathParser = new KinesisPathParser();
 
     // Use default (package) scope so unit tests can insert mock object
     Worker worker = null;
@@ -121,15 +127,11 @@ public class Kinesis {
     // needs to be called from inside KCL
     public void processBody(String body) {
 
-        ObjectMapper mapper = new ObjectMapper();
-
-        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-
         KinesisMessage message;
 
 
         try {
-            message = mapper.readValue(body, KinesisMessage.class);
+            message = MESSAGE_READER.readValue(body);
         } catch (Exception e) {
             log.error("Failed to parse message body. {}", e);
             return;
@@ -139,7 +141,9 @@ public class Kinesis {
             MqttDeliveryFuture future1 = parseVariablesEvents(message);
             MqttDeliveryFuture future2 = parseController(message);
 
-            waitWithTimeout(future1);
+            if (future1 != null) {
+                waitWithTimeout(future1);
+            }
             if (future2 != null) {
                 waitWithTimeout(future2);
             }
@@ -183,45 +187,30 @@ public class Kinesis {
         MqttDeliveryFuture future = null;
 
         // skip anything without a path, and everything not in devices
-        if (isDeviceMessage(message)) {
-            if (message.path.contains("variables")) {
-                String variable = message.path.substring(message.path.indexOf("/variables/") + 11);
-                String device = message.analyticsId + "/" + message.path.replace("/variables/" + variable, "");
+        KinesisPathParser.ParsedPath path = pathParser.parse(message.analyticsId, message.path);
 
-                future = postTelemetry(device, variable, message.value, message.timestamp);
+        switch (path.getKind()) {
+            case VARIABLE:
+                future = postTelemetry(path.getDevice(), path.getVariable(), message.value, message.timestamp);
+                break;
 
-            } else if (message.path.contains("events")) {
-
-                if (isValidStartedEvent(message)) {
-                    String device =
-                        message.analyticsId + "/" + message.path.replace(EVENTS_STARTED_PATH, "");
-                    future = postTelemetry(device, "started",  Long.toString(message.timestamp), message.timestamp);
-                }
+            case STARTED_EVENT:
+                future = postTelemetry(path.getDevice(), "started", Long.toString(message.timestamp), message.timestamp);
+                // fall through to log the event
 
+            case EVENT:
                 // Devices/Living Room/Controller/Bridges/Zwave/events/started
                 log.info("Path: {} Type: {} Value: {}", message.path, message.type, message.value);
-            }
+                break;
+
+            default:
+                break;
         }
 
         return future;
     }
 
 
-    private boolean isDeviceMessage(KinesisMessage message) {
-        return (message.path != null &&
-                !message.path.isEmpty() &&
-                message.path.indexOf("Devices") == 0);
-    }
-
-
-    private boolean isValidStartedEvent(KinesisMessage message) {
-        boolean isValidStartedDevice =
-            message.path.contains("Bridges") || message.path.contains("Servers");
-
-        return isValidStartedDevice && message.path.contains(EVENTS_STARTED_PATH);
-    }
-
-
     private MqttDeliveryFuture postTelemetry(String device, String variable, String value, Long timestamp) throws Exception {
         StringDataEntry data = new StringDataEntry(variable, value);
 
@@ -0,0 +1,183 @@
+package org.thingsboard.gateway.extensions.kinesis;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Splits Kinesis record paths into device and variable names in a single pass.
+ *
+ * Results are cached per (analyticsId, path) and device names are interned, so
+ * records for an already seen device and variable are resolved without any
+ * string allocation. The cache is bounded and simply starts over once it
+ * reaches its maximum size.
+ */
+public class KinesisPathParser {
+    public static final int DEFAULT_MAX_CACHE_SIZE = 10000;
+
+    private static final String DEVICES_SEGMENT = "Devices";
+    private static final String VARIABLES_SEGMENT = "variables";
+    private static final String EVENTS_SEGMENT = "events";
+    private static final String STARTED_SEGMENT = "started";
+    private static final String BRIDGES_SEGMENT = "Bridges";
+    private static final String SERVERS_SEGMENT = "Servers";
+
+    private final int maxCacheSize;
+
+    private final Map<String, Map<String, ParsedPath>> cache = new ConcurrentHashMap<>();
+    private final Map<String, String> deviceNames = new ConcurrentHashMap<>();
+    private final AtomicInteger cacheSize = new AtomicInteger();
+
+
+    public KinesisPathParser() {
+        this(DEFAULT_MAX_CACHE_SIZE);
+    }
+
+
+    public KinesisPathParser(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+
+    public enum Kind {
+        NONE,
+        VARIABLE,
+        EVENT,
+        STARTED_EVENT
+    }
+
+
+    public static final class ParsedPath {
+        static final ParsedPath NONE = new ParsedPath(Kind.NONE, null, null);
+        static final ParsedPath EVENT = new ParsedPath(Kind.EVENT, null, null);
+
+        private final Kind kind;
+        private final String device;
+        private final String variable;
+
+        ParsedPath(Kind kind, String device, String variable) {
+            this.kind = kind;
+            this.device = device;
+            this.variable = variable;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getDevice() {
+            return device;
+        }
+
+        public String getVariable() {
+            return variable;
+        }
+    }
+
+
+    public ParsedPath parse(String analyticsId, String path) {
+        if (path == null || !path.startsWith(DEVICES_SEGMENT)) {
+            return ParsedPath.NONE;
+        }
+
+        String analyticsKey = String.valueOf(analyticsId);
+        Map<String, ParsedPath> paths = cache.get(analyticsKey);
+        if (paths != null) {
+            ParsedPath cached = paths.get(path);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        ParsedPath parsed = tokenize(analyticsKey, path);
+
+        if (cacheSize.incrementAndGet() > maxCacheSize) {
+            clearCache();
+            cacheSize.incrementAndGet();
+        }
+        cache.computeIfAbsent(analyticsKey, k -> new ConcurrentHashMap<>()).put(path, parsed);
+
+        return parsed;
+    }
+
+
+    int getCacheSize() {
+        return cacheSize.get();
+    }
+
+
+    private void clearCache() {
+        cache.clear();
+        deviceNames.clear();
+        cacheSize.set(0);
+    }
+
+
+    private ParsedPath tokenize(String analyticsId, String path) {
+        int length = path.length();
+        int segmentStart = 0;
+        int previousStart = -1;
+        int previousLength = 0;
+        int startedEventAt = -1;
+        boolean events = false;
+        boolean bridgeOrServer = false;
+
+        for (int i = 0; i <= length; i++) {
+            if (i < length && path.charAt(i) != '/') {
+                continue;
+            }
+
+            int segmentLength = i - segmentStart;
+
+            if (segmentStart > 0 && i < length && isSegment(path, segmentStart, segmentLength, VARIABLES_SEGMENT)) {
+                String device = internDevice(analyticsId, path, 0, segmentStart - 1);
+                return new ParsedPath(Kind.VARIABLE, device, path.substring(i + 1));
+            }
+
+            if (isSegment(path, segmentStart, segmentLength, EVENTS_SEGMENT)) {
+                events = true;
+            } else if (isSegment(path, segmentStart, segmentLength, BRIDGES_SEGMENT)
+                    || isSegment(path, segmentStart, segmentLength, SERVERS_SEGMENT)) {
+                bridgeOrServer = true;
+            } else if (startedEventAt < 0
+                    && isSegment(path, segmentStart, segmentLength, STARTED_SEGMENT)
+                    && isSegment(path, previousStart, previousLength, EVENTS_SEGMENT)) {
+                startedEventAt = previousStart - 1;
+            }
+
+            previousStart = segmentStart;
+            previousLength = segmentLength;
+            segmentStart = i + 1;
+        }
+
+        if (!events) {
+            return ParsedPath.NONE;
+        }
+        if (startedEventAt < 0 || !bridgeOrServer) {
+            return ParsedPath.EVENT;
+        }
+
+        int suffixStart = startedEventAt + Kinesis.EVENTS_STARTED_PATH.length();
+        String device;
+        if (suffixStart == length) {
+            device = internDevice(analyticsId, path, 0, startedEventAt);
+        } else {
+            device = internDevice(analyticsId, path.substring(0, startedEventAt) + path.substring(suffixStart), 0, length - Kinesis.EVENTS_STARTED_PATH.length());
+        }
+        return new ParsedPath(Kind.STARTED_EVENT, device, null);
+    }
+
+
+    private static boolean isSegment(String path, int start, int length, String segment) {
+        return start >= 0 && length == segment.length() && path.regionMatches(start, segment, 0, length);
+    }
+
+
+    private String internDevice(String analyticsId, String path, int start, int end) {
+        String device = new StringBuilder(analyticsId.length() + 1 + end - start)
+                .append(analyticsId).append('/').append(path, start, end).toString();
+        String existing = deviceNames.putIfAbsent(device, device);
+        return existing != null ? existing : device;
+    }
+}
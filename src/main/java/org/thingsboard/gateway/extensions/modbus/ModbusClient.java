@@ -38,6 +38,7 @@ import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -60,7 +61,7 @@ public class ModbusClient implements ModbusDeviceAware {
         this.configuration = configuration;
         this.client = createClient(this.configuration.getTransport());
         this.executor = Executors.newSingleThreadScheduledExecutor();
-        this.devices = this.configuration.getDevices().stream().collect(Collectors.toMap(c -> c.getDeviceName(), c -> new ModbusDevice(c)));
+        this.devices = this.configuration.getDevices().stream().collect(Collectors.toMap(c -> c.getDeviceName(), c -> new ModbusDevice(c, gateway.isTelemetryFiltered())));
         this.serverName = createServerName(this.configuration.getTransport());
         this.rpcProcessor = new RpcProcessor(this.gateway, this.client, this);
     }
@@ -158,7 +159,12 @@ public class ModbusClient implements ModbusDeviceAware {
                         tags.getValue().stream().map(t -> t.getTag()).collect(Collectors.joining(",")),
                         tags.getKey());
 
+                AtomicLong ticks = new AtomicLong();
                 executor.scheduleAtFixedRate(()->{
+                    // polls are skipped while the uplink is under pressure
+                    if (ticks.incrementAndGet() % gateway.getPressureLevel().getPollStretch() != 0) {
+                        return;
+                    }
                     device.clearUpdates();
                     readTags(device, tags.getValue());
                     checkDeviceDataUpdates(device);
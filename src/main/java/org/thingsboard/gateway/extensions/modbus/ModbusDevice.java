@@ -33,19 +33,23 @@ public class ModbusDevice {
 
     private Map<Integer, List<PollingTagMapping>> tagsByPollPeriod = new HashMap<>();
 
-    private Map<PollingTagMapping, KvEntry> attributes = new HashMap<>();
-    private Map<PollingTagMapping, TsKvEntry> timeseries = new HashMap<>();
+    // by tag, mappings with equal settings are equal regardless of their tag
+    private Map<String, KvEntry> attributes = new HashMap<>();
+    private Map<String, TsKvEntry> timeseries = new HashMap<>();
+    // unchanged samples are passed on to the gateway filter, so its heartbeat keeps working
+    private final boolean telemetryFiltered;
 
     private List<KvEntry> attributesUpdates = new LinkedList<>();
     private List<TsKvEntry> timeseriesUpdates = new LinkedList<>();
 
-    public ModbusDevice(DeviceMapping conf) {
+    public ModbusDevice(DeviceMapping conf, boolean telemetryFiltered) {
         this.configuration = conf;
+        this.telemetryFiltered = telemetryFiltered;
 
         sortByPollPeriod(configuration.getAttributes(), configuration.getAttributesPollPeriod());
         sortByPollPeriod(configuration.getTimeseries(), configuration.getTimeseriesPollPeriod());
 
-        configuration.getAttributes().stream().forEach(attr -> attributes.put(attr, null));
+        configuration.getAttributes().stream().forEach(attr -> attributes.put(attr.getTag(), null));
     }
 
     private void sortByPollPeriod(List<PollingTagMapping> mappings, int defaultPollPeriod) {
@@ -83,16 +87,16 @@ public class ModbusDevice {
         if (attributes.containsKey(mapping.getTag())) {
             KvEntry oldEntry = attributes.get(mapping.getTag());
             if (oldEntry == null || !oldEntry.getValue().equals(entry.getValue())) {
-                attributes.put(mapping, entry);
+                attributes.put(mapping.getTag(), entry);
                 attributesUpdates.add(entry);
 
                 log.debug("MBD[{}] attribute update: key '{}', val '{}'", configuration.getDeviceName(), entry.getKey(), entry.getValue());
             }
         } else {
             TsKvEntry oldEntry = timeseries.get(mapping.getTag());
-            if (oldEntry == null || !oldEntry.getValue().equals(entry.getValue())) {
+            if (telemetryFiltered || oldEntry == null || !oldEntry.getValue().equals(entry.getValue())) {
                 TsKvEntry newTsEntry = new BasicTsKvEntry(System.currentTimeMillis(), entry);
-                timeseries.put(mapping, newTsEntry);
+                timeseries.put(mapping.getTag(), newTsEntry);
                 timeseriesUpdates.add(newTsEntry);
 
                 log.debug("MBD[{}] timeseries update:  key '{}', val '{}'", configuration.getDeviceName(), entry.getKey(), entry.getValue());
@@ -0,0 +1,158 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.extensions.mqtt.client;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel for device keep-alive timeouts.
+ * <p>
+ * Incoming device data only updates the last-seen timestamp of the device, which is O(1) and allocation free
+ * for known devices. Deadlines are evaluated lazily by {@link #tick()}: entries whose device reported in the
+ * meantime are moved to the slot of their new deadline, the rest are expired.
+ */
+@Slf4j
+public class DeviceKeepAliveWheel {
+
+    public static final long DEFAULT_TICK_DURATION = 100;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickDuration;
+    private final int mask;
+    private final ArrayDeque<Entry>[] wheel;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry> added = new ConcurrentLinkedQueue<>();
+    private final Consumer<String> onTimeout;
+
+    // accessed by the tick thread only
+    private long tick;
+
+    public DeviceKeepAliveWheel(Consumer<String> onTimeout) {
+        this(DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE, onTimeout);
+    }
+
+    @SuppressWarnings("unchecked")
+    public DeviceKeepAliveWheel(long tickDuration, int wheelSize, Consumer<String> onTimeout) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two!");
+        }
+        this.tickDuration = tickDuration;
+        this.mask = wheelSize - 1;
+        this.wheel = new ArrayDeque[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.onTimeout = onTimeout;
+    }
+
+    public long getTickDuration() {
+        return tickDuration;
+    }
+
+    /**
+     * Records activity of the device and (re)arms its keep-alive timeout.
+     */
+    public void touch(String deviceName, long timeout) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(deviceName);
+        if (entry == null) {
+            Entry created = new Entry(deviceName, timeout, now);
+            entry = entries.putIfAbsent(deviceName, created);
+            if (entry == null) {
+                log.debug("Scheduling keep alive timer for device {} with timeout = {}", deviceName, timeout);
+                added.add(created);
+                return;
+            }
+        }
+        entry.timeout = timeout;
+        entry.lastSeen = now;
+    }
+
+    public void cancel(String deviceName) {
+        Entry entry = entries.remove(deviceName);
+        if (entry != null) {
+            entry.cancelled = true;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Advances the wheel by one slot. Must be called every tick duration from a single thread.
+     */
+    public void tick() {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        while ((entry = added.poll()) != null) {
+            if (!entry.cancelled) {
+                schedule(entry, now);
+            }
+        }
+
+        ArrayDeque<Entry> slot = wheel[(int) (tick & mask)];
+        tick++;
+        for (int i = slot.size(); i > 0; i--) {
+            entry = slot.poll();
+            if (entry.cancelled) {
+                continue;
+            }
+            if (entry.lastSeen + entry.timeout <= now) {
+                expire(entry);
+            } else {
+                schedule(entry, now);
+            }
+        }
+    }
+
+    private void schedule(Entry entry, long now) {
+        long delay = entry.lastSeen + entry.timeout - now;
+        long ticks = Math.max(0, (delay + tickDuration - 1) / tickDuration);
+        wheel[(int) ((tick + Math.min(ticks, mask)) & mask)].add(entry);
+    }
+
+    private void expire(Entry entry) {
+        if (entries.remove(entry.deviceName, entry)) {
+            entry.cancelled = true;
+            try {
+                onTimeout.accept(entry.deviceName);
+            } catch (Exception e) {
+                log.warn("[{}] Failed to process keep alive timeout", entry.deviceName, e);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final String deviceName;
+        private volatile long timeout;
+        private volatile long lastSeen;
+        private volatile boolean cancelled;
+
+        private Entry(String deviceName, long timeout, long lastSeen) {
+            this.deviceName = deviceName;
+            this.timeout = timeout;
+            this.lastSeen = lastSeen;
+        }
+    }
+}
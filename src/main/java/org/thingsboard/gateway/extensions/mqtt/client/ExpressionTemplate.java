@@ -0,0 +1,149 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.extensions.mqtt.client;
+
+import org.thingsboard.gateway.service.data.RpcCommandData;
+import org.thingsboard.server.common.data.kv.KvEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Topic or payload expression split once into literal text and ${...} placeholders.
+ * Placeholders that are not known, or have no value for the rendered message, are kept as is.
+ */
+public class ExpressionTemplate {
+
+    enum Variable {
+        DEVICE_NAME("deviceName"),
+        METHOD_NAME("methodName"),
+        REQUEST_ID("requestId"),
+        PARAMS("params"),
+        ATTRIBUTE_KEY("attributeKey"),
+        ATTRIBUTE_VALUE("attributeValue");
+
+        private final String placeholder;
+
+        Variable(String name) {
+            this.placeholder = "${" + name + "}";
+        }
+
+        static Variable of(String placeholder) {
+            for (Variable variable : values()) {
+                if (variable.placeholder.equals(placeholder)) {
+                    return variable;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final String expression;
+    private final String[] literals;
+    private final Variable[] variables;
+
+    private ExpressionTemplate(String expression, String[] literals, Variable[] variables) {
+        this.expression = expression;
+        this.literals = literals;
+        this.variables = variables;
+    }
+
+    public static ExpressionTemplate compile(String expression) {
+        List<String> literals = new ArrayList<>();
+        List<Variable> variables = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int pos = 0;
+        while (pos < expression.length()) {
+            int start = expression.indexOf("${", pos);
+            int end = start < 0 ? -1 : expression.indexOf('}', start);
+            if (end < 0) {
+                literal.append(expression, pos, expression.length());
+                break;
+            }
+            Variable variable = Variable.of(expression.substring(start, end + 1));
+            if (variable == null) {
+                literal.append(expression, pos, start + 2);
+                pos = start + 2;
+            } else {
+                literal.append(expression, pos, start);
+                literals.add(literal.toString());
+                variables.add(variable);
+                literal.setLength(0);
+                pos = end + 1;
+            }
+        }
+        literals.add(literal.toString());
+        return new ExpressionTemplate(expression, literals.toArray(new String[0]), variables.toArray(new Variable[0]));
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public String render(String deviceName, RpcCommandData command) {
+        if (variables.length == 0) {
+            return literals[0];
+        }
+        StringBuilder sb = new StringBuilder(expression.length() + 32);
+        for (int i = 0; i < variables.length; i++) {
+            sb.append(literals[i]);
+            switch (variables[i]) {
+                case DEVICE_NAME:
+                    sb.append(deviceName);
+                    break;
+                case METHOD_NAME:
+                    sb.append(command.getMethod());
+                    break;
+                case REQUEST_ID:
+                    sb.append(command.getRequestId());
+                    break;
+                case PARAMS:
+                    sb.append(command.getParams());
+                    break;
+                default:
+                    sb.append(variables[i].placeholder);
+            }
+        }
+        return sb.append(literals[variables.length]).toString();
+    }
+
+    public String render(String requestId, String deviceName, KvEntry attribute) {
+        if (variables.length == 0) {
+            return literals[0];
+        }
+        StringBuilder sb = new StringBuilder(expression.length() + 32);
+        for (int i = 0; i < variables.length; i++) {
+            sb.append(literals[i]);
+            switch (variables[i]) {
+                case DEVICE_NAME:
+                    sb.append(deviceName);
+                    break;
+                case REQUEST_ID:
+                    sb.append(requestId);
+                    break;
+                case ATTRIBUTE_KEY:
+                    sb.append(attribute.getKey());
+                    break;
+                case ATTRIBUTE_VALUE:
+                    sb.append(attribute.getValueAsString());
+                    break;
+                default:
+                    sb.append(variables[i].placeholder);
+            }
+        }
+        return sb.append(literals[variables.length]).toString();
+    }
+}
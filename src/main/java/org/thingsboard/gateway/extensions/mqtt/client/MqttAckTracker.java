@@ -0,0 +1,109 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.extensions.mqtt.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Acknowledges messages of a client with manual acks once they are processed, in the order they arrived.
+ * <p>
+ * The broker stops delivering once its limit of unacknowledged messages is reached, so holding back the acks
+ * with {@link #setPaused(boolean)} pauses consumption without blocking the threads of the client.
+ */
+@Slf4j
+public class MqttAckTracker {
+
+    public interface AckSender {
+        void send(int messageId, int qos) throws MqttException;
+    }
+
+    private final AckSender sender;
+
+    // guarded by this
+    private final Deque<PendingAck> pending = new ArrayDeque<>();
+    private boolean paused;
+
+    public MqttAckTracker(AckSender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Registers an arrived message. Called by the client thread before the message is processed.
+     */
+    public synchronized void arrived(MqttMessage message) {
+        pending.add(new PendingAck(message));
+    }
+
+    /**
+     * Marks the message as processed and acknowledges it together with the processed messages that arrived after it,
+     * unless acks are paused or an earlier message is still processed.
+     */
+    public synchronized void processed(MqttMessage message) {
+        for (PendingAck ack : pending) {
+            if (ack.message == message) {
+                ack.processed = true;
+                break;
+            }
+        }
+        release();
+    }
+
+    public synchronized void setPaused(boolean paused) {
+        this.paused = paused;
+        release();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Forgets the messages of a lost connection, their ids may be reused by the broker.
+     */
+    public synchronized void clear() {
+        pending.clear();
+    }
+
+    // the client only queues acks, so they are sent under the lock to keep their order
+    private void release() {
+        while (!paused && !pending.isEmpty() && pending.peek().processed) {
+            MqttMessage message = pending.poll().message;
+            try {
+                sender.send(message.getId(), message.getQos());
+            } catch (MqttException e) {
+                log.warn("Failed to acknowledge message [{}]", message.getId(), e);
+            }
+        }
+    }
+
+    private static final class PendingAck {
+        private final MqttMessage message;
+        private boolean processed;
+
+        private PendingAck(MqttMessage message) {
+            this.message = message;
+        }
+    }
+}
@@ -22,14 +22,18 @@ import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.springframework.util.StringUtils;
 import org.thingsboard.gateway.extensions.mqtt.client.conf.MqttBrokerConfiguration;
 import org.thingsboard.gateway.extensions.mqtt.client.conf.mapping.*;
+import org.thingsboard.gateway.extensions.mqtt.client.listener.MqttAckingMessageListener;
 import org.thingsboard.gateway.extensions.mqtt.client.listener.MqttAttributeRequestsMessageListener;
 import org.thingsboard.gateway.extensions.mqtt.client.listener.MqttDeviceStateChangeMessageListener;
+import org.thingsboard.gateway.extensions.mqtt.client.listener.MqttDispatchingMessageListener;
 import org.thingsboard.gateway.extensions.mqtt.client.listener.MqttRpcResponseMessageListener;
 import org.thingsboard.gateway.extensions.mqtt.client.listener.MqttTelemetryMessageListener;
 import org.thingsboard.gateway.service.AttributesUpdateListener;
 import org.thingsboard.gateway.service.RpcCommandListener;
 import org.thingsboard.gateway.service.data.*;
 import org.thingsboard.gateway.service.gateway.GatewayService;
+import org.thingsboard.gateway.service.gateway.PressureLevel;
+import org.thingsboard.gateway.util.StripedExecutor;
 import org.thingsboard.server.common.data.kv.KvEntry;
 
 import java.nio.charset.StandardCharsets;
@@ -37,16 +41,19 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 /**
  * Created by ashvayka on 24.01.17.
  */
 @Slf4j
 public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener, RpcCommandListener {
+    private static final int DEFAULT_WORKER_QUEUE_SIZE = 1000;
+    private static final long RPC_EVICTION_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    private static final long WORKER_STATS_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final long PRESSURE_CHECK_INTERVAL = 100;
+
     private final UUID clientId = UUID.randomUUID();
     private final GatewayService gateway;
     private final MqttBrokerConfiguration configuration;
@@ -57,14 +64,20 @@ public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener
     private MqttConnectOptions clientOptions;
     private Object connectLock = new Object();
 
-    //TODO: probably use newScheduledThreadPool(int threadSize) to improve performance in heavy load cases
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-    private final Map<String, ScheduledFuture<?>> deviceKeepAliveTimers = new ConcurrentHashMap<>();
+    private final DeviceKeepAliveWheel keepAliveWheel = new DeviceKeepAliveWheel(this::onDeviceKeepAliveTimeout);
+    private final MqttMappingIndex mappingIndex;
+    private final RpcResponseCorrelator rpcResponses = new RpcResponseCorrelator();
+    // acks are held back while the uplink pressure is critical, so the broker stops delivering
+    private final MqttAckTracker acks = new MqttAckTracker((messageId, qos) -> client.messageArrivedComplete(messageId, qos));
+
+    private StripedExecutor dispatcher;
 
     public MqttBrokerMonitor(GatewayService gateway, MqttBrokerConfiguration configuration) {
         this.gateway = gateway;
         this.configuration = configuration;
-        this.devices = new HashSet<>();
+        this.devices = ConcurrentHashMap.newKeySet();
+        this.mappingIndex = new MqttMappingIndex(configuration);
     }
 
     public void connect() {
@@ -72,6 +85,7 @@ public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener
             client = new MqttAsyncClient((configuration.isSsl() ? "ssl" : "tcp") + "://" + configuration.getHost() + ":" + configuration.getPort(),
                     getClientId(), new MemoryPersistence());
             client.setCallback(this);
+            client.setManualAcks(true);
             clientOptions = new MqttConnectOptions();
             clientOptions.setCleanSession(true);
             if (configuration.isSsl() && !StringUtils.isEmpty(configuration.getTruststore())) {
@@ -83,6 +97,12 @@ public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener
                 clientOptions.setSSLProperties(sslProperties);
             }
             configuration.getCredentials().configure(clientOptions);
+            initDispatcher();
+            scheduler.scheduleAtFixedRate(this::checkPressure, PRESSURE_CHECK_INTERVAL, PRESSURE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+            scheduler.scheduleAtFixedRate(keepAliveWheel::tick, keepAliveWheel.getTickDuration(), keepAliveWheel.getTickDuration(), TimeUnit.MILLISECONDS);
+            if (!mappingIndex.getRpcResponseTopics().isEmpty()) {
+                scheduler.scheduleAtFixedRate(rpcResponses::evictExpired, RPC_EVICTION_INTERVAL, RPC_EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+            }
             checkConnection();
             if (configuration.getAttributeUpdates() != null) {
                 configuration.getAttributeUpdates().forEach(mapping ->
@@ -100,6 +120,28 @@ public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener
         }
     }
 
+    private void initDispatcher() {
+        if (configuration.getWorkerThreads() > 0) {
+            int queueSize = configuration.getWorkerQueueSize() > 0 ? configuration.getWorkerQueueSize() : DEFAULT_WORKER_QUEUE_SIZE;
+            dispatcher = new StripedExecutor("mqtt-" + configuration.getHost() + ":" + configuration.getPort(),
+                    configuration.getWorkerThreads(), queueSize);
+            scheduler.scheduleAtFixedRate(this::reportDispatcherStats, WORKER_STATS_INTERVAL, WORKER_STATS_INTERVAL, TimeUnit.MILLISECONDS);
+            log.info("[{}:{}] Dispatching messages to {} workers with queue size {}",
+                    configuration.getHost(), configuration.getPort(), configuration.getWorkerThreads(), queueSize);
+        }
+    }
+
+    private void reportDispatcherStats() {
+        long overflowed = dispatcher.pollOverflowed();
+        if (overflowed > 0) {
+            log.warn("[{}:{}] Worker queues are full, {} messages were queued past the limit. Queue depth: {}, max per worker: {}",
+                    configuration.getHost(), configuration.getPort(), overflowed, dispatcher.getQueueDepth(), dispatcher.getMaxStripeDepth());
+        } else {
+            log.debug("[{}:{}] Worker queue depth: {}, max per worker: {}",
+                    configuration.getHost(), configuration.getPort(), dispatcher.getQueueDepth(), dispatcher.getMaxStripeDepth());
+        }
+    }
+
     private String getClientId() {
         return StringUtils.isEmpty(configuration.getClientId()) ? clientId.toString() : configuration.getClientId();
     }
@@ -113,6 +155,9 @@ public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener
             log.warn("[{}:{}] MQTT client disconnection faied! {}", configuration.getHost(), configuration.getPort(), e.getMessage(), e);
         }
         scheduler.shutdownNow();
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+        }
     }
 
     private void checkConnection() {
@@ -152,28 +197,43 @@ public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener
     private void subscribeToTopics() throws MqttException {
         List<IMqttToken> tokens = new ArrayList<>();
         for (MqttTopicMapping mapping : configuration.getMapping()) {
-            tokens.add(client.subscribe(mapping.getTopicFilter(), 1, new MqttTelemetryMessageListener(this::onDeviceData, mapping.getConverter())));
+            IMqttMessageListener listener = new MqttTelemetryMessageListener(this::onDeviceData, mapping.getConverter());
+            if (dispatcher != null) {
+                listener = new MqttDispatchingMessageListener(dispatcher, listener, acks);
+            } else {
+                listener = acked(listener);
+            }
+            tokens.add(client.subscribe(mapping.getTopicFilter(), 1, listener));
         }
         if (configuration.getConnectRequests() != null) {
             for (DeviceStateChangeMapping mapping : configuration.getConnectRequests()) {
-                tokens.add(client.subscribe(mapping.getTopicFilter(), 1, new MqttDeviceStateChangeMessageListener(mapping, this::onDeviceConnect)));
+                tokens.add(client.subscribe(mapping.getTopicFilter(), 1, acked(new MqttDeviceStateChangeMessageListener(mapping, this::onDeviceConnect))));
             }
         }
         if (configuration.getDisconnectRequests() != null) {
             for (DeviceStateChangeMapping mapping : configuration.getDisconnectRequests()) {
-                tokens.add(client.subscribe(mapping.getTopicFilter(), 1, new MqttDeviceStateChangeMessageListener(mapping, this::onDeviceDisconnect)));
+                tokens.add(client.subscribe(mapping.getTopicFilter(), 1, acked(new MqttDeviceStateChangeMessageListener(mapping, this::onDeviceDisconnect))));
             }
         }
         if (configuration.getAttributeRequests() != null) {
             for (AttributeRequestsMapping mapping : configuration.getAttributeRequests()) {
-                tokens.add(client.subscribe(mapping.getTopicFilter(), 1, new MqttAttributeRequestsMessageListener(this::onAttributeRequest, mapping)));
+                tokens.add(client.subscribe(mapping.getTopicFilter(), 1, acked(new MqttAttributeRequestsMessageListener(this::onAttributeRequest, mapping))));
             }
         }
+        for (RpcResponseTopic responseTopic : mappingIndex.getRpcResponseTopics()) {
+            tokens.add(client.subscribe(responseTopic.getFilter(), 1,
+                    acked((topic, msg) -> onRpcCommandResponse(responseTopic, topic, msg))));
+        }
         for (IMqttToken token : tokens) {
             token.waitForCompletion();
         }
     }
 
+    // every listener has to ack its messages, the client runs with manual acks
+    private IMqttMessageListener acked(IMqttMessageListener listener) {
+        return new MqttAckingMessageListener(acks, listener);
+    }
+
     private void onDeviceConnect(String deviceName, String deviceType) {
         log.info("[{}] Device with type {} connected!", deviceName, deviceType);
         gateway.onDeviceConnect(deviceName, deviceType);
@@ -183,7 +243,12 @@ public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener
         log.info("[{}] Device disconnected!", deviceName);
         gateway.onDeviceDisconnect(deviceName);
         log.debug("[{}] Will Topic Msg Received. Disconnecting device...", deviceName);
-        cleanUpKeepAliveTimes(deviceName);
+        keepAliveWheel.cancel(deviceName);
+    }
+
+    private void onDeviceKeepAliveTimeout(String deviceName) {
+        log.warn("[{}] Device is going to be disconnected because of timeout!", deviceName);
+        gateway.onDeviceDisconnect(deviceName);
     }
 
     private void onDeviceData(List<DeviceData> data) {
@@ -198,20 +263,21 @@ public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener
                 gateway.onDeviceTelemetry(dd.getName(), dd.getTelemetry());
             }
             if (dd.getTimeout() != 0) {
-                ScheduledFuture<?> future = deviceKeepAliveTimers.get(dd.getName());
-                if (future != null) {
-                    log.debug("Re-scheduling keep alive timer for device {} with timeout = {}", dd.getName(), dd.getTimeout());
-                    future.cancel(true);
-                    deviceKeepAliveTimers.remove(dd.getName());
-                    scheduleDeviceKeepAliveTimer(dd);
-                } else {
-                    log.debug("Scheduling keep alive timer for device {} with timeout = {}", dd.getName(), dd.getTimeout());
-                    scheduleDeviceKeepAliveTimer(dd);
-                }
+                keepAliveWheel.touch(dd.getName(), dd.getTimeout());
             }
         }
     }
 
+    // the broker keeps delivering until its limit of unacknowledged messages is reached, then waits for the acks
+    private void checkPressure() {
+        boolean critical = gateway.getPressureLevel() == PressureLevel.CRITICAL;
+        if (critical != acks.isPaused()) {
+            log.info("[{}:{}] {} broker consumption, uplink pressure is {}", configuration.getHost(), configuration.getPort(),
+                    critical ? "Pausing" : "Resuming", critical ? "critical" : "relieved");
+            acks.setPaused(critical);
+        }
+    }
+
     private void onAttributeRequest(AttributeRequest attributeRequest) {
         gateway.onDeviceAttributeRequest(attributeRequest, this::onAttributeResponse);
     }
@@ -219,46 +285,24 @@ public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener
     private void onAttributeResponse(AttributeResponse response) {
         if (response.getData().isPresent()) {
             KvEntry attribute = response.getData().get();
-            String topic = replace(response.getTopicExpression(), Integer.toString(response.getRequestId()), response.getDeviceName(), attribute);
-            String body = replace(response.getValueExpression(), Integer.toString(response.getRequestId()), response.getDeviceName(), attribute);
+            String requestId = Integer.toString(response.getRequestId());
+            String topic = mappingIndex.getTemplate(response.getTopicExpression()).render(requestId, response.getDeviceName(), attribute);
+            String body = mappingIndex.getTemplate(response.getValueExpression()).render(requestId, response.getDeviceName(), attribute);
             publish(response.getDeviceName(), topic, new MqttMessage(body.getBytes(StandardCharsets.UTF_8)));
         } else {
             log.warn("[{}] {} attribute [{}] not found", response.getDeviceName(), response.isClientScope() ? "Client" : "Shared", response.getKey());
         }
     }
 
-    private void cleanUpKeepAliveTimes(String deviceName) {
-        ScheduledFuture<?> future = deviceKeepAliveTimers.get(deviceName);
-        if (future != null) {
-            future.cancel(true);
-            deviceKeepAliveTimers.remove(deviceName);
-        }
-    }
-
-    private void scheduleDeviceKeepAliveTimer(DeviceData dd) {
-        ScheduledFuture<?> f = scheduler.schedule(
-                () -> {
-                    log.warn("[{}] Device is going to be disconnected because of timeout! timeout = {} milliseconds", dd.getName(), dd.getTimeout());
-                    deviceKeepAliveTimers.remove(dd.getName());
-                    gateway.onDeviceDisconnect(dd.getName());
-                },
-                dd.getTimeout(),
-                TimeUnit.MILLISECONDS
-        );
-        deviceKeepAliveTimers.put(dd.getName(), f);
-    }
-
     @Override
     public void onAttributesUpdated(String deviceName, List<KvEntry> attributes) {
-        List<AttributeUpdatesMapping> mappings = configuration.getAttributeUpdates().stream()
-                .filter(mapping -> deviceName.matches(mapping.getDeviceNameFilter())).collect(Collectors.toList());
-
-        for (AttributeUpdatesMapping mapping : mappings) {
-            List<KvEntry> affected = attributes.stream().filter(attribute -> attribute.getKey()
-                    .matches(mapping.getAttributeFilter())).collect(Collectors.toList());
-            for (KvEntry attribute : affected) {
-                String topic = replace(mapping.getTopicExpression(), deviceName, attribute);
-                String body = replace(mapping.getValueExpression(), deviceName, attribute);
+        for (MqttMappingIndex.AttributeUpdatesRoute mapping : mappingIndex.getAttributeUpdates(deviceName)) {
+            for (KvEntry attribute : attributes) {
+                if (!mapping.getAttributeFilter().matcher(attribute.getKey()).matches()) {
+                    continue;
+                }
+                String topic = mapping.getTopicExpression().render("", deviceName, attribute);
+                String body = mapping.getValueExpression().render("", deviceName, attribute);
                 MqttMessage msg = new MqttMessage(body.getBytes(StandardCharsets.UTF_8));
                 publish(deviceName, topic, msg);
             }
@@ -269,23 +313,25 @@ public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener
     public void onRpcCommand(String deviceName, RpcCommandData command) {
         int requestId = command.getRequestId();
 
-        List<ServerSideRpcMapping> mappings = configuration.getServerSideRpc().stream()
-                .filter(mapping -> deviceName.matches(mapping.getDeviceNameFilter()))
-                .filter(mapping -> command.getMethod().matches(mapping.getMethodFilter())).collect(Collectors.toList());
-
-        mappings.forEach(mapping -> {
-            String requestTopic = replace(mapping.getRequestTopicExpression(), deviceName, command);
-            String body = replace(mapping.getValueExpression(), deviceName, command);
+        for (MqttMappingIndex.RpcRoute mapping : mappingIndex.getServerSideRpc(deviceName)) {
+            if (!mapping.getMethodFilter().matcher(command.getMethod()).matches()) {
+                continue;
+            }
+            String requestTopic = mapping.getRequestTopicExpression().render(deviceName, command);
+            String body = mapping.getValueExpression().render(deviceName, command);
 
-            boolean oneway = StringUtils.isEmpty(mapping.getResponseTopicExpression());
-            if (oneway) {
+            RpcResponseTopic wildcardTopic = mapping.getWildcardResponseTopic();
+            if (mapping.isOneway()) {
+                publish(deviceName, requestTopic, new MqttMessage(body.getBytes(StandardCharsets.UTF_8)));
+            } else if (wildcardTopic != null && wildcardTopic.accepts(deviceName, command.getMethod())
+                    && rpcResponses.register(wildcardTopic.getCorrelationKey(deviceName, requestId), deviceName, requestId, mapping.getResponseTimeout())) {
                 publish(deviceName, requestTopic, new MqttMessage(body.getBytes(StandardCharsets.UTF_8)));
             } else {
-                String responseTopic = replace(mapping.getResponseTopicExpression(), deviceName, command);
+                String responseTopic = mapping.getResponseTopicExpression().render(deviceName, command);
                 try {
                     log.info("[{}] Temporary subscribe to RPC response topic [{}]", deviceName, responseTopic);
                     client.subscribe(responseTopic, 1,
-                            new MqttRpcResponseMessageListener(requestId, deviceName, this::onRpcCommandResponse)
+                            acked(new MqttRpcResponseMessageListener(requestId, deviceName, this::onRpcCommandResponse))
                     ).waitForCompletion();
                     scheduler.schedule(() -> {
                         unsubscribe(deviceName, requestId, responseTopic);
@@ -295,7 +341,7 @@ public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener
                     log.warn("[{}] Failed to subscribe to response topic and push RPC command [{}]", deviceName, requestId, e);
                 }
             }
-        });
+        }
     }
 
     private void onRpcCommandResponse(String topic, RpcCommandResponse rpcResponse) {
@@ -304,6 +350,16 @@ public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener
         unsubscribe(rpcResponse.getDeviceName(), rpcResponse.getRequestId(), topic);
     }
 
+    private void onRpcCommandResponse(RpcResponseTopic responseTopic, String topic, MqttMessage msg) {
+        String key = responseTopic.getCorrelationKey(topic);
+        RpcCommandResponse response = key != null ? rpcResponses.complete(key, new String(msg.getPayload(), StandardCharsets.UTF_8)) : null;
+        if (response != null) {
+            gateway.onDeviceRpcResponse(response);
+        } else {
+            log.debug("Ignoring RPC response on topic [{}] without pending request", topic);
+        }
+    }
+
     private void unsubscribe(String deviceName, int requestId, String topic) {
         try {
             client.unsubscribe(topic);
@@ -330,33 +386,19 @@ public class MqttBrokerMonitor implements MqttCallback, AttributesUpdateListener
         }
     }
 
-    private static String replace(String expression, String deviceName, KvEntry attribute) {
-        return replace(expression, "", deviceName, attribute);
-    }
-
-    private static String replace(String expression, String deviceName, RpcCommandData command) {
-        return expression.replace("${deviceName}", deviceName)
-                .replace("${methodName}", command.getMethod())
-                .replace("${requestId}", Integer.toString(command.getRequestId()))
-                .replace("${params}", command.getParams());
-    }
-
-    private static String replace(String expression, String requestId, String deviceName, KvEntry attribute) {
-        return expression.replace("${deviceName}", deviceName)
-                .replace("${requestId}", requestId)
-                .replace("${attributeKey}", attribute.getKey())
-                .replace("${attributeValue}", attribute.getValueAsString());
-    }
-
     @Override
     public void connectionLost(Throwable cause) {
         log.warn("[{}:{}] MQTT broker connection lost!", configuration.getHost(), configuration.getPort());
+        acks.clear();
         devices.forEach(gateway::onDeviceDisconnect);
         checkConnection();
     }
 
     @Override
     public void messageArrived(String topic, MqttMessage message) throws Exception {
+        // no listener took the message
+        acks.arrived(message);
+        acks.processed(message);
     }
 
     @Override
@@ -0,0 +1,150 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.extensions.mqtt.client;
+
+import lombok.Data;
+import org.springframework.util.StringUtils;
+import org.thingsboard.gateway.extensions.mqtt.client.conf.MqttBrokerConfiguration;
+import org.thingsboard.gateway.extensions.mqtt.client.conf.mapping.AttributeUpdatesMapping;
+import org.thingsboard.gateway.extensions.mqtt.client.conf.mapping.ServerSideRpcMapping;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Attribute update and server-side RPC mappings with filters and templates compiled once,
+ * plus a bounded cache of the mappings that apply to each device name.
+ */
+public class MqttMappingIndex {
+
+    public static final int DEFAULT_MAX_CACHE_SIZE = 10000;
+
+    private final int maxCacheSize;
+    private final List<AttributeUpdatesRoute> attributeUpdates;
+    private final List<RpcRoute> serverSideRpc;
+    private final Map<String, List<AttributeUpdatesRoute>> attributeUpdatesByDevice = new ConcurrentHashMap<>();
+    private final Map<String, List<RpcRoute>> serverSideRpcByDevice = new ConcurrentHashMap<>();
+    private final Map<String, ExpressionTemplate> templates = new ConcurrentHashMap<>();
+
+    public MqttMappingIndex(MqttBrokerConfiguration configuration) {
+        this(configuration, DEFAULT_MAX_CACHE_SIZE);
+    }
+
+    public MqttMappingIndex(MqttBrokerConfiguration configuration, int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+        this.attributeUpdates = configuration.getAttributeUpdates() == null ? Collections.emptyList() :
+                configuration.getAttributeUpdates().stream().map(AttributeUpdatesRoute::new).collect(Collectors.toList());
+        this.serverSideRpc = configuration.getServerSideRpc() == null ? Collections.emptyList() :
+                compileServerSideRpc(configuration.getServerSideRpc());
+    }
+
+    public List<AttributeUpdatesRoute> getAttributeUpdates(String deviceName) {
+        return lookup(attributeUpdatesByDevice, attributeUpdates, deviceName, AttributeUpdatesRoute::getDeviceNameFilter);
+    }
+
+    public List<RpcRoute> getServerSideRpc(String deviceName) {
+        return lookup(serverSideRpcByDevice, serverSideRpc, deviceName, RpcRoute::getDeviceNameFilter);
+    }
+
+    public Set<RpcResponseTopic> getRpcResponseTopics() {
+        return serverSideRpc.stream().map(RpcRoute::getWildcardResponseTopic).filter(Objects::nonNull).collect(Collectors.toSet());
+    }
+
+    public ExpressionTemplate getTemplate(String expression) {
+        ExpressionTemplate template = templates.get(expression);
+        if (template == null) {
+            if (templates.size() >= maxCacheSize) {
+                templates.clear();
+            }
+            template = ExpressionTemplate.compile(expression);
+            templates.put(expression, template);
+        }
+        return template;
+    }
+
+    private <T> List<T> lookup(Map<String, List<T>> cache, List<T> routes, String deviceName, Function<T, Pattern> filter) {
+        List<T> result = cache.get(deviceName);
+        if (result == null) {
+            result = routes.stream().filter(route -> filter.apply(route).matcher(deviceName).matches()).collect(Collectors.toList());
+            if (cache.size() >= maxCacheSize) {
+                cache.clear();
+            }
+            cache.put(deviceName, result);
+        }
+        return result;
+    }
+
+    private static List<RpcRoute> compileServerSideRpc(List<ServerSideRpcMapping> mappings) {
+        Map<String, RpcResponseTopic> topicsByFilter = new HashMap<>();
+        List<RpcRoute> routes = new ArrayList<>(mappings.size());
+        for (ServerSideRpcMapping mapping : mappings) {
+            RpcResponseTopic topic = RpcResponseTopic.parse(mapping.getResponseTopicExpression());
+            if (topic != null) {
+                RpcResponseTopic existing = topicsByFilter.putIfAbsent(topic.getFilter(), topic);
+                if (existing != null) {
+                    // a filter can only be subscribed once, so it must resolve request ids the same way for all mappings
+                    topic = existing.equals(topic) ? existing : null;
+                }
+            }
+            routes.add(new RpcRoute(mapping, topic));
+        }
+        return routes;
+    }
+
+    @Data
+    public static class AttributeUpdatesRoute {
+        private final Pattern deviceNameFilter;
+        private final Pattern attributeFilter;
+        private final ExpressionTemplate topicExpression;
+        private final ExpressionTemplate valueExpression;
+
+        AttributeUpdatesRoute(AttributeUpdatesMapping mapping) {
+            this.deviceNameFilter = Pattern.compile(mapping.getDeviceNameFilter());
+            this.attributeFilter = Pattern.compile(mapping.getAttributeFilter());
+            this.topicExpression = ExpressionTemplate.compile(mapping.getTopicExpression());
+            this.valueExpression = ExpressionTemplate.compile(mapping.getValueExpression());
+        }
+    }
+
+    @Data
+    public static class RpcRoute {
+        private final Pattern deviceNameFilter;
+        private final Pattern methodFilter;
+        private final ExpressionTemplate requestTopicExpression;
+        private final ExpressionTemplate responseTopicExpression;
+        private final ExpressionTemplate valueExpression;
+        private final RpcResponseTopic wildcardResponseTopic;
+        private final long responseTimeout;
+
+        RpcRoute(ServerSideRpcMapping mapping, RpcResponseTopic wildcardResponseTopic) {
+            this.deviceNameFilter = Pattern.compile(mapping.getDeviceNameFilter());
+            this.methodFilter = Pattern.compile(mapping.getMethodFilter());
+            this.requestTopicExpression = ExpressionTemplate.compile(mapping.getRequestTopicExpression());
+            this.responseTopicExpression = StringUtils.isEmpty(mapping.getResponseTopicExpression()) ? null :
+                    ExpressionTemplate.compile(mapping.getResponseTopicExpression());
+            this.valueExpression = ExpressionTemplate.compile(mapping.getValueExpression());
+            this.wildcardResponseTopic = wildcardResponseTopic;
+            this.responseTimeout = mapping.getResponseTimeout();
+        }
+
+        public boolean isOneway() {
+            return responseTopicExpression == null;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.extensions.mqtt.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.gateway.service.data.RpcCommandResponse;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of two-way RPC commands waiting for a response on one of the persistent response subscriptions.
+ */
+@Slf4j
+public class RpcResponseCorrelator {
+
+    private final Map<String, PendingRpc> pending = new ConcurrentHashMap<>();
+
+    /**
+     * @return false if a command with the same correlation key is already waiting for a response
+     */
+    public boolean register(String key, String deviceName, int requestId, long timeout) {
+        PendingRpc rpc = new PendingRpc(deviceName, requestId, System.currentTimeMillis() + timeout);
+        return pending.putIfAbsent(key, rpc) == null;
+    }
+
+    /**
+     * @return response for the pending command or null if there is no command waiting for it
+     */
+    public RpcCommandResponse complete(String key, String data) {
+        PendingRpc rpc = pending.remove(key);
+        if (rpc == null) {
+            return null;
+        }
+        RpcCommandResponse response = new RpcCommandResponse();
+        response.setRequestId(rpc.requestId);
+        response.setDeviceName(rpc.deviceName);
+        response.setData(data);
+        return response;
+    }
+
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<PendingRpc> it = pending.values().iterator();
+        while (it.hasNext()) {
+            PendingRpc rpc = it.next();
+            if (rpc.deadline <= now) {
+                it.remove();
+                log.debug("[{}][{}] RPC response timeout", rpc.deviceName, rpc.requestId);
+            }
+        }
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    private static final class PendingRpc {
+        private final String deviceName;
+        private final int requestId;
+        private final long deadline;
+
+        private PendingRpc(String deviceName, int requestId, long deadline) {
+            this.deviceName = deviceName;
+            this.requestId = requestId;
+            this.deadline = deadline;
+        }
+    }
+}
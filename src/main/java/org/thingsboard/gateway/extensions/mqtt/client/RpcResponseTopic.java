@@ -0,0 +1,147 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.extensions.mqtt.client;
+
+/**
+ * RPC response topic expression that can be served by a single wildcard subscription.
+ * <p>
+ * Only expressions where ${requestId}, ${deviceName} and ${methodName} occupy whole topic levels are supported,
+ * because these levels are replaced by '+' in the subscription filter and have to be read back from the topic
+ * of the response. Both ${requestId} and ${deviceName} are required, as request ids are only unique per device.
+ */
+public class RpcResponseTopic {
+
+    private static final String REQUEST_ID = "${requestId}";
+    private static final String DEVICE_NAME = "${deviceName}";
+    private static final String METHOD_NAME = "${methodName}";
+
+    private final String filter;
+    private final String[] literals;
+    private final int requestIdLevel;
+    private final int deviceNameLevel;
+    private final boolean methodNameLevel;
+
+    private RpcResponseTopic(String filter, String[] literals, int requestIdLevel, int deviceNameLevel, boolean methodNameLevel) {
+        this.filter = filter;
+        this.literals = literals;
+        this.requestIdLevel = requestIdLevel;
+        this.deviceNameLevel = deviceNameLevel;
+        this.methodNameLevel = methodNameLevel;
+    }
+
+    /**
+     * @return parsed topic or null if the expression can't be subscribed to with a wildcard filter
+     */
+    public static RpcResponseTopic parse(String expression) {
+        if (expression == null || expression.isEmpty()) {
+            return null;
+        }
+        String[] levels = expression.split("/", -1);
+        String[] literals = new String[levels.length];
+        StringBuilder filter = new StringBuilder(expression.length());
+        int requestIdLevel = -1;
+        int deviceNameLevel = -1;
+        boolean methodNameLevel = false;
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (i > 0) {
+                filter.append('/');
+            }
+            if (REQUEST_ID.equals(level) && requestIdLevel < 0) {
+                requestIdLevel = i;
+                filter.append('+');
+            } else if (DEVICE_NAME.equals(level) && deviceNameLevel < 0) {
+                deviceNameLevel = i;
+                filter.append('+');
+            } else if (METHOD_NAME.equals(level)) {
+                methodNameLevel = true;
+                filter.append('+');
+            } else if (level.contains("${") || level.contains("+") || level.contains("#")) {
+                return null;
+            } else {
+                literals[i] = level;
+                filter.append(level);
+            }
+        }
+        if (requestIdLevel < 0 || deviceNameLevel < 0) {
+            return null;
+        }
+        return new RpcResponseTopic(filter.toString(), literals, requestIdLevel, deviceNameLevel, methodNameLevel);
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return true if responses to the command will arrive on a topic matched by the wildcard filter
+     */
+    public boolean accepts(String deviceName, String methodName) {
+        return isSingleLevel(deviceName, deviceNameLevel == 0) && (!methodNameLevel || isSingleLevel(methodName, false));
+    }
+
+    public String getCorrelationKey(String deviceName, int requestId) {
+        return requestId + "/" + deviceName;
+    }
+
+    /**
+     * @return correlation key of the response received on the given topic or null if the topic doesn't match
+     */
+    public String getCorrelationKey(String topic) {
+        String[] levels = topic.split("/", -1);
+        if (levels.length != literals.length) {
+            return null;
+        }
+        for (int i = 0; i < levels.length; i++) {
+            if (literals[i] != null && !literals[i].equals(levels[i])) {
+                return null;
+            }
+        }
+        int requestId;
+        try {
+            requestId = Integer.parseInt(levels[requestIdLevel]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return getCorrelationKey(levels[deviceNameLevel], requestId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RpcResponseTopic that = (RpcResponseTopic) o;
+        return requestIdLevel == that.requestIdLevel
+                && deviceNameLevel == that.deviceNameLevel
+                && methodNameLevel == that.methodNameLevel
+                && filter.equals(that.filter);
+    }
+
+    @Override
+    public int hashCode() {
+        return filter.hashCode();
+    }
+
+    private static boolean isSingleLevel(String value, boolean first) {
+        return value != null
+                && value.indexOf('/') < 0 && value.indexOf('+') < 0 && value.indexOf('#') < 0
+                && !(first && value.startsWith("$"));
+    }
+}
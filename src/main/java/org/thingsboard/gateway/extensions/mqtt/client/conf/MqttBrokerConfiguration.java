@@ -33,6 +33,8 @@ public class MqttBrokerConfiguration {
     private String truststore;
     private String truststorePassword;
     private long retryInterval;
+    private int workerThreads;
+    private int workerQueueSize;
     private MqttClientCredentials credentials;
     private List<MqttTopicMapping> mapping;
     private List<DeviceConnectMapping> connectRequests;
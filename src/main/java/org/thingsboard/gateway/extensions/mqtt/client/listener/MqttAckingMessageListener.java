@@ -0,0 +1,41 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.extensions.mqtt.client.listener;
+
+import lombok.Data;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.thingsboard.gateway.extensions.mqtt.client.MqttAckTracker;
+
+/**
+ * Acknowledges the message once the delegate has processed it on the Paho callback thread.
+ */
+@Data
+public class MqttAckingMessageListener implements IMqttMessageListener {
+
+    private final MqttAckTracker acks;
+    private final IMqttMessageListener delegate;
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) throws Exception {
+        acks.arrived(message);
+        try {
+            delegate.messageArrived(topic, message);
+        } finally {
+            acks.processed(message);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.extensions.mqtt.client.listener;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.thingsboard.gateway.extensions.mqtt.client.MqttAckTracker;
+import org.thingsboard.gateway.util.StripedExecutor;
+
+/**
+ * Hands messages over to the worker stripe of their topic, so that messages of one topic keep their order
+ * while different topics are processed in parallel. Messages are acknowledged once processed, so the in-flight limit
+ * of the broker bounds the stripes and the Paho callback thread never waits for them.
+ */
+@Data
+@Slf4j
+public class MqttDispatchingMessageListener implements IMqttMessageListener {
+
+    private final StripedExecutor dispatcher;
+    private final IMqttMessageListener delegate;
+    private final MqttAckTracker acks;
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) throws Exception {
+        acks.arrived(message);
+        boolean queued = dispatcher.executeOverflowing(topic, () -> {
+            try {
+                delegate.messageArrived(topic, message);
+            } catch (Exception e) {
+                log.info("[{}] Failed to process message", topic, e);
+            } finally {
+                acks.processed(message);
+            }
+        });
+        if (!queued) {
+            acks.processed(message);
+        }
+    }
+}
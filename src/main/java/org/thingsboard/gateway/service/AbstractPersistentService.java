@@ -0,0 +1,258 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.StringUtils;
+import org.thingsboard.gateway.service.MessageFileStore.Compression;
+import org.thingsboard.gateway.service.MessageFileStore.FsyncPolicy;
+import org.thingsboard.gateway.service.conf.TbPersistenceConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Message sequencing and delivery callbacks shared by the persistence implementations.
+ */
+@Slf4j
+public abstract class AbstractPersistentService implements PersistentFileService {
+
+    private static final long DEFAULT_FSYNC_INTERVAL = 1000;
+
+    protected TbPersistenceConfiguration persistence;
+    protected String tenantName;
+    protected StorageQuota storageQuota;
+    // kept in memory and sent ahead of the storage, falls back to the storage when full
+    private BlockingQueue<MqttPersistentMessage> priorityLane;
+
+    // seeded with the start time, so ids of messages left in storage files by a previous run are not reused
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() << 20);
+    private final MqttCallbackRegistry callbacks = new MqttCallbackRegistry();
+
+    /**
+     * Adds the message to the storage. Called after the delivery callbacks of the message are registered.
+     */
+    protected abstract void store(MqttPersistentMessage message) throws IOException;
+
+    /**
+     * Called after a message was added to the priority lane, so a sender waiting for stored messages can take it.
+     */
+    protected void onPriorityMessage() {
+    }
+
+    @Override
+    public MqttDeliveryFuture persistMessage(String topic, int msgId, byte[] payload, String deviceId,
+                                             Consumer<Void> onSuccess,
+                                             Consumer<Throwable> onFailure) throws IOException {
+        MqttPersistentMessage message = MqttPersistentMessage.builder()
+                .sequenceId(sequence.incrementAndGet()).timestamp(System.currentTimeMillis())
+                .topic(topic).deviceId(deviceId).messageId(msgId).payload(payload).build();
+        MqttDeliveryFuture future = new MqttDeliveryFuture();
+        callbacks.put(message.getSequenceId(), new MqttCallbackWrapper(onSuccess, onFailure, future));
+        try {
+            if (UplinkLane.of(topic) != UplinkLane.PRIORITY || !priorityLane.offer(message)) {
+                store(message);
+            } else {
+                onPriorityMessage();
+            }
+        } catch (IOException | RuntimeException e) {
+            callbacks.remove(message.getSequenceId());
+            throw e;
+        }
+        return future;
+    }
+
+    @Override
+    public List<MqttPersistentMessage> getPriorityMessages() {
+        List<MqttPersistentMessage> messages = new ArrayList<>(Math.min(priorityLane.size(), persistence.getBufferSize()));
+        priorityLane.drainTo(messages, persistence.getBufferSize());
+        return messages;
+    }
+
+    /**
+     * Removes telemetry from the list, keeping the order of the remaining messages.
+     *
+     * @return removed telemetry
+     */
+    protected static List<MqttPersistentMessage> takeTelemetry(List<MqttPersistentMessage> messages) {
+        List<MqttPersistentMessage> telemetry = new ArrayList<>();
+        List<MqttPersistentMessage> other = new ArrayList<>();
+        for (MqttPersistentMessage message : messages) {
+            if (MessageClass.of(message.getTopic()) == MessageClass.TELEMETRY) {
+                telemetry.add(message);
+            } else {
+                other.add(message);
+            }
+        }
+        if (!telemetry.isEmpty()) {
+            messages.clear();
+            messages.addAll(other);
+        }
+        return telemetry;
+    }
+
+    protected boolean hasPriorityMessages() {
+        return !priorityLane.isEmpty();
+    }
+
+    /**
+     * Moves messages of the priority lane to the storage, so they are not lost on shutdown.
+     */
+    protected void flushPriorityLane() {
+        MqttPersistentMessage message;
+        while ((message = priorityLane.poll()) != null) {
+            try {
+                store(message);
+            } catch (IOException e) {
+                log.warn("[{}] Failed to store priority message", message.getDeviceId(), e);
+            }
+        }
+    }
+
+    @Override
+    public void resolveFutureSuccess(long sequenceId) {
+        MqttCallbackWrapper mqttCallbackWrapper = callbacks.remove(sequenceId);
+        if (mqttCallbackWrapper != null && mqttCallbackWrapper.getFuture() != null) {
+            mqttCallbackWrapper.getFuture().complete(Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void resolveFutureFailed(long sequenceId, Throwable e) {
+        // callbacks are kept, the message is going to be re-sent
+        MqttCallbackWrapper mqttCallbackWrapper = callbacks.get(sequenceId);
+        if (mqttCallbackWrapper != null && mqttCallbackWrapper.getFuture() != null) {
+            mqttCallbackWrapper.getFuture().completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public Optional<MqttDeliveryFuture> getMqttDeliveryFuture(long sequenceId) {
+        MqttCallbackWrapper mqttCallbackWrapper = callbacks.get(sequenceId);
+        if (mqttCallbackWrapper == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(mqttCallbackWrapper.getFuture());
+    }
+
+    @Override
+    public boolean deleteMqttDeliveryFuture(long sequenceId) {
+        MqttCallbackWrapper mqttCallbackWrapper = callbacks.get(sequenceId);
+        if (mqttCallbackWrapper == null || mqttCallbackWrapper.getFuture() == null) {
+            return false;
+        }
+        mqttCallbackWrapper.setFuture(null);
+        return true;
+    }
+
+    @Override
+    public Optional<Consumer<Void>> getSuccessCallback(long sequenceId) {
+        MqttCallbackWrapper mqttCallbackWrapper = callbacks.get(sequenceId);
+        if (mqttCallbackWrapper == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(mqttCallbackWrapper.getSuccessCallback());
+    }
+
+    @Override
+    public Optional<Consumer<Throwable>> getFailureCallback(long sequenceId) {
+        MqttCallbackWrapper mqttCallbackWrapper = callbacks.get(sequenceId);
+        if (mqttCallbackWrapper == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(mqttCallbackWrapper.getFailureCallback());
+    }
+
+    /**
+     * Fails delivery of a message that is dropped from the storage and will never be sent.
+     */
+    protected void discard(MqttPersistentMessage message, Throwable cause) {
+        MqttCallbackWrapper mqttCallbackWrapper = callbacks.remove(message.getSequenceId());
+        if (mqttCallbackWrapper == null) {
+            return;
+        }
+        try {
+            if (mqttCallbackWrapper.getFailureCallback() != null) {
+                mqttCallbackWrapper.getFailureCallback().accept(cause);
+            }
+        } catch (Exception e) {
+            log.warn("[{}] Failed to process discarded message callback", message.getDeviceId(), e);
+        }
+        if (mqttCallbackWrapper.getFuture() != null) {
+            mqttCallbackWrapper.getFuture().completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Fails delivery of messages evicted by the storage quota. Called outside of storage locks, as the callbacks
+     * belong to the extensions.
+     */
+    protected void discardEvicted(List<MqttPersistentMessage> evicted) {
+        if (evicted.isEmpty()) {
+            return;
+        }
+        IllegalStateException cause = new IllegalStateException("Message evicted by storage quota");
+        for (MqttPersistentMessage message : evicted) {
+            discard(message, cause);
+        }
+    }
+
+    protected File initStorageDir() {
+        File storageDir = getStorageDir(persistence, tenantName);
+        if (!storageDir.exists()) {
+            storageDir.mkdirs();
+        }
+        return storageDir;
+    }
+
+    public static File getStorageDir(TbPersistenceConfiguration persistence, String tenantName) {
+        return new File(persistence.getPath(), tenantName.replaceAll(" ", "_"));
+    }
+
+    @Override
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = storageQuota.pollStatistics();
+        statistics.put("priorityMessages", (long) priorityLane.size());
+        return statistics;
+    }
+
+    protected MessageFileStore createFileStore(File dir, String prefix) {
+        FsyncPolicy fsyncPolicy = StringUtils.isEmpty(persistence.getFsync()) ? FsyncPolicy.NONE :
+                FsyncPolicy.valueOf(persistence.getFsync().toUpperCase());
+        long fsyncInterval = persistence.getFsyncInterval() > 0 ? persistence.getFsyncInterval() : DEFAULT_FSYNC_INTERVAL;
+        Compression compression = StringUtils.isEmpty(persistence.getCompression()) ? Compression.NONE :
+                Compression.valueOf(persistence.getCompression().toUpperCase());
+        return new MessageFileStore(dir, prefix, fsyncPolicy, fsyncInterval, compression);
+    }
+
+    public void setPersistence(TbPersistenceConfiguration persistence) {
+        this.persistence = persistence;
+        this.storageQuota = new StorageQuota(persistence);
+        this.priorityLane = new LinkedBlockingQueue<>(Math.max(1, persistence.getBufferSize()));
+    }
+
+    public void setTenantName(String tenantName) {
+        this.tenantName = tenantName;
+    }
+}
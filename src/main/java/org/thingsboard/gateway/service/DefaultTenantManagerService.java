@@ -23,6 +23,7 @@ import org.thingsboard.gateway.service.conf.TbExtensionConfiguration;
 import org.thingsboard.gateway.service.conf.TbGatewayConfiguration;
 import org.thingsboard.gateway.service.conf.TbTenantConfiguration;
 import org.thingsboard.gateway.service.gateway.GatewayService;
+import org.thingsboard.gateway.service.gateway.InstrumentedGatewayService;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -84,7 +85,8 @@ public abstract class DefaultTenantManagerService implements TenantManagerServic
                     tenantServiceRegistry.setService(service);
                     for (TbExtensionConfiguration extensionConfiguration : configuration.getExtensions()) {
                         log.info("[{}] Initializing extension: [{}]", configuration.getLabel(), extensionConfiguration.getType());
-                        ExtensionService extension = tenantServiceRegistry.createExtensionServiceByType(service, extensionConfiguration.getType());
+                        ExtensionService extension = tenantServiceRegistry.createExtensionServiceByType(
+                                new InstrumentedGatewayService(service, extensionConfiguration.getId()), extensionConfiguration.getType());
                         extension.init(extensionConfiguration, isRemoteConfiguration);
                         if (extensionConfiguration.getType().equals("HTTP")) {
                             httpServices.add((HttpService) extension);
@@ -118,6 +120,13 @@ public abstract class DefaultTenantManagerService implements TenantManagerServic
         }
     }
 
+    @Override
+    public Map<String, Map<String, Long>> getLatencyStatistics() {
+        Map<String, Map<String, Long>> statistics = new HashMap<>();
+        gateways.forEach((label, registry) -> statistics.put(label, registry.getService().getLatencyStatistics()));
+        return statistics;
+    }
+
     @PreDestroy
     public void stop() {
         for (String label : gateways.keySet()) {
@@ -0,0 +1,268 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps messages in an off-heap ring buffer instead of storage files.
+ * <p>
+ * Messages that are not sent yet are lost on crash. When the ring is full, the configured overflow policy either
+ * blocks the producer, drops the oldest messages or spills new messages to disk until the backlog is sent.
+ */
+@Slf4j
+public class MemoryPersistentService extends AbstractPersistentService {
+
+    public static final int DEFAULT_MEMORY_CAPACITY = 64 * 1024 * 1024;
+
+    private static final String SPILL_FILE_PREFIX = "tb-gateway-spill-";
+
+    public enum OverflowPolicy {
+        BLOCK, DROP_OLDEST, SPILL
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    private OverflowPolicy overflowPolicy;
+    // guarded by lock
+    private OffHeapMessageRing ring;
+    private List<MqttPersistentMessage> resendBuffer;
+    // used with SPILL policy only, messages in spill files are newer than the ones in the ring
+    private MessageFileStore spillFiles;
+    private List<MqttPersistentMessage> spillBuffer;
+
+    @PostConstruct
+    public void init() {
+        int capacity = persistence.getMemoryCapacity() > 0 ? persistence.getMemoryCapacity() : DEFAULT_MEMORY_CAPACITY;
+        overflowPolicy = StringUtils.isEmpty(persistence.getOverflowPolicy()) ? OverflowPolicy.BLOCK :
+                OverflowPolicy.valueOf(persistence.getOverflowPolicy().toUpperCase());
+        ring = new OffHeapMessageRing(capacity);
+        resendBuffer = new ArrayList<>();
+        if (overflowPolicy == OverflowPolicy.SPILL) {
+            spillFiles = createFileStore(initStorageDir(), SPILL_FILE_PREFIX);
+            spillBuffer = new ArrayList<>();
+        }
+        log.info("[{}] Using in-memory persistence of {} bytes with {} overflow policy", tenantName, capacity, overflowPolicy);
+    }
+
+    @Override
+    public void destroy() {
+        if (overflowPolicy == OverflowPolicy.SPILL) {
+            flushPriorityLane();
+        }
+        lock.lock();
+        try {
+            if (overflowPolicy == OverflowPolicy.SPILL) {
+                List<MqttPersistentMessage> pending = new ArrayList<>(resendBuffer);
+                drainRing(pending, Integer.MAX_VALUE);
+                if (!pending.isEmpty()) {
+                    spillFiles.writeFirst(pending);
+                }
+                if (!spillBuffer.isEmpty()) {
+                    spillFiles.write(spillBuffer);
+                }
+                spillFiles.sync();
+            } else if (!ring.isEmpty() || !resendBuffer.isEmpty()) {
+                log.warn("[{}] Discarding {} unsent messages", tenantName, ring.size() + resendBuffer.size());
+            }
+            resendBuffer = new ArrayList<>();
+            spillBuffer = new ArrayList<>();
+        } catch (IOException e) {
+            log.warn("Failed to spill buffered messages on shutdown!", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void store(MqttPersistentMessage message) throws IOException {
+        List<MqttPersistentMessage> dropped = Collections.emptyList();
+        List<MqttPersistentMessage> evicted = Collections.emptyList();
+        lock.lock();
+        try {
+            if (overflowPolicy == OverflowPolicy.SPILL) {
+                if (isSpilling() || !ring.offer(message)) {
+                    evicted = spill(message);
+                }
+            } else {
+                while (!ring.offer(message)) {
+                    if (ring.isEmpty()) {
+                        throw new IOException("Message of " + message.getPayload().length
+                                + " bytes does not fit into memory buffer of " + ring.getCapacity() + " bytes");
+                    }
+                    if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                        if (dropped.isEmpty()) {
+                            dropped = new ArrayList<>();
+                        }
+                        dropped.add(ring.poll());
+                    } else {
+                        notFull.await();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for space in memory buffer");
+        } finally {
+            lock.unlock();
+        }
+        discardEvicted(evicted);
+        if (!dropped.isEmpty()) {
+            log.warn("[{}] Memory buffer is full, dropped {} oldest messages", tenantName, dropped.size());
+            IllegalStateException cause = new IllegalStateException("Message dropped from full memory buffer");
+            for (MqttPersistentMessage droppedMessage : dropped) {
+                discard(droppedMessage, cause);
+            }
+        }
+    }
+
+    private boolean isSpilling() {
+        return !spillFiles.isEmpty() || !spillBuffer.isEmpty();
+    }
+
+    // returns messages evicted by the storage quota
+    private List<MqttPersistentMessage> spill(MqttPersistentMessage message) throws IOException {
+        spillBuffer.add(message);
+        if (spillBuffer.size() < persistence.getBufferSize()) {
+            return Collections.emptyList();
+        }
+        spillFiles.write(spillBuffer);
+        spillBuffer = new ArrayList<>();
+        return storageQuota.enforce(spillFiles);
+    }
+
+    @Override
+    public List<MqttPersistentMessage> getPersistentMessages() throws IOException {
+        lock.lock();
+        try {
+            if (spillFiles != null) {
+                spillFiles.syncIfDue();
+            }
+            List<MqttPersistentMessage> messages = new ArrayList<>(Math.min(ring.size(), persistence.getBufferSize()));
+            drainRing(messages, persistence.getBufferSize());
+            if (!messages.isEmpty()) {
+                notFull.signalAll();
+                return messages;
+            }
+            if (overflowPolicy == OverflowPolicy.SPILL) {
+                if (!spillFiles.isEmpty()) {
+                    return spillFiles.readOldest();
+                }
+                messages = spillBuffer;
+                spillBuffer = new ArrayList<>();
+            }
+            return messages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drainRing(List<MqttPersistentMessage> messages, int maxMessages) {
+        MqttPersistentMessage message;
+        while (messages.size() < maxMessages && (message = ring.poll()) != null) {
+            messages.add(message);
+        }
+    }
+
+    @Override
+    public List<MqttPersistentMessage> getLiveMessages() {
+        if (overflowPolicy != OverflowPolicy.SPILL) {
+            return Collections.emptyList();
+        }
+        lock.lock();
+        try {
+            // without spill files the spill buffer is returned by getPersistentMessages
+            return spillFiles.isEmpty() ? Collections.emptyList() : takeTelemetry(spillBuffer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getBacklogSize() {
+        lock.lock();
+        try {
+            long backlog = ring.size();
+            if (overflowPolicy == OverflowPolicy.SPILL) {
+                backlog += (long) spillFiles.getFileCount() * persistence.getBufferSize() + spillBuffer.size();
+            }
+            return backlog;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = super.getStatistics();
+        lock.lock();
+        try {
+            statistics.put("memoryMessages", (long) ring.size());
+            statistics.put("memoryBytes", (long) ring.getUsedBytes());
+        } finally {
+            lock.unlock();
+        }
+        if (spillFiles != null) {
+            statistics.put("spillFiles", (long) spillFiles.getFileCount());
+            statistics.put("spillBytes", spillFiles.getTotalBytes());
+        }
+        return statistics;
+    }
+
+    @Override
+    public List<MqttPersistentMessage> getResendMessages() {
+        lock.lock();
+        try {
+            List<MqttPersistentMessage> messages = resendBuffer;
+            resendBuffer = new ArrayList<>();
+            return messages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void saveForResend(MqttPersistentMessage message) {
+        lock.lock();
+        try {
+            resendBuffer.add(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void saveForResend(List<MqttPersistentMessage> messages) {
+        lock.lock();
+        try {
+            resendBuffer.addAll(messages);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
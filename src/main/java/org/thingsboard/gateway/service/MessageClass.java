@@ -0,0 +1,41 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+/**
+ * Kind of a message sent to ThingsBoard, derived from its topic.
+ */
+public enum MessageClass {
+
+    TELEMETRY, ATTRIBUTES, RPC, CONNECTION;
+
+    private static final String TELEMETRY_SUFFIX = "/telemetry";
+    private static final String RPC_SUFFIX = "/rpc";
+    private static final String CONNECT_TOPIC = "v1/gateway/connect";
+    private static final String DISCONNECT_TOPIC = "v1/gateway/disconnect";
+
+    public static MessageClass of(String topic) {
+        if (topic.endsWith(TELEMETRY_SUFFIX)) {
+            return TELEMETRY;
+        } else if (topic.endsWith(RPC_SUFFIX)) {
+            return RPC;
+        } else if (topic.equals(CONNECT_TOPIC) || topic.equals(DISCONNECT_TOPIC)) {
+            return CONNECTION;
+        } else {
+            return ATTRIBUTES;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Ordered set of files with serialized messages in one directory, named by a common prefix and a counter.
+ * Files left over from a previous run are picked up on creation.
+ * <p>
+ * Each write puts a whole batch of messages into one file, so all messages of the batch share one fsync.
+ * With {@link FsyncPolicy#INTERVAL} files written within the interval share it as well.
+ * <p>
+ * Files can be compressed as a whole. Each file is compressed on its own, so files are still read one by one.
+ * Plain and compressed files are told apart by the serialization stream magic, so both can be read regardless
+ * of the current setting.
+ */
+@Slf4j
+public class MessageFileStore {
+
+    private static final String DASH = "-";
+    private static final int STREAM_MAGIC_1 = 0xAC;
+    private static final int STREAM_MAGIC_2 = 0xED;
+    private static final int COMPRESSION_BUFFER_SIZE = 8192;
+
+    public enum FsyncPolicy {
+        // leave it to the OS to write the page cache to disk
+        NONE,
+        // sync every file before the write returns
+        BATCH,
+        // sync written files at most once per interval
+        INTERVAL
+    }
+
+    public enum Compression {
+        NONE, DEFLATE
+    }
+
+    private final File dir;
+    private final String prefix;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncInterval;
+    private final Compression compression;
+    private final List<File> files;
+    // written but not synced yet, used with INTERVAL policy
+    private final List<File> unsyncedFiles = new ArrayList<>();
+    private long lastSyncTime = System.currentTimeMillis();
+    // highest compaction level applied to each file
+    private final Map<File, Integer> compactionLevels = new HashMap<>();
+    private int counter;
+    private long totalBytes;
+
+    public MessageFileStore(File dir, String prefix) {
+        this(dir, prefix, FsyncPolicy.NONE, 0, Compression.NONE);
+    }
+
+    public MessageFileStore(File dir, String prefix, FsyncPolicy fsyncPolicy, long fsyncInterval, Compression compression) {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncInterval = fsyncInterval;
+        this.compression = compression;
+        this.files = getFiles(prefix + "\\d+");
+        this.counter = getNextCounter();
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    public synchronized int getFileCount() {
+        return files.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Writes the messages to a new file, which becomes the newest file of the store.
+     */
+    public synchronized File write(List<MqttPersistentMessage> messages) throws IOException {
+        File newFile = new File(dir, prefix + counter);
+        counter = counter == Integer.MAX_VALUE ? 0 : counter + 1;
+        writeToFile(newFile, messages);
+        files.add(newFile);
+        totalBytes += newFile.length();
+        if (fsyncPolicy == FsyncPolicy.BATCH) {
+            syncDir();
+        } else if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            unsyncedFiles.add(newFile);
+            syncIfDue();
+        }
+        return newFile;
+    }
+
+    /**
+     * Syncs files written since the last sync if the fsync interval has passed. Called periodically, so the last
+     * writes before an idle period are synced too.
+     */
+    public synchronized void syncIfDue() throws IOException {
+        if (System.currentTimeMillis() - lastSyncTime >= fsyncInterval) {
+            sync();
+        }
+    }
+
+    /**
+     * Syncs files written since the last sync.
+     */
+    public synchronized void sync() throws IOException {
+        if (unsyncedFiles.isEmpty()) {
+            return;
+        }
+        for (File file : unsyncedFiles) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            } catch (NoSuchFileException e) {
+                log.trace("File {} is already read", file.getName());
+            }
+        }
+        unsyncedFiles.clear();
+        syncDir();
+        lastSyncTime = System.currentTimeMillis();
+    }
+
+    // makes new file entries durable, not supported on all platforms
+    private void syncDir() {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.trace("Failed to sync directory {}", dir, e);
+        }
+    }
+
+    /**
+     * Writes the messages to a new file, which becomes the oldest file of the store.
+     */
+    public synchronized File writeFirst(List<MqttPersistentMessage> messages) throws IOException {
+        File newFile = write(messages);
+        if (files.size() > 1) {
+            files.remove(files.size() - 1);
+            // files are ordered by modification time on restart
+            newFile.setLastModified(files.get(0).lastModified() - 1000);
+            files.add(0, newFile);
+        }
+        return newFile;
+    }
+
+    /**
+     * Reads and deletes the oldest file of the store.
+     *
+     * @return messages of the oldest file or empty list if there are no files
+     */
+    public synchronized List<MqttPersistentMessage> readOldest() throws IOException {
+        if (files.isEmpty()) {
+            return Collections.emptyList();
+        }
+        File oldestFile = files.remove(0);
+        List<MqttPersistentMessage> messages = readFromFile(oldestFile);
+        delete(oldestFile);
+        return messages;
+    }
+
+    /**
+     * Replaces the content of files with the messages returned by the filter, from the oldest file on, until the
+     * store fits into maxBytes and there are no files modified before minLastModified. Files that become empty are
+     * deleted. Files already compacted with the same or a higher level are skipped.
+     * <p>
+     * Removed messages are passed to the consumer once their file is rewritten, so their delivery can be failed.
+     *
+     * @return number of removed messages
+     */
+    public synchronized int compact(int level, long maxBytes, long minLastModified,
+                                    UnaryOperator<List<MqttPersistentMessage>> filter,
+                                    Consumer<MqttPersistentMessage> onRemoved) throws IOException {
+        int removed = 0;
+        for (File file : new ArrayList<>(files)) {
+            if (totalBytes <= maxBytes && file.lastModified() >= minLastModified) {
+                break;
+            }
+            if (compactionLevels.getOrDefault(file, 0) >= level) {
+                continue;
+            }
+            List<MqttPersistentMessage> messages = readFromFile(file);
+            List<MqttPersistentMessage> retained = filter.apply(messages);
+            removed += messages.size() - retained.size();
+            if (retained.isEmpty()) {
+                files.remove(file);
+                delete(file);
+            } else {
+                if (retained.size() < messages.size()) {
+                    replace(file, retained);
+                }
+                compactionLevels.put(file, level);
+            }
+            if (retained.size() < messages.size()) {
+                Set<MqttPersistentMessage> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+                kept.addAll(retained);
+                for (MqttPersistentMessage message : messages) {
+                    if (!kept.contains(message)) {
+                        onRemoved.accept(message);
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    private void replace(File file, List<MqttPersistentMessage> messages) throws IOException {
+        long lastModified = file.lastModified();
+        File tmpFile = new File(dir, file.getName() + ".tmp");
+        writeToFile(tmpFile, messages);
+        totalBytes -= file.length();
+        if (!file.delete() || !tmpFile.renameTo(file)) {
+            throw new IOException("Failed to replace storage file " + file.getName());
+        }
+        // keeps the position of the file in the order restored on restart
+        file.setLastModified(lastModified);
+        totalBytes += file.length();
+    }
+
+    private void delete(File file) {
+        totalBytes -= file.length();
+        compactionLevels.remove(file);
+        unsyncedFiles.remove(file);
+        file.delete();
+    }
+
+    private List<File> getFiles(String nameRegex) {
+        File[] filesArray = dir.listFiles((file) -> !file.isDirectory() && file.getName().matches(nameRegex));
+        if (filesArray == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(filesArray, Comparator.comparing(File::lastModified).thenComparing(MessageFileStore::getFileNumber));
+        return new ArrayList<>(Arrays.asList(filesArray));
+    }
+
+    private int getNextCounter() {
+        if (files.isEmpty()) {
+            return 0;
+        }
+        int lastFileCounter = getFileNumber(files.get(files.size() - 1));
+        return lastFileCounter == Integer.MAX_VALUE ? 0 : lastFileCounter + 1;
+    }
+
+    private static int getFileNumber(File file) {
+        return Integer.parseInt(file.getName().substring(file.getName().lastIndexOf(DASH) + 1));
+    }
+
+    private void writeToFile(File file, List<MqttPersistentMessage> messages) throws IOException {
+        ObjectOutputStream outStream = null;
+        Deflater deflater = null;
+        try {
+            FileOutputStream fileStream = new FileOutputStream(file);
+            OutputStream out = new BufferedOutputStream(fileStream);
+            DeflaterOutputStream deflaterStream = null;
+            if (compression == Compression.DEFLATE) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+                out = deflaterStream = new DeflaterOutputStream(out, deflater, COMPRESSION_BUFFER_SIZE);
+            }
+            outStream = new ObjectOutputStream(out);
+            for (MqttPersistentMessage message : messages) {
+                outStream.writeObject(message);
+            }
+            outStream.flush();
+            if (deflaterStream != null) {
+                deflaterStream.finish();
+                outStream.flush();
+            }
+            if (fsyncPolicy == FsyncPolicy.BATCH) {
+                fileStream.getChannel().force(true);
+            }
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            throw e;
+        } finally {
+            try {
+                if (outStream != null)
+                    outStream.close();
+            } catch (IOException e) {
+                log.error(e.getMessage(), e);
+                throw e;
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+        }
+    }
+
+    private List<MqttPersistentMessage> readFromFile(File file) throws IOException {
+        List<MqttPersistentMessage> messages = new ArrayList<>();
+        ObjectInputStream inputStream = null;
+        try {
+            inputStream = new ObjectInputStream(openForReading(file));
+            while (true) {
+                MqttPersistentMessage p = (MqttPersistentMessage) inputStream.readObject();
+                messages.add(p);
+            }
+        } catch (EOFException e) {
+            return messages;
+        } catch (ClassNotFoundException e) {
+            log.error(e.getMessage(), e);
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            throw e;
+        } finally {
+            try {
+                if (inputStream != null)
+                    inputStream.close();
+            } catch (IOException e) {
+                log.error(e.getMessage(), e);
+                throw e;
+            }
+        }
+        return messages;
+    }
+
+    private static InputStream openForReading(File file) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
+        in.mark(2);
+        boolean plain = in.read() == STREAM_MAGIC_1 && in.read() == STREAM_MAGIC_2;
+        in.reset();
+        return plain ? in : new InflaterInputStream(in);
+    }
+}
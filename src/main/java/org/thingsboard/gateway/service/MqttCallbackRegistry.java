@@ -0,0 +1,72 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import io.netty.util.collection.LongObjectHashMap;
+
+/**
+ * Callbacks of the messages waiting for delivery, keyed by message sequence id.
+ * Entries live in open addressing primitive maps split into lock stripes; consecutive ids go to different stripes.
+ */
+public class MqttCallbackRegistry {
+
+    private static final int STRIPES = 16;
+
+    private final LongObjectHashMap<MqttCallbackWrapper>[] maps;
+
+    @SuppressWarnings("unchecked")
+    public MqttCallbackRegistry() {
+        maps = new LongObjectHashMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            maps[i] = new LongObjectHashMap<>();
+        }
+    }
+
+    public void put(long sequenceId, MqttCallbackWrapper callback) {
+        LongObjectHashMap<MqttCallbackWrapper> map = mapFor(sequenceId);
+        synchronized (map) {
+            map.put(sequenceId, callback);
+        }
+    }
+
+    public MqttCallbackWrapper get(long sequenceId) {
+        LongObjectHashMap<MqttCallbackWrapper> map = mapFor(sequenceId);
+        synchronized (map) {
+            return map.get(sequenceId);
+        }
+    }
+
+    public MqttCallbackWrapper remove(long sequenceId) {
+        LongObjectHashMap<MqttCallbackWrapper> map = mapFor(sequenceId);
+        synchronized (map) {
+            return map.remove(sequenceId);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (LongObjectHashMap<MqttCallbackWrapper> map : maps) {
+            synchronized (map) {
+                size += map.size();
+            }
+        }
+        return size;
+    }
+
+    private LongObjectHashMap<MqttCallbackWrapper> mapFor(long sequenceId) {
+        return maps[(int) (sequenceId & (STRIPES - 1))];
+    }
+}
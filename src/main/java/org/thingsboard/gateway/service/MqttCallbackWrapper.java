@@ -29,4 +29,5 @@ public class MqttCallbackWrapper {
 
     private Consumer<Void> successCallback;
     private Consumer<Throwable> failureCallback;
+    private MqttDeliveryFuture future;
 }
@@ -22,4 +22,26 @@ import java.util.concurrent.CompletableFuture;
  */
 public class MqttDeliveryFuture extends CompletableFuture<Boolean> {
 
+    private final boolean filtered;
+
+    public MqttDeliveryFuture() {
+        this(false);
+    }
+
+    private MqttDeliveryFuture(boolean filtered) {
+        this.filtered = filtered;
+    }
+
+    /**
+     * @return completed future of data that is filtered out by the gateway and not sent to ThingsBoard
+     */
+    public static MqttDeliveryFuture filtered() {
+        MqttDeliveryFuture future = new MqttDeliveryFuture(true);
+        future.complete(Boolean.TRUE);
+        return future;
+    }
+
+    public boolean isFiltered() {
+        return filtered;
+    }
 }
@@ -55,13 +55,13 @@ public class MqttMessageReceiver implements Runnable {
                 Future<?> future = messageFuturePair.getFuture();
                 MqttPersistentMessage message = messageFuturePair.getMessage();
                 if (future.isSuccess()) {
-                    Consumer<Void> successCallback = persistentFileService.getSuccessCallback(message.getId()).orElse(defaultSuccessCallback);
+                    Consumer<Void> successCallback = persistentFileService.getSuccessCallback(message.getSequenceId()).orElse(defaultSuccessCallback);
                     successCallback.accept(null);
-                    persistentFileService.resolveFutureSuccess(message.getId());
+                    persistentFileService.resolveFutureSuccess(message.getSequenceId());
                 } else {
                     persistentFileService.saveForResend(message);
-                    persistentFileService.getFailureCallback(message.getId()).orElse(defaultFailureCallback).accept(future.cause());
-                    persistentFileService.resolveFutureFailed(message.getId(), future.cause());
+                    persistentFileService.getFailureCallback(message.getSequenceId()).orElse(defaultFailureCallback).accept(future.cause());
+                    persistentFileService.resolveFutureFailed(message.getSequenceId(), future.cause());
                     log.warn("Failed to send message [{}] due to [{}]", message, future.cause());
                 }
             } catch (InterruptedException e) {
@@ -17,17 +17,18 @@ package org.thingsboard.gateway.service;
 
 import com.google.common.collect.Lists;
 import io.netty.buffer.Unpooled;
-import io.netty.handler.codec.mqtt.MqttQoS;
 import io.netty.util.concurrent.Future;
 import lombok.extern.slf4j.Slf4j;
-import org.thingsboard.gateway.service.conf.TbConnectionConfiguration;
 import org.thingsboard.gateway.service.conf.TbPersistenceConfiguration;
+import org.thingsboard.gateway.util.LatencyMetrics;
 import org.thingsboard.mqtt.MqttClient;
-import org.thingsboard.mqtt.MqttConnectResult;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.*;
 
@@ -37,55 +38,93 @@ import java.util.concurrent.*;
 @Slf4j
 public class MqttMessageSender implements Runnable {
 
+    private static final String PERSIST_TO_PUBLISH = "persistToPublish";
+    private static final String PUBLISH_TO_ACK = "publishToAck";
+
     private MqttClient tbClient;
 
     private PersistentFileService persistentFileService;
 
     private TbPersistenceConfiguration persistence;
 
-    private final TbConnectionConfiguration connection;
+    private final QosPolicy qosPolicy;
+
+    private final ReconnectManager reconnectManager;
+
+    private final LatencyMetrics latencyMetrics;
 
     private BlockingQueue<MessageFuturePair> incomingQueue;
     private Queue<Future<Void>> outgoingQueue;
+    // priority batches sent since the sender last took a batch of stored messages
+    private int priorityBatchesInRow;
+
+    private final ReplayGovernor replayGovernor;
+    // batch of stored messages published at the pace of the replay governor
+    private Iterator<MqttPersistentMessage> replayBatch = Collections.emptyIterator();
+    // live telemetry and unpaced stored batches take turns, paced replay checks live telemetry before every slice
+    private boolean liveTurn = true;
 
     public MqttMessageSender(TbPersistenceConfiguration persistence,
-                             TbConnectionConfiguration connection,
                              MqttClient tbClient,
                              PersistentFileService persistentFileService,
-                             BlockingQueue<MessageFuturePair> incomingQueue) {
+                             BlockingQueue<MessageFuturePair> incomingQueue,
+                             QosPolicy qosPolicy,
+                             ReconnectManager reconnectManager,
+                             LatencyMetrics latencyMetrics) {
         this.persistence = persistence;
-        this.connection = connection;
+        this.qosPolicy = qosPolicy;
+        this.reconnectManager = reconnectManager;
+        this.latencyMetrics = latencyMetrics;
         this.tbClient = tbClient;
         this.persistentFileService = persistentFileService;
         this.incomingQueue = incomingQueue;
         outgoingQueue = new ConcurrentLinkedQueue();
+        replayGovernor = new ReplayGovernor(persistence.getReplayMinRate(), persistence.getReplayMaxRate(),
+                persistence.getReplayTargetLatency());
+        reconnectManager.addListener(this::onConnectionStateChanged);
     }
 
     @Override
     public void run() {
         while (!Thread.interrupted()) {
             try {
-                checkClientConnected();
+                if (!checkClientConnected()) {
+                    // wakes up as soon as the connection is restored
+                    reconnectManager.awaitConnected(persistence.getPollingInterval());
+                    continue;
+                }
+                // priority messages don't wait for the current bucket, but give way to stored messages after a while
+                if (priorityBatchesInRow < persistence.getPriorityWeight()
+                        && publishMessages(persistentFileService.getPriorityMessages())) {
+                    priorityBatchesInRow++;
+                }
+                if (replayBatch.hasNext()) {
+                    // live telemetry goes out between replay slices instead of waiting for the whole batch
+                    publishMessages(persistentFileService.getLiveMessages());
+                    publishReplayBatch();
+                    Thread.sleep(Math.min(replayGovernor.getPauseMillis(), persistence.getPollingInterval()));
+                    continue;
+                }
                 if (!checkOutgoingQueueIsEmpty()) {
                     log.debug("Waiting until all messages are sent before going to the next bucket");
                     Thread.sleep(persistence.getPollingInterval());
                     continue;
                 }
-                List<MqttPersistentMessage> storedMessages = getMessages();
-                if (!storedMessages.isEmpty()) {
-                    Iterator<MqttPersistentMessage> iter = storedMessages.iterator();
-                    while (iter.hasNext()) {
-                        if (!checkClientConnected()) {
-                            persistentFileService.saveForResend(Lists.newArrayList(iter));
-                            break;
-                        }
-                        MqttPersistentMessage message = iter.next();
-                        log.debug("Sending message [{}]", message);
-                        Future<Void> publishFuture = publishMqttMessage(message);
-                        outgoingQueue.add(publishFuture);
-                    }
-                } else {
+                priorityBatchesInRow = 0;
+                if (liveTurn && publishMessages(persistentFileService.getLiveMessages())) {
+                    liveTurn = false;
+                    continue;
+                }
+                liveTurn = true;
+                boolean backlog = persistentFileService.getBacklogSize() > persistence.getBufferSize();
+                List<MqttPersistentMessage> messages = getMessages();
+                if (messages.isEmpty()) {
                     Thread.sleep(persistence.getPollingInterval());
+                } else if (backlog) {
+                    replayBatch = messages.iterator();
+                    publishReplayBatch();
+                } else {
+                    publishMessages(messages);
                 }
             } catch (InterruptedException e) {
                 log.trace(e.getMessage());
@@ -97,12 +136,58 @@ public class MqttMessageSender implements Runnable {
 
     }
 
+    private boolean publishMessages(List<MqttPersistentMessage> messages) throws IOException {
+        Iterator<MqttPersistentMessage> iter = messages.iterator();
+        while (iter.hasNext()) {
+            if (!checkClientConnected()) {
+                persistentFileService.saveForResend(Lists.newArrayList(iter));
+                break;
+            }
+            MqttPersistentMessage message = iter.next();
+            log.debug("Sending message [{}]", message);
+            Future<Void> publishFuture = publishMqttMessage(message);
+            outgoingQueue.add(publishFuture);
+        }
+        return !messages.isEmpty();
+    }
+
+    private void publishReplayBatch() throws IOException {
+        while (replayBatch.hasNext() && replayGovernor.tryAcquire()) {
+            if (!checkClientConnected()) {
+                persistentFileService.saveForResend(Lists.newArrayList(replayBatch));
+                break;
+            }
+            MqttPersistentMessage message = replayBatch.next();
+            log.debug("Replaying message [{}]", message);
+            outgoingQueue.add(publishMqttMessage(message));
+        }
+    }
+
     private Future<Void> publishMqttMessage(MqttPersistentMessage message) {
-        return tbClient.publish(message.getTopic(), Unpooled.wrappedBuffer(message.getPayload()), MqttQoS.AT_LEAST_ONCE).addListener(
-                future -> incomingQueue.put(new MessageFuturePair(future, message))
+        long publishTime = System.nanoTime();
+        latencyMetrics.record(PERSIST_TO_PUBLISH, System.currentTimeMillis() - message.getTimestamp(), TimeUnit.MILLISECONDS);
+        return tbClient.publish(message.getTopic(), Unpooled.wrappedBuffer(message.getPayload()),
+                qosPolicy.getQos(message.getTopic(), message.getDeviceId())).addListener(
+                future -> {
+                    long latency = System.nanoTime() - publishTime;
+                    replayGovernor.onPublished(latency, future.isSuccess());
+                    if (future.isSuccess()) {
+                        latencyMetrics.record(PUBLISH_TO_ACK, latency, TimeUnit.NANOSECONDS);
+                    }
+                    incomingQueue.put(new MessageFuturePair(future, message));
+                }
         );
     }
 
+    /**
+     * @return replay rate, remaining backlog and its estimated drain time
+     */
+    public Map<String, Long> pollStatistics() {
+        Map<String, Long> statistics = new HashMap<>(replayGovernor.pollStatistics(persistentFileService.getBacklogSize()));
+        statistics.put("reconnectAttempts", reconnectManager.pollAttempts());
+        return statistics;
+    }
+
     private boolean checkOutgoingQueueIsEmpty() {
         if (!outgoingQueue.isEmpty()) {
             int pendingCount = 0;
@@ -123,26 +208,24 @@ public class MqttMessageSender implements Runnable {
     }
 
     private boolean checkClientConnected() {
+        if (!reconnectManager.isConnected()) {
+            return false;
+        }
         if (!tbClient.isConnected()) {
-            try {
-                clearOutgoingQueue();
-                log.info("ThingsBoard MQTT connection failed. Reconnecting in [{}] milliseconds", connection.getRetryInterval());
-                Thread.sleep(connection.getRetryInterval());
-                log.info("Attempting to reconnect to ThingsBoard.");
-                MqttConnectResult result = tbClient.reconnect().get(connection.getConnectionTimeout(), TimeUnit.MILLISECONDS);
-                if (result.isSuccess()) {
-                    log.info("Successfully reconnected to ThingsBoard.");
-                }
-            } catch (TimeoutException e) {
-                log.trace(e.getMessage(), e);
-            } catch (Exception e) {
-                log.error(e.getMessage(), e);
-            }
+            reconnectManager.onConnectionLost();
             return false;
         }
         return true;
     }
 
+    private void onConnectionStateChanged(boolean connected) {
+        if (!connected) {
+            // cancelled messages are saved for resend by the receiver
+            clearOutgoingQueue();
+        }
+        persistentFileService.onConnectionStateChanged(connected);
+    }
+
     private void clearOutgoingQueue() {
         outgoingQueue.forEach(future -> {
             try {
@@ -19,7 +19,6 @@ import lombok.Builder;
 import lombok.Data;
 
 import java.io.Serializable;
-import java.util.*;
 
 /**
  * Created by Valerii Sosliuk on 1/2/2018.
@@ -30,7 +29,7 @@ public class MqttPersistentMessage implements Serializable {
 
     private static final long serialVersionUID = -3133461476074777891L;
 
-    private UUID id;
+    private long sequenceId;
     private long timestamp;
     private String deviceId;
     private int messageId;
@@ -43,7 +42,7 @@ public class MqttPersistentMessage implements Serializable {
                 ", payload=" + new String(payload) +
                 ", timestamp=" + timestamp +
                 ", topic='" + topic + '\'' +
-                "id=" + id +
+                ", sequenceId=" + sequenceId +
                 ", messageId=" + messageId +
                 '}';
     }
@@ -0,0 +1,188 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bounded FIFO of messages serialized into a direct byte buffer, so buffered messages put no load on the heap.
+ * <p>
+ * Each record is written as its length followed by sequence id, timestamp, message id, topic, device id and payload.
+ * Records wrap around the end of the buffer. Not thread-safe, callers must synchronize access.
+ */
+public class OffHeapMessageRing {
+
+    private static final int LENGTH_SIZE = 4;
+    private static final int FIXED_SIZE = 8 + 8 + 4;
+    private static final int NULL_LENGTH = -1;
+
+    private final int capacity;
+    private final ByteBuffer buffer;
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+
+    // positions grow monotonically and are mapped into the buffer modulo capacity
+    private long head;
+    private long tail;
+    private int size;
+
+    public OffHeapMessageRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive!");
+        }
+        this.capacity = capacity;
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * @return false if there is not enough free space left for the message
+     */
+    public boolean offer(MqttPersistentMessage message) {
+        byte[] topic = encode(message.getTopic());
+        byte[] deviceId = encode(message.getDeviceId());
+        byte[] payload = message.getPayload();
+        int recordSize = LENGTH_SIZE + FIXED_SIZE + sizeOf(topic) + sizeOf(deviceId) + sizeOf(payload);
+        if (recordSize > capacity - getUsedBytes()) {
+            return false;
+        }
+        ByteBuffer record = scratch(recordSize);
+        record.putInt(recordSize - LENGTH_SIZE);
+        record.putLong(message.getSequenceId());
+        record.putLong(message.getTimestamp());
+        record.putInt(message.getMessageId());
+        putBytes(record, topic);
+        putBytes(record, deviceId);
+        putBytes(record, payload);
+        record.flip();
+        write(tail, record);
+        tail += recordSize;
+        size++;
+        return true;
+    }
+
+    /**
+     * @return the oldest message or null if the ring is empty
+     */
+    public MqttPersistentMessage poll() {
+        if (size == 0) {
+            return null;
+        }
+        ByteBuffer length = read(head, LENGTH_SIZE);
+        int bodySize = length.getInt();
+        ByteBuffer body = read(head + LENGTH_SIZE, bodySize);
+        MqttPersistentMessage message = MqttPersistentMessage.builder()
+                .sequenceId(body.getLong())
+                .timestamp(body.getLong())
+                .messageId(body.getInt())
+                .topic(decode(getBytes(body)))
+                .deviceId(decode(getBytes(body)))
+                .payload(getBytes(body))
+                .build();
+        head += LENGTH_SIZE + bodySize;
+        size--;
+        if (size == 0) {
+            head = 0;
+            tail = 0;
+        }
+        return message;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getUsedBytes() {
+        return (int) (tail - head);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void write(long position, ByteBuffer src) {
+        int offset = (int) (position % capacity);
+        int first = Math.min(src.remaining(), capacity - offset);
+        int limit = src.limit();
+        ByteBuffer dst = buffer.duplicate();
+        dst.position(offset);
+        src.limit(src.position() + first);
+        dst.put(src);
+        src.limit(limit);
+        if (src.hasRemaining()) {
+            dst.position(0);
+            dst.put(src);
+        }
+    }
+
+    private ByteBuffer read(long position, int length) {
+        ByteBuffer dst = scratch(length);
+        int offset = (int) (position % capacity);
+        int first = Math.min(length, capacity - offset);
+        ByteBuffer src = buffer.duplicate();
+        src.limit(offset + first).position(offset);
+        dst.put(src);
+        if (first < length) {
+            src.limit(length - first).position(0);
+            dst.put(src);
+        }
+        dst.flip();
+        return dst;
+    }
+
+    private ByteBuffer scratch(int length) {
+        if (scratch.capacity() < length) {
+            scratch = ByteBuffer.allocate(Math.max(length, scratch.capacity() * 2));
+        }
+        scratch.clear();
+        scratch.limit(length);
+        return scratch;
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return 4 + (bytes != null ? bytes.length : 0);
+    }
+
+    private static void putBytes(ByteBuffer dst, byte[] bytes) {
+        if (bytes == null) {
+            dst.putInt(NULL_LENGTH);
+        } else {
+            dst.putInt(bytes.length);
+            dst.put(bytes);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer src) {
+        int length = src.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        src.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] encode(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static String decode(byte[] bytes) {
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+}
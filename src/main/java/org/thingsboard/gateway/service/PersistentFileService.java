@@ -19,9 +19,10 @@ import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.thingsboard.gateway.service.MqttDeliveryFuture;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 import java.util.function.Consumer;
 
 /**
@@ -41,6 +42,27 @@ public interface PersistentFileService {
      */
     List<MqttPersistentMessage> getPersistentMessages() throws IOException;
 
+    /**
+     * Returns a list of RPC responses and control messages that are to be sent ahead of the stored messages
+     * @return {@see List} of {@see MqttPersistentMessage} to be sent first
+     */
+    List<MqttPersistentMessage> getPriorityMessages();
+
+    /**
+     * Returns the newest telemetry that is not written to the backlog yet, so it can be sent while the backlog drains.
+     * Other messages stay in the storage to keep their order. Returns an empty list if there is no backlog
+     * @return {@see List} of {@see MqttPersistentMessage} to be sent ahead of the backlog
+     * @throws IOException
+     */
+    default List<MqttPersistentMessage> getLiveMessages() throws IOException {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the estimated number of stored messages that are waiting to be sent
+     */
+    long getBacklogSize();
+
     /**
      * Returns a list of the messages that are to be re-sent
      * @return {@see List} of {@see MqttPersistentMessage} to be re-sent
@@ -48,19 +70,35 @@ public interface PersistentFileService {
      */
     List<MqttPersistentMessage> getResendMessages() throws IOException;
 
-    void resolveFutureSuccess(UUID id);
+    void resolveFutureSuccess(long sequenceId);
 
-    void resolveFutureFailed(UUID id, Throwable e);
+    void resolveFutureFailed(long sequenceId, Throwable e);
 
-    Optional<MqttDeliveryFuture> getMqttDeliveryFuture(UUID id);
+    Optional<MqttDeliveryFuture> getMqttDeliveryFuture(long sequenceId);
 
-    boolean deleteMqttDeliveryFuture(UUID id);
+    boolean deleteMqttDeliveryFuture(long sequenceId);
 
-    Optional<Consumer<Void>> getSuccessCallback(UUID id);
+    Optional<Consumer<Void>> getSuccessCallback(long sequenceId);
 
-    Optional<Consumer<Throwable>> getFailureCallback(UUID id);
+    Optional<Consumer<Throwable>> getFailureCallback(long sequenceId);
 
     void saveForResend(MqttPersistentMessage message) throws IOException;
 
     void saveForResend(List<MqttPersistentMessage> messages) throws IOException;
+
+    /**
+     * Returns storage gauges and counters accumulated since the previous call, reported with gateway statistics
+     */
+    Map<String, Long> getStatistics();
+
+    /**
+     * Notifies the storage that the connection to ThingsBoard is lost or restored
+     */
+    default void onConnectionStateChanged(boolean connected) {
+    }
+
+    /**
+     * Stops background work and writes buffered messages to storage files, so they are sent after restart
+     */
+    void destroy();
 }
@@ -16,267 +16,276 @@
 package org.thingsboard.gateway.service;
 
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.config.ConfigurableBeanFactory;
-import org.springframework.context.annotation.Scope;
-import org.springframework.stereotype.Component;
-import org.springframework.stereotype.Service;
-import org.thingsboard.gateway.service.conf.TbPersistenceConfiguration;
 
 import javax.annotation.PostConstruct;
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.ConcurrentMap;
-import java.util.function.Consumer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Created by Valerii Sosliuk on 1/2/2018.
  */
 @Slf4j
-public class PersistentFileServiceImpl implements PersistentFileService {
+public class PersistentFileServiceImpl extends AbstractPersistentService {
 
     private static final String STORAGE_FILE_PREFIX = "tb-gateway-storage-";
     private static final String RESEND_FILE_PREFIX = "tb-gateway-resend-";
-    private static final String STORAGE_FILE_NAME_REGEX = STORAGE_FILE_PREFIX + "\\d+";
-    private static final String RESEND_FILE_NAME_REGEX = RESEND_FILE_PREFIX + "\\d+";
-    public static final String DASH = "-";
+    private static final long FLUSHER_STOP_TIMEOUT = 5000;
 
-    private TbPersistenceConfiguration persistence;
-    private String tenantName;
+    // filled by extension threads, drained by the flusher thread and by the sender
+    private BlockingQueue<MqttPersistentMessage> sendBuffer;
+    // guarded by resendLock
+    private List<MqttPersistentMessage> resendBuffer;
 
-    private ConcurrentLinkedDeque<MqttPersistentMessage> sendBuffer;
-    private ConcurrentLinkedDeque<MqttPersistentMessage> resendBuffer;
+    private MessageFileStore storageFiles;
+    private MessageFileStore resendFiles;
+    // taken from the send buffer but not written yet, guarded by storageLock
+    private List<MqttPersistentMessage> unflushedBatch;
 
-    private ConcurrentMap<UUID, MqttCallbackWrapper> callbacks;
-    private Map<UUID, MqttDeliveryFuture> futures;
+    // held while messages move from the send buffer to a file, so they can't be overtaken by newer messages
+    private final Object storageLock = new Object();
+    private final Object resendLock = new Object();
+    private final Object flushSignal = new Object();
+    // notified when the send buffer holds a full batch or a message enters the priority lane
+    private final Object batchSignal = new Object();
+    private int batchSize;
 
-    private List<File> storageFiles;
-    private List<File> resendFiles;
-
-    private int storageFileCounter;
-    private int resendFileCounter;
-
-    private File storageDir;
+    private Thread flusher;
+    private volatile boolean stopped;
 
     @PostConstruct
     public void init() {
-        callbacks = new ConcurrentHashMap<>();
-        futures = new ConcurrentHashMap<>();
-        initStorageDir();
-        initFiles();
-        initFileCounters();
+        File storageDir = initStorageDir();
+        storageFiles = createFileStore(storageDir, STORAGE_FILE_PREFIX);
+        resendFiles = createFileStore(storageDir, RESEND_FILE_PREFIX);
         initBuffers();
+        initFlusher();
     }
 
-    private void initStorageDir() {
-        String storageSubdir = tenantName.replaceAll(" ", "_");
-        storageDir = new File(persistence.getPath(), storageSubdir);
-        if (!storageDir.exists()) {
-            storageDir.mkdirs();
-        }
-    }
-
-    private void initFiles() {
-        storageFiles = getFiles(STORAGE_FILE_NAME_REGEX);
-        resendFiles = getFiles(RESEND_FILE_NAME_REGEX);
+    private void initBuffers() {
+        batchSize = persistence.getBatchSize() > 0 ? Math.min(persistence.getBatchSize(), persistence.getBufferSize()) :
+                persistence.getBufferSize();
+        // room for a second buffer while the first one is written to a file
+        sendBuffer = new LinkedBlockingQueue<>(persistence.getBufferSize() * 2);
+        resendBuffer = new ArrayList<>();
     }
 
-    private List<File> getFiles(String nameRegex) {
-        File[] filesArray = storageDir.listFiles((file) -> {return !file.isDirectory() && file.getName().matches(nameRegex);});
-        Arrays.sort(filesArray, Comparator.comparing(File::lastModified));
-        return new ArrayList<>(Arrays.asList(filesArray));
+    private void initFlusher() {
+        flusher = new Thread(this::runFlusher, "tb-persistence-flusher-" + tenantName);
+        flusher.setDaemon(true);
+        flusher.start();
     }
 
-    private void initFileCounters() {
-        storageFileCounter = getFileCounter(storageFiles);
-        resendFileCounter = getFileCounter(resendFiles);
+    @Override
+    public void destroy() {
+        flushPriorityLane();
+        stopped = true;
+        flusher.interrupt();
+        try {
+            flusher.join(FLUSHER_STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            synchronized (storageLock) {
+                while (unflushedBatch != null || !sendBuffer.isEmpty()) {
+                    flushSendBuffer();
+                }
+            }
+            storageFiles.sync();
+            resendFiles.sync();
+        } catch (IOException e) {
+            log.warn("Failed to flush send buffer on shutdown!", e);
+        }
     }
 
-    private int getFileCounter(List<File> files) {
-        int counter = 0;
-        if (files.isEmpty()) {
-            return counter;
-        } else {
-            String lastFileName = files.get(files.size() - 1).getName();
-            int lastFileCounter = Integer.parseInt(lastFileName.substring(lastFileName.lastIndexOf(DASH) + 1));
-            if (lastFileCounter == Integer.MAX_VALUE) {
-                // rename all storageFiles if overflow?
-                counter = 0;
-            } else {
-                counter = lastFileCounter + 1;
+    private void runFlusher() {
+        while (!stopped) {
+            try {
+                synchronized (flushSignal) {
+                    if (sendBuffer.size() < persistence.getBufferSize()) {
+                        flushSignal.wait(persistence.getPollingInterval());
+                    }
+                }
+                List<MqttPersistentMessage> evicted;
+                synchronized (storageLock) {
+                    while (sendBuffer.size() >= persistence.getBufferSize()) {
+                        flushSendBuffer();
+                    }
+                    evicted = storageQuota.enforce(storageFiles);
+                }
+                discardEvicted(evicted);
+                storageFiles.syncIfDue();
+                resendFiles.syncIfDue();
+            } catch (InterruptedException e) {
+                log.trace("Flusher interrupted");
+                return;
+            } catch (Throwable e) {
+                log.error("Failed to flush send buffer!", e);
             }
-            return counter;
         }
     }
 
-    private void initBuffers() {
-        sendBuffer = new ConcurrentLinkedDeque<>();
-        resendBuffer = new ConcurrentLinkedDeque<>();
+    private void flushSendBuffer() throws IOException {
+        List<MqttPersistentMessage> batch = unflushedBatch;
+        if (batch == null) {
+            batch = new ArrayList<>(persistence.getBufferSize());
+            sendBuffer.drainTo(batch, persistence.getBufferSize());
+        }
+        if (!batch.isEmpty()) {
+            unflushedBatch = batch;
+            storageFiles.write(batch);
+        }
+        unflushedBatch = null;
     }
 
     @Override
-    public MqttDeliveryFuture persistMessage(String topic,  int msgId, byte[] payload, String deviceId,
-                                             Consumer<Void> onSuccess,
-                                             Consumer<Throwable> onFailure) throws IOException {
-        MqttPersistentMessage message = MqttPersistentMessage.builder().id(UUID.randomUUID())
-                .topic(topic).deviceId(deviceId).messageId(msgId).payload(payload).build();
-        MqttDeliveryFuture future = new MqttDeliveryFuture();
-        addMessageToBuffer(message);
-        callbacks.put(message.getId(), new MqttCallbackWrapper(onSuccess, onFailure));
-        futures.put(message.getId(), future);
-        return future;
+    protected void store(MqttPersistentMessage message) throws IOException {
+        if (!sendBuffer.offer(message)) {
+            wakeUpFlusher();
+            try {
+                sendBuffer.put(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for space in send buffer");
+            }
+        }
+        int buffered = sendBuffer.size();
+        if (buffered >= persistence.getBufferSize()) {
+            wakeUpFlusher();
+        }
+        if (persistence.getLingerMs() > 0 && buffered >= batchSize) {
+            wakeUpSender();
+        }
     }
 
     @Override
-    public List<MqttPersistentMessage> getPersistentMessages() throws IOException {
-        return getMqttPersistentMessages(storageFiles, sendBuffer);
+    protected void onPriorityMessage() {
+        if (persistence.getLingerMs() > 0) {
+            wakeUpSender();
+        }
     }
 
-    @Override
-    public List<MqttPersistentMessage> getResendMessages() throws IOException {
-        return getMqttPersistentMessages(resendFiles, resendBuffer);
+    private void wakeUpSender() {
+        synchronized (batchSignal) {
+            batchSignal.notifyAll();
+        }
     }
 
-    private List<MqttPersistentMessage> getMqttPersistentMessages(List<File> files, ConcurrentLinkedDeque<MqttPersistentMessage> buffer) throws IOException {
-        List<MqttPersistentMessage> messages;
-        if (files.isEmpty()) {
-            messages = new ArrayList<>(buffer);
-            buffer.clear();
-            return messages;
+    private void wakeUpFlusher() {
+        synchronized (flushSignal) {
+            flushSignal.notify();
         }
-        File oldestFile = files.remove(0);
-        messages = readFromFile(oldestFile);
-        oldestFile.delete();
-        return messages;
     }
 
     @Override
-    public void resolveFutureSuccess(UUID id) {
-        callbacks.remove(id);
-        MqttDeliveryFuture future = futures.remove(id);
-        if (future != null) {
-            future.complete(Boolean.TRUE);
+    public List<MqttPersistentMessage> getPersistentMessages() throws IOException {
+        awaitBatch();
+        synchronized (storageLock) {
+            if (storageFiles.isEmpty()) {
+                List<MqttPersistentMessage> messages = new ArrayList<>(Math.min(sendBuffer.size(), batchSize));
+                if (unflushedBatch != null) {
+                    messages.addAll(unflushedBatch);
+                    unflushedBatch = null;
+                }
+                sendBuffer.drainTo(messages, Math.max(0, batchSize - messages.size()));
+                return messages;
+            }
+            return storageFiles.readOldest();
         }
     }
 
-    @Override
-    public void resolveFutureFailed(UUID id, Throwable e) {
-        MqttDeliveryFuture future = futures.remove(id);
-        if (future != null) {
-            future.completeExceptionally(e);
+    // waits until the send buffer holds a full batch or its oldest message has lingered long enough,
+    // priority messages end the wait, so they don't queue behind the linger
+    private void awaitBatch() throws IOException {
+        long lingerMs = persistence.getLingerMs();
+        if (lingerMs <= 0 || !storageFiles.isEmpty()) {
+            return;
+        }
+        try {
+            synchronized (batchSignal) {
+                MqttPersistentMessage oldest;
+                while ((oldest = sendBuffer.peek()) != null && sendBuffer.size() < batchSize && !hasPriorityMessages()) {
+                    long remaining = oldest.getTimestamp() + lingerMs - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return;
+                    }
+                    batchSignal.wait(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a batch");
         }
     }
 
     @Override
-    public Optional<MqttDeliveryFuture> getMqttDeliveryFuture(UUID id) {
-        return Optional.of(futures.get(id));
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = super.getStatistics();
+        statistics.put("storageFiles", (long) storageFiles.getFileCount());
+        statistics.put("storageBytes", storageFiles.getTotalBytes());
+        return statistics;
     }
 
     @Override
-    public boolean deleteMqttDeliveryFuture(UUID id) {
-        return futures.remove(id) != null;
+    public List<MqttPersistentMessage> getLiveMessages() throws IOException {
+        synchronized (storageLock) {
+            if (storageFiles.isEmpty()) {
+                // the send buffer is returned by getPersistentMessages
+                return Collections.emptyList();
+            }
+            List<MqttPersistentMessage> buffered = new ArrayList<>(sendBuffer.size());
+            sendBuffer.drainTo(buffered, persistence.getBufferSize());
+            List<MqttPersistentMessage> live = takeTelemetry(buffered);
+            if (!buffered.isEmpty()) {
+                if (unflushedBatch == null) {
+                    unflushedBatch = buffered;
+                } else {
+                    unflushedBatch.addAll(buffered);
+                }
+                if (unflushedBatch.size() >= persistence.getBufferSize()) {
+                    flushSendBuffer();
+                }
+            }
+            return live;
+        }
     }
 
     @Override
-    public Optional<Consumer<Void>> getSuccessCallback(UUID id) {
-        MqttCallbackWrapper mqttCallbackWrapper = callbacks.get(id);
-        if (mqttCallbackWrapper == null) {
-            return Optional.empty();
-        }
-        return Optional.ofNullable(mqttCallbackWrapper.getSuccessCallback());
+    public long getBacklogSize() {
+        return (long) storageFiles.getFileCount() * persistence.getBufferSize() + sendBuffer.size();
     }
 
     @Override
-    public Optional<Consumer<Throwable>> getFailureCallback(UUID id) {
-        MqttCallbackWrapper mqttCallbackWrapper = callbacks.get(id);
-        if (mqttCallbackWrapper == null) {
-            return Optional.empty();
+    public List<MqttPersistentMessage> getResendMessages() throws IOException {
+        synchronized (resendLock) {
+            if (resendFiles.isEmpty()) {
+                List<MqttPersistentMessage> messages = resendBuffer;
+                resendBuffer = new ArrayList<>();
+                return messages;
+            }
+            return resendFiles.readOldest();
         }
-        return Optional.ofNullable(mqttCallbackWrapper.getFailureCallback());
     }
 
     @Override
     public void saveForResend(MqttPersistentMessage message) throws IOException {
-        if (resendBuffer.size() >= persistence.getBufferSize()) {
-            resendFileCounter = getFileCounter(resendFiles);
-            resendFiles.add(flushBufferToFile(resendBuffer, RESEND_FILE_PREFIX + resendFileCounter));
+        synchronized (resendLock) {
+            if (resendBuffer.size() >= persistence.getBufferSize()) {
+                resendFiles.write(resendBuffer);
+                resendBuffer = new ArrayList<>();
+            }
+            resendBuffer.add(message);
         }
-        resendBuffer.add(message);
     }
 
     @Override
     public void saveForResend(List<MqttPersistentMessage> messages) throws IOException {
-       for (MqttPersistentMessage message : messages) {
-           saveForResend(message);
-       }
-    }
-
-    private void addMessageToBuffer(MqttPersistentMessage message) throws IOException {
-        if (sendBuffer.size() >= persistence.getBufferSize()) {
-            storageFiles.add(flushBufferToFile(sendBuffer, STORAGE_FILE_PREFIX + storageFileCounter++));
-        }
-        sendBuffer.add(message);
-    }
-
-    private File flushBufferToFile(ConcurrentLinkedDeque<MqttPersistentMessage> buffer, String fileName) throws IOException {
-        ObjectOutputStream outStream = null;
-        try {
-            File newFile = new File(storageDir, STORAGE_FILE_PREFIX + storageFileCounter);
-            outStream = new ObjectOutputStream(new FileOutputStream(newFile));
-            for (MqttPersistentMessage message : buffer) {
-                outStream.writeObject(message);
-            }
-            buffer.clear();
-            return newFile;
-        } catch (IOException e) {
-            log.error(e.getMessage(), e);
-            throw e;
-        } finally {
-            try {
-                if (outStream != null)
-                    outStream.close();
-            } catch (IOException e) {
-                log.error(e.getMessage(), e);
-                throw e;
+        synchronized (resendLock) {
+            for (MqttPersistentMessage message : messages) {
+                saveForResend(message);
             }
         }
     }
-
-    private List<MqttPersistentMessage> readFromFile(File file)  throws IOException {
-        List<MqttPersistentMessage> messages = new ArrayList<>();
-        ObjectInputStream inputStream = null;
-        try {
-            inputStream = new ObjectInputStream(new FileInputStream(file));
-            while (true) {
-                MqttPersistentMessage p = (MqttPersistentMessage) inputStream.readObject();
-                messages.add(p);
-            }
-        } catch (EOFException e) {
-            return messages;
-        } catch (ClassNotFoundException e) {
-            log.error(e.getMessage(), e);
-        } catch (IOException e) {
-            log.error(e.getMessage(), e);
-            throw e;
-        } finally {
-            try {
-                if (inputStream != null)
-                    inputStream.close();
-            } catch (IOException e) {
-                log.error(e.getMessage(), e);
-                throw e;
-            }
-        }
-        return messages;
-    }
-
-    public void setPersistence(TbPersistenceConfiguration persistence) {
-        this.persistence = persistence;
-    }
-
-    public void setTenantName(String tenantName) {
-        this.tenantName = tenantName;
-    }
 }
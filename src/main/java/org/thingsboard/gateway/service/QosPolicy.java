@@ -0,0 +1,109 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.thingsboard.gateway.service.conf.TbConnectionConfiguration;
+import org.thingsboard.gateway.service.conf.TbQosRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the QoS of a message from its class and device name.
+ * <p>
+ * Device rules are checked in the configured order and the first match wins, then the QoS of the message class
+ * applies. Messages without a rule or class setting are sent with {@link MqttQoS#AT_LEAST_ONCE}.
+ * Results are cached per device, the cache starts over once it reaches its maximum size.
+ */
+public class QosPolicy {
+
+    private static final int MAX_CACHE_SIZE = 10000;
+
+    private final Map<MessageClass, MqttQoS> classQos = new EnumMap<>(MessageClass.class);
+    private final List<DeviceRule> deviceRules = new ArrayList<>();
+    private final Map<String, MqttQoS[]> deviceCache = new ConcurrentHashMap<>();
+
+    public QosPolicy(TbConnectionConfiguration connection) {
+        for (MessageClass messageClass : MessageClass.values()) {
+            classQos.put(messageClass, MqttQoS.AT_LEAST_ONCE);
+        }
+        if (connection.getQos() != null) {
+            connection.getQos().forEach((messageClass, qos) ->
+                    classQos.put(MessageClass.valueOf(messageClass.toUpperCase()), toQos(qos)));
+        }
+        List<TbQosRule> rules = connection.getQosRules() != null ? connection.getQosRules() : Collections.emptyList();
+        for (TbQosRule rule : rules) {
+            MessageClass messageClass = rule.getMessageClass() != null ? MessageClass.valueOf(rule.getMessageClass().toUpperCase()) : null;
+            deviceRules.add(new DeviceRule(Pattern.compile(rule.getDeviceNameFilter()), messageClass, toQos(rule.getQos())));
+        }
+    }
+
+    public MqttQoS getQos(String topic, String deviceName) {
+        MessageClass messageClass = MessageClass.of(topic);
+        if (deviceName == null || deviceRules.isEmpty()) {
+            return classQos.get(messageClass);
+        }
+        MqttQoS[] deviceQos = deviceCache.get(deviceName);
+        if (deviceQos == null) {
+            if (deviceCache.size() >= MAX_CACHE_SIZE) {
+                deviceCache.clear();
+            }
+            deviceQos = resolve(deviceName);
+            deviceCache.put(deviceName, deviceQos);
+        }
+        return deviceQos[messageClass.ordinal()];
+    }
+
+    private MqttQoS[] resolve(String deviceName) {
+        MqttQoS[] result = new MqttQoS[MessageClass.values().length];
+        for (MessageClass messageClass : MessageClass.values()) {
+            result[messageClass.ordinal()] = classQos.get(messageClass);
+            for (DeviceRule rule : deviceRules) {
+                if ((rule.messageClass == null || rule.messageClass == messageClass)
+                        && rule.pattern.matcher(deviceName).matches()) {
+                    result[messageClass.ordinal()] = rule.qos;
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static MqttQoS toQos(int qos) {
+        if (qos < 0 || qos > 2) {
+            throw new IllegalArgumentException("Unsupported QoS " + qos + "!");
+        }
+        return MqttQoS.valueOf(qos);
+    }
+
+    private static final class DeviceRule {
+        private final Pattern pattern;
+        private final MessageClass messageClass;
+        private final MqttQoS qos;
+
+        private DeviceRule(Pattern pattern, MessageClass messageClass, MqttQoS qos) {
+            this.pattern = pattern;
+            this.messageClass = messageClass;
+            this.qos = qos;
+        }
+    }
+}
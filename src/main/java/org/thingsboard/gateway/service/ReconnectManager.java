@@ -0,0 +1,174 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import io.netty.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.mqtt.MqttClient;
+import org.thingsboard.mqtt.MqttConnectResult;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Reconnects a client to ThingsBoard in the background.
+ * <p>
+ * Attempts are scheduled with exponential backoff from the retry interval up to the maximum retry interval.
+ * Each delay is randomized between half and the full backoff, so gateways that lost connection at the same time
+ * don't reconnect all at once. Listeners are notified of connection state changes; a lost connection is reported
+ * by whoever notices it first via {@link #onConnectionLost()}.
+ */
+@Slf4j
+public class ReconnectManager {
+
+    private enum State {
+        CONNECTED, DISCONNECTED, RECONNECTING
+    }
+
+    private static final int MAX_BACKOFF_SHIFT = 30;
+
+    private final MqttClient tbClient;
+    private final ScheduledExecutorService scheduler;
+    private final long retryInterval;
+    private final long maxRetryInterval;
+    private final long connectionTimeout;
+    private final List<Consumer<Boolean>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong attemptCount = new AtomicLong();
+
+    // guarded by this
+    private State state = State.CONNECTED;
+    private int failedAttempts;
+    private long attemptId;
+
+    public ReconnectManager(MqttClient tbClient, ScheduledExecutorService scheduler,
+                            long retryInterval, long maxRetryInterval, long connectionTimeout) {
+        this.tbClient = tbClient;
+        this.scheduler = scheduler;
+        this.retryInterval = Math.max(1, retryInterval);
+        this.maxRetryInterval = Math.max(this.retryInterval, maxRetryInterval);
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    /**
+     * @param listener called with false when the connection is lost and with true once it is restored
+     */
+    public void addListener(Consumer<Boolean> listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized boolean isConnected() {
+        return state == State.CONNECTED;
+    }
+
+    /**
+     * Starts reconnecting unless it is already in progress.
+     */
+    public void onConnectionLost() {
+        synchronized (this) {
+            if (state != State.CONNECTED) {
+                return;
+            }
+            state = State.DISCONNECTED;
+            failedAttempts = 0;
+        }
+        log.info("ThingsBoard MQTT connection lost.");
+        notifyListeners(false);
+        scheduleAttempt();
+    }
+
+    /**
+     * Waits until the connection is restored or the timeout passes.
+     */
+    public synchronized void awaitConnected(long timeoutMs) throws InterruptedException {
+        if (state != State.CONNECTED) {
+            wait(timeoutMs);
+        }
+    }
+
+    /**
+     * @return number of reconnect attempts since the previous call
+     */
+    public long pollAttempts() {
+        return attemptCount.getAndSet(0);
+    }
+
+    private synchronized void scheduleAttempt() {
+        long backoff = Math.min(maxRetryInterval, retryInterval << Math.min(failedAttempts, MAX_BACKOFF_SHIFT));
+        if (backoff <= 0) {
+            backoff = maxRetryInterval;
+        }
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        log.info("Reconnecting to ThingsBoard in [{}] milliseconds", delay);
+        scheduler.schedule(this::attempt, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt() {
+        long id;
+        synchronized (this) {
+            if (state != State.DISCONNECTED) {
+                return;
+            }
+            state = State.RECONNECTING;
+            id = ++attemptId;
+        }
+        attemptCount.incrementAndGet();
+        log.info("Attempting to reconnect to ThingsBoard.");
+        try {
+            Future<MqttConnectResult> result = tbClient.reconnect();
+            result.addListener(future -> onAttemptCompleted(id, future.isSuccess() && result.getNow().isSuccess()));
+            scheduler.schedule(() -> onAttemptCompleted(id, tbClient.isConnected()), connectionTimeout, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            onAttemptCompleted(id, false);
+        }
+    }
+
+    private void onAttemptCompleted(long id, boolean success) {
+        synchronized (this) {
+            if (state != State.RECONNECTING || id != attemptId) {
+                return;
+            }
+            if (success) {
+                state = State.CONNECTED;
+                notifyAll();
+            } else {
+                state = State.DISCONNECTED;
+                failedAttempts++;
+            }
+        }
+        if (success) {
+            log.info("Successfully reconnected to ThingsBoard.");
+            notifyListeners(true);
+        } else {
+            scheduleAttempt();
+        }
+    }
+
+    private void notifyListeners(boolean connected) {
+        for (Consumer<Boolean> listener : listeners) {
+            try {
+                listener.accept(connected);
+            } catch (Exception e) {
+                log.error("Failed to notify connection state listener", e);
+            }
+        }
+    }
+}
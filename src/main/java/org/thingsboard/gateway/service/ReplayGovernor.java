@@ -0,0 +1,129 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces replay of stored messages with a token bucket.
+ * <p>
+ * The rate adapts to the publish acknowledgement latency: it grows by a fixed step every adjustment interval while
+ * the average latency stays below the target, and is halved when the latency exceeds the target or a publish fails.
+ */
+public class ReplayGovernor {
+
+    private static final long ADJUSTMENT_INTERVAL_MS = 1000;
+    private static final int INCREASE_STEPS = 20;
+    // tokens that can be used at once, as a share of the rate per second
+    private static final double BURST = 0.1;
+
+    private final double minRate;
+    private final double maxRate;
+    private final long targetLatencyNanos;
+
+    // guarded by this
+    private double rate;
+    private double tokens;
+    private long lastRefillTime = System.nanoTime();
+    private long latencySum;
+    private int latencyCount;
+    private boolean failed;
+    private long lastAdjustmentTime = System.currentTimeMillis();
+    private long replayed;
+    private long lastStatisticsTime = System.currentTimeMillis();
+
+    public ReplayGovernor(double minRate, double maxRate, long targetLatencyMs) {
+        this.minRate = minRate;
+        this.maxRate = Math.max(minRate, maxRate);
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+        this.rate = Math.max(minRate, this.maxRate / 4);
+    }
+
+    /**
+     * Takes a token for one replayed message.
+     *
+     * @return false if the message has to wait, see {@link #getPauseMillis()}
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        replayed++;
+        return true;
+    }
+
+    /**
+     * @return time until the next token is available
+     */
+    public synchronized long getPauseMillis() {
+        refill();
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * 1000 / rate);
+    }
+
+    /**
+     * Records the time between a publish and its acknowledgement.
+     */
+    public synchronized void onPublished(long latencyNanos, boolean success) {
+        latencySum += latencyNanos;
+        latencyCount++;
+        failed |= !success;
+        long now = System.currentTimeMillis();
+        if (now - lastAdjustmentTime >= ADJUSTMENT_INTERVAL_MS) {
+            if (failed || latencySum / latencyCount > targetLatencyNanos) {
+                rate = Math.max(minRate, rate / 2);
+            } else {
+                rate = Math.min(maxRate, rate + maxRate / INCREASE_STEPS);
+            }
+            latencySum = 0;
+            latencyCount = 0;
+            failed = false;
+            lastAdjustmentTime = now;
+        }
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * @param backlogSize number of stored messages waiting to be replayed
+     * @return rate limit, actual replay rate since the previous call, backlog and estimated seconds to drain it
+     */
+    public synchronized Map<String, Long> pollStatistics(long backlogSize) {
+        long now = System.currentTimeMillis();
+        long elapsed = Math.max(1, now - lastStatisticsTime);
+        long replayRate = replayed * 1000 / elapsed;
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("replayRateLimit", (long) rate);
+        statistics.put("replayRate", replayRate);
+        statistics.put("replayBacklog", backlogSize);
+        statistics.put("replayEta", backlogSize / Math.max(1, replayRate > 0 ? replayRate : (long) rate));
+        replayed = 0;
+        lastStatisticsTime = now;
+        return statistics;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double burst = Math.max(1, rate * BURST);
+        tokens = Math.min(burst, tokens + (now - lastRefillTime) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefillTime = now;
+    }
+}
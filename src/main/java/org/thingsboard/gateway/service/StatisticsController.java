@@ -0,0 +1,38 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Local endpoint with latency statistics of the current reporting interval, by tenant label.
+ */
+@RestController
+public class StatisticsController {
+
+    @Autowired
+    private TenantManagerService service;
+
+    @RequestMapping(value = "/statistics/latency", method = RequestMethod.GET)
+    public Map<String, Map<String, Long>> getLatencyStatistics() {
+        return service.getLatencyStatistics();
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.gateway.service.conf.TbPersistenceConfiguration;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps storage files within the configured size and age limits by evicting telemetry from the oldest files.
+ * <p>
+ * Old telemetry is downsampled first if downsampleInterval is set. Telemetry is dropped if the files still exceed
+ * maxBytes. Attributes, RPC and connection messages are never evicted.
+ */
+@Slf4j
+public class StorageQuota {
+
+    private static final int DOWNSAMPLED = 1;
+    private static final int TELEMETRY_DROPPED = 2;
+
+    private final long maxBytes;
+    private final long maxAge;
+    private final long downsampleInterval;
+
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong downsampled = new AtomicLong();
+
+    public StorageQuota(TbPersistenceConfiguration persistence) {
+        this.maxBytes = persistence.getMaxBytes() > 0 ? persistence.getMaxBytes() : Long.MAX_VALUE;
+        this.maxAge = persistence.getMaxAge();
+        this.downsampleInterval = persistence.getDownsampleInterval();
+    }
+
+    public boolean isEnabled() {
+        return maxBytes != Long.MAX_VALUE || maxAge > 0;
+    }
+
+    /**
+     * @return evicted messages, their delivery is to be failed by the caller
+     */
+    public List<MqttPersistentMessage> enforce(MessageFileStore store) throws IOException {
+        if (!isEnabled()) {
+            return Collections.emptyList();
+        }
+        List<MqttPersistentMessage> removed = new ArrayList<>();
+        long minLastModified = maxAge > 0 ? System.currentTimeMillis() - maxAge : Long.MIN_VALUE;
+        if (downsampleInterval > 0) {
+            downsampled.addAndGet(store.compact(DOWNSAMPLED, maxBytes, minLastModified, this::downsample, removed::add));
+            minLastModified = Long.MIN_VALUE;
+        }
+        long dropped = store.compact(TELEMETRY_DROPPED, maxBytes, minLastModified, StorageQuota::dropTelemetry, removed::add);
+        if (dropped > 0) {
+            log.warn("Storage quota exceeded, evicted {} telemetry messages", dropped);
+            evicted.addAndGet(dropped);
+        }
+        return removed;
+    }
+
+    /**
+     * @return counters of evicted and downsampled telemetry messages since the previous call
+     */
+    public Map<String, Long> pollStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("telemetryEvicted", evicted.getAndSet(0));
+        statistics.put("telemetryDownsampled", downsampled.getAndSet(0));
+        return statistics;
+    }
+
+    // keeps the first telemetry message of each device per interval
+    private List<MqttPersistentMessage> downsample(List<MqttPersistentMessage> messages) {
+        Map<String, Long> lastKept = new HashMap<>();
+        List<MqttPersistentMessage> result = new ArrayList<>(messages.size());
+        for (MqttPersistentMessage message : messages) {
+            if (MessageClass.of(message.getTopic()) == MessageClass.TELEMETRY) {
+                Long last = lastKept.get(message.getDeviceId());
+                if (last != null && message.getTimestamp() - last < downsampleInterval) {
+                    continue;
+                }
+                lastKept.put(message.getDeviceId(), message.getTimestamp());
+            }
+            result.add(message);
+        }
+        return result;
+    }
+
+    private static List<MqttPersistentMessage> dropTelemetry(List<MqttPersistentMessage> messages) {
+        List<MqttPersistentMessage> result = new ArrayList<>(messages.size());
+        for (MqttPersistentMessage message : messages) {
+            if (MessageClass.of(message.getTopic()) != MessageClass.TELEMETRY) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Device name filter index for subscription listeners.
+ * <p>
+ * Filters without regular expression meta characters can only match the device with exactly that name and are
+ * kept in a hash map. The remaining filters are compiled once and checked one by one.
+ * Updates are copy-on-write, so lookups never lock.
+ */
+public class SubscriptionIndex<L> {
+
+    private static final String META_CHARACTERS = "\\.[]{}()*+?^$|";
+
+    private final Map<String, Set<L>> exact = new ConcurrentHashMap<>();
+    private volatile List<WildcardEntry<L>> wildcards = Collections.emptyList();
+
+    /**
+     * @return false if the listener is already subscribed with the same filter
+     */
+    public synchronized boolean add(String deviceNameFilter, L listener) {
+        if (isExact(deviceNameFilter)) {
+            Set<L> listeners = exact.getOrDefault(deviceNameFilter, Collections.emptySet());
+            if (listeners.contains(listener)) {
+                return false;
+            }
+            Set<L> updated = new HashSet<>(listeners);
+            updated.add(listener);
+            exact.put(deviceNameFilter, Collections.unmodifiableSet(updated));
+        } else {
+            if (indexOf(deviceNameFilter, listener) >= 0) {
+                return false;
+            }
+            List<WildcardEntry<L>> updated = new ArrayList<>(wildcards);
+            updated.add(new WildcardEntry<>(deviceNameFilter, Pattern.compile(deviceNameFilter), listener));
+            wildcards = Collections.unmodifiableList(updated);
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the listener is not subscribed with the given filter
+     */
+    public synchronized boolean remove(String deviceNameFilter, L listener) {
+        if (isExact(deviceNameFilter)) {
+            Set<L> listeners = exact.get(deviceNameFilter);
+            if (listeners == null || !listeners.contains(listener)) {
+                return false;
+            }
+            if (listeners.size() == 1) {
+                exact.remove(deviceNameFilter);
+            } else {
+                Set<L> updated = new HashSet<>(listeners);
+                updated.remove(listener);
+                exact.put(deviceNameFilter, Collections.unmodifiableSet(updated));
+            }
+        } else {
+            int idx = indexOf(deviceNameFilter, listener);
+            if (idx < 0) {
+                return false;
+            }
+            List<WildcardEntry<L>> updated = new ArrayList<>(wildcards);
+            updated.remove(idx);
+            wildcards = Collections.unmodifiableList(updated);
+        }
+        return true;
+    }
+
+    /**
+     * @return listeners subscribed to the device, each listener at most once
+     */
+    public Set<L> match(String deviceName) {
+        Set<L> listeners = exact.getOrDefault(deviceName, Collections.emptySet());
+        List<WildcardEntry<L>> wildcards = this.wildcards;
+        if (wildcards.isEmpty()) {
+            return listeners;
+        }
+        Set<L> result = null;
+        for (WildcardEntry<L> entry : wildcards) {
+            if (entry.pattern.matcher(deviceName).matches()) {
+                if (result == null) {
+                    result = new HashSet<>(listeners);
+                }
+                result.add(entry.listener);
+            }
+        }
+        return result != null ? result : listeners;
+    }
+
+    public boolean isEmpty() {
+        return exact.isEmpty() && wildcards.isEmpty();
+    }
+
+    private int indexOf(String deviceNameFilter, L listener) {
+        List<WildcardEntry<L>> wildcards = this.wildcards;
+        for (int i = 0; i < wildcards.size(); i++) {
+            WildcardEntry<L> entry = wildcards.get(i);
+            if (entry.filter.equals(deviceNameFilter) && Objects.equals(entry.listener, listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static boolean isExact(String deviceNameFilter) {
+        for (int i = 0; i < deviceNameFilter.length(); i++) {
+            if (META_CHARACTERS.indexOf(deviceNameFilter.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class WildcardEntry<L> {
+        private final String filter;
+        private final Pattern pattern;
+        private final L listener;
+
+        private WildcardEntry(String filter, Pattern pattern, L listener) {
+            this.filter = filter;
+            this.pattern = pattern;
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import org.thingsboard.gateway.service.conf.TbDeadbandConfiguration;
+import org.thingsboard.gateway.service.conf.TbDeadbandKeyConfiguration;
+import org.thingsboard.server.common.data.kv.DataType;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Report-by-exception filter for device telemetry.
+ * <p>
+ * A numeric value is passed on when its distance to the last passed value of the same device and key exceeds the
+ * absolute band or the percent band of the last value, whichever is configured. Without bands every change is passed
+ * on. Strings are passed on when they change. Any value is passed on once maxSilence has passed since the last one
+ * of its key, as a heartbeat.
+ * <p>
+ * Keys get a global index on first use. Each device keeps its last values in primitive arrays by key index, so a
+ * sample is checked without allocation.
+ */
+public class TelemetryFilter {
+
+    private static final int INITIAL_KEYS = 8;
+
+    private final double absolute;
+    private final double percent;
+    private final long maxSilence;
+    private final Map<String, TbDeadbandKeyConfiguration> keyBands = new HashMap<>();
+    private final ConcurrentMap<String, Integer> keyIndexes = new ConcurrentHashMap<>();
+    // bands by key index, replaced as keys are added
+    private volatile double[] absoluteBands = new double[0];
+    private volatile double[] percentBands = new double[0];
+    private final ConcurrentMap<String, DeviceValues> devices = new ConcurrentHashMap<>();
+    private final AtomicLong filtered = new AtomicLong();
+
+    public TelemetryFilter(TbDeadbandConfiguration configuration) {
+        this.absolute = configuration.getAbsolute();
+        this.percent = configuration.getPercent();
+        this.maxSilence = configuration.getMaxSilence();
+        if (configuration.getKeys() != null) {
+            configuration.getKeys().forEach(key -> keyBands.put(key.getKey(), key));
+        }
+    }
+
+    /**
+     * @return entries to send, in their original order
+     */
+    public List<TsKvEntry> filter(String deviceName, List<TsKvEntry> telemetry) {
+        DeviceValues values = devices.computeIfAbsent(deviceName, name -> new DeviceValues());
+        List<TsKvEntry> result = new ArrayList<>(telemetry.size());
+        synchronized (values) {
+            for (TsKvEntry entry : telemetry) {
+                if (values.accept(indexOf(entry.getKey()), entry)) {
+                    result.add(entry);
+                }
+            }
+        }
+        filtered.addAndGet(telemetry.size() - result.size());
+        return result;
+    }
+
+    /**
+     * @return number of filtered out values since the previous call
+     */
+    public long pollFiltered() {
+        return filtered.getAndSet(0);
+    }
+
+    private int indexOf(String key) {
+        Integer index = keyIndexes.get(key);
+        return index != null ? index : addKey(key);
+    }
+
+    private synchronized int addKey(String key) {
+        Integer existing = keyIndexes.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        int index = keyIndexes.size();
+        TbDeadbandKeyConfiguration band = keyBands.get(key);
+        double[] absoluteBands = Arrays.copyOf(this.absoluteBands, index + 1);
+        double[] percentBands = Arrays.copyOf(this.percentBands, index + 1);
+        absoluteBands[index] = band != null ? band.getAbsolute() : absolute;
+        percentBands[index] = band != null ? band.getPercent() : percent;
+        this.absoluteBands = absoluteBands;
+        this.percentBands = percentBands;
+        keyIndexes.put(key, index);
+        return index;
+    }
+
+    private static double toDouble(TsKvEntry entry) {
+        switch (entry.getDataType()) {
+            case BOOLEAN:
+                return entry.getBooleanValue().orElse(false) ? 1 : 0;
+            case LONG:
+                return entry.getLongValue().orElse(0L);
+            default:
+                return entry.getDoubleValue().orElse(0.0);
+        }
+    }
+
+    private final class DeviceValues {
+        private double[] lastValues = new double[INITIAL_KEYS];
+        private long[] lastTimes = new long[INITIAL_KEYS];
+        private boolean[] present = new boolean[INITIAL_KEYS];
+        // only allocated for devices with string values
+        private String[] lastStrings;
+
+        private boolean accept(int index, TsKvEntry entry) {
+            ensureCapacity(index);
+            long ts = entry.getTs();
+            boolean heartbeat = maxSilence > 0 && ts - lastTimes[index] >= maxSilence;
+            boolean changed;
+            if (entry.getDataType() == DataType.STRING) {
+                String value = entry.getStrValue().orElse(null);
+                if (lastStrings == null) {
+                    lastStrings = new String[lastValues.length];
+                }
+                changed = !present[index] || !Objects.equals(lastStrings[index], value);
+                if (changed || heartbeat) {
+                    lastStrings[index] = value;
+                }
+            } else {
+                double value = toDouble(entry);
+                changed = !present[index] || exceedsBand(index, lastValues[index], value);
+                if (changed || heartbeat) {
+                    lastValues[index] = value;
+                }
+            }
+            if (changed || heartbeat) {
+                present[index] = true;
+                lastTimes[index] = ts;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean exceedsBand(int index, double last, double value) {
+            double delta = Math.abs(value - last);
+            double absoluteBand = absoluteBands[index];
+            double percentBand = percentBands[index];
+            if (absoluteBand <= 0 && percentBand <= 0) {
+                return delta > 0;
+            }
+            return (absoluteBand > 0 && delta > absoluteBand)
+                    || (percentBand > 0 && delta > Math.abs(last) * percentBand / 100);
+        }
+
+        private void ensureCapacity(int index) {
+            if (index < lastValues.length) {
+                return;
+            }
+            int length = Math.max(index + 1, lastValues.length * 2);
+            lastValues = Arrays.copyOf(lastValues, length);
+            lastTimes = Arrays.copyOf(lastTimes, length);
+            present = Arrays.copyOf(present, length);
+            if (lastStrings != null) {
+                lastStrings = Arrays.copyOf(lastStrings, length);
+            }
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.thingsboard.gateway.service;
 
+import java.util.Map;
+
 /**
  * Created by ashvayka on 29.09.17.
  */
@@ -22,4 +24,9 @@ public interface TenantManagerService {
 
     void processRequest(String converterId, String token, String body) throws Exception;
 
+    /**
+     * @return latency statistics of each tenant gateway by tenant label
+     */
+    Map<String, Map<String, Long>> getLatencyStatistics();
+
 }
@@ -28,6 +28,7 @@ import org.thingsboard.gateway.extensions.mqtt.client.DefaultMqttClientService;
 import org.thingsboard.gateway.extensions.opc.DefaultOpcUaService;
 import org.thingsboard.gateway.service.conf.TbExtensionConfiguration;
 import org.thingsboard.gateway.service.gateway.GatewayService;
+import org.thingsboard.gateway.service.gateway.InstrumentedGatewayService;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -79,7 +80,8 @@ public class TenantServiceRegistry implements ExtensionServiceCreation {
             for (TbExtensionConfiguration updatedConfiguration : updatedConfigurations) {
                 if (!extensions.containsKey(updatedConfiguration.getId())) {
                     log.info("Initializing extension: [{}][{}]", updatedConfiguration.getId(), updatedConfiguration.getType());
-                    ExtensionService extension = createExtensionServiceByType(service, updatedConfiguration.getType());
+                    ExtensionService extension = createExtensionServiceByType(
+                            new InstrumentedGatewayService(service, updatedConfiguration.getId()), updatedConfiguration.getType());
                     extension.init(updatedConfiguration, true);
                     service.onConfigurationStatus(updatedConfiguration.getId(), STATUS_INIT);
                     if (HTTP_EXTENSION.equals(updatedConfiguration.getType())) {
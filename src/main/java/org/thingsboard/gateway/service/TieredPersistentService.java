@@ -0,0 +1,236 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves messages from an in-memory hot tier while the sender keeps up and moves to disk segments only under backlog.
+ * <p>
+ * New messages go to the cold tier when the hot tier holds more than spillThreshold messages or the connection
+ * to ThingsBoard is lost. Losing the connection also writes the hot tier to disk. Once the cold tier is drained,
+ * new messages go to the hot tier again.
+ */
+@Slf4j
+public class TieredPersistentService extends AbstractPersistentService {
+
+    private static final String COLD_FILE_PREFIX = "tb-gateway-cold-";
+    private static final int DEFAULT_SPILL_THRESHOLD_BUFFERS = 10;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private int spillThreshold;
+    // guarded by lock, messages in the cold tier are newer than the ones in the hot tier
+    private OffHeapMessageRing hotTier;
+    private MessageFileStore coldFiles;
+    private List<MqttPersistentMessage> coldBuffer;
+    private List<MqttPersistentMessage> resendBuffer;
+    private boolean connected = true;
+
+    @PostConstruct
+    public void init() {
+        int capacity = persistence.getMemoryCapacity() > 0 ? persistence.getMemoryCapacity() :
+                MemoryPersistentService.DEFAULT_MEMORY_CAPACITY;
+        spillThreshold = persistence.getSpillThreshold() > 0 ? persistence.getSpillThreshold() :
+                persistence.getBufferSize() * DEFAULT_SPILL_THRESHOLD_BUFFERS;
+        hotTier = new OffHeapMessageRing(capacity);
+        coldFiles = createFileStore(initStorageDir(), COLD_FILE_PREFIX);
+        coldBuffer = new ArrayList<>();
+        resendBuffer = new ArrayList<>();
+    }
+
+    @Override
+    public void destroy() {
+        flushPriorityLane();
+        List<MqttPersistentMessage> evicted = Collections.emptyList();
+        lock.lock();
+        try {
+            spillHotTier();
+            evicted = flushColdBuffer();
+            coldFiles.sync();
+        } catch (IOException e) {
+            log.warn("Failed to write buffered messages on shutdown!", e);
+        } finally {
+            lock.unlock();
+        }
+        discardEvicted(evicted);
+    }
+
+    @Override
+    public void onConnectionStateChanged(boolean connected) {
+        lock.lock();
+        try {
+            this.connected = connected;
+            if (!connected) {
+                spillHotTier();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to move hot tier to disk!", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void store(MqttPersistentMessage message) throws IOException {
+        List<MqttPersistentMessage> evicted = Collections.emptyList();
+        lock.lock();
+        try {
+            if (isColdActive() || !connected || hotTier.size() >= spillThreshold || !hotTier.offer(message)) {
+                if (!isColdActive()) {
+                    log.info("[{}] Storing new messages on disk. Hot tier size: [{}], connected: [{}]", tenantName, hotTier.size(), connected);
+                }
+                coldBuffer.add(message);
+                if (coldBuffer.size() >= persistence.getBufferSize()) {
+                    evicted = flushColdBuffer();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        discardEvicted(evicted);
+    }
+
+    private boolean isColdActive() {
+        return !coldFiles.isEmpty() || !coldBuffer.isEmpty();
+    }
+
+    // writes the resend buffer and the hot tier as the oldest cold segment
+    private void spillHotTier() throws IOException {
+        List<MqttPersistentMessage> messages = resendBuffer;
+        resendBuffer = new ArrayList<>();
+        MqttPersistentMessage message;
+        while ((message = hotTier.poll()) != null) {
+            messages.add(message);
+        }
+        if (!messages.isEmpty()) {
+            coldFiles.writeFirst(messages);
+        }
+    }
+
+    // returns messages evicted by the storage quota
+    private List<MqttPersistentMessage> flushColdBuffer() throws IOException {
+        if (coldBuffer.isEmpty()) {
+            return Collections.emptyList();
+        }
+        coldFiles.write(coldBuffer);
+        coldBuffer = new ArrayList<>();
+        return storageQuota.enforce(coldFiles);
+    }
+
+    @Override
+    public List<MqttPersistentMessage> getPersistentMessages() throws IOException {
+        lock.lock();
+        try {
+            coldFiles.syncIfDue();
+            List<MqttPersistentMessage> messages = new ArrayList<>(Math.min(hotTier.size(), persistence.getBufferSize()));
+            MqttPersistentMessage message;
+            while (messages.size() < persistence.getBufferSize() && (message = hotTier.poll()) != null) {
+                messages.add(message);
+            }
+            if (!messages.isEmpty()) {
+                return messages;
+            }
+            if (!coldFiles.isEmpty()) {
+                return coldFiles.readOldest();
+            }
+            if (!coldBuffer.isEmpty()) {
+                log.info("[{}] Disk backlog is drained, storing new messages in memory", tenantName);
+            }
+            messages = coldBuffer;
+            coldBuffer = new ArrayList<>();
+            return messages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<MqttPersistentMessage> getLiveMessages() {
+        lock.lock();
+        try {
+            // without cold files the cold buffer is returned by getPersistentMessages
+            return coldFiles.isEmpty() ? Collections.emptyList() : takeTelemetry(coldBuffer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getBacklogSize() {
+        lock.lock();
+        try {
+            return hotTier.size() + (long) coldFiles.getFileCount() * persistence.getBufferSize() + coldBuffer.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = super.getStatistics();
+        lock.lock();
+        try {
+            statistics.put("hotTierMessages", (long) hotTier.size());
+            statistics.put("hotTierBytes", (long) hotTier.getUsedBytes());
+        } finally {
+            lock.unlock();
+        }
+        statistics.put("coldFiles", (long) coldFiles.getFileCount());
+        statistics.put("coldBytes", coldFiles.getTotalBytes());
+        return statistics;
+    }
+
+    @Override
+    public List<MqttPersistentMessage> getResendMessages() {
+        lock.lock();
+        try {
+            List<MqttPersistentMessage> messages = resendBuffer;
+            resendBuffer = new ArrayList<>();
+            return messages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void saveForResend(MqttPersistentMessage message) {
+        lock.lock();
+        try {
+            resendBuffer.add(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void saveForResend(List<MqttPersistentMessage> messages) {
+        lock.lock();
+        try {
+            resendBuffer.addAll(messages);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
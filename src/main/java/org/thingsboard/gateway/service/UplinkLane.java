@@ -0,0 +1,41 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+/**
+ * Lane of the uplink a message is sent through, derived from its topic.
+ * <p>
+ * RPC responses, attribute requests and the gateway's own telemetry and attributes go through the priority lane,
+ * ahead of the device data backlog. Connects and disconnects stay in the bulk lane: a disconnect must not be sent
+ * before the data of the device that is still waiting in the backlog, and a connect must not overtake a disconnect
+ * of the same device.
+ */
+public enum UplinkLane {
+
+    PRIORITY, BULK;
+
+    private static final String GATEWAY_RPC_TOPIC = "v1/gateway/rpc";
+    private static final String GATEWAY_REQUESTS_ATTRIBUTES_TOPIC = "v1/gateway/attributes/request";
+    private static final String DEVICE_TOPIC_PREFIX = "v1/devices/me/";
+
+    public static UplinkLane of(String topic) {
+        if (topic.equals(GATEWAY_RPC_TOPIC) || topic.equals(GATEWAY_REQUESTS_ATTRIBUTES_TOPIC)
+                || topic.startsWith(DEVICE_TOPIC_PREFIX)) {
+            return PRIORITY;
+        }
+        return BULK;
+    }
+}
@@ -18,6 +18,9 @@ package org.thingsboard.gateway.service.conf;
 import lombok.Data;
 import org.thingsboard.gateway.service.gateway.MqttGatewaySecurityConfiguration;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Created by ashvayka on 18.01.17.
  */
@@ -27,10 +30,17 @@ public class TbConnectionConfiguration {
     private String host;
     private int port;
     private long retryInterval;
+    private long maxRetryInterval;
     private long connectionTimeout;
     private int maxInFlight;
     private int maxQueueSize;
     private int incomingQueueWarningThreshold;
+    private int callbackThreads;
+    private int callbackQueueSize;
+    private int sessions;
+    // QoS by message class: telemetry, attributes, rpc or connection
+    private Map<String, Integer> qos;
+    private List<TbQosRule> qosRules;
     private MqttGatewaySecurityConfiguration security;
 
 }
@@ -29,6 +29,23 @@ public class TbPersistenceConfiguration {
     private String type;
     private String path;
     private int bufferSize;
+    private int batchSize;
+    private long lingerMs;
     private long pollingInterval;
+    private int memoryCapacity;
+    private String overflowPolicy;
+    private int spillThreshold;
+    private long maxBytes;
+    private long maxAge;
+    private long downsampleInterval;
+    private String fsync;
+    private long fsyncInterval;
+    private String compression;
+    private int priorityWeight;
+    private int replayMinRate;
+    private int replayMaxRate;
+    private long replayTargetLatency;
+    private long pressureElevatedBacklog;
+    private long pressureCriticalBacklog;
 
 }
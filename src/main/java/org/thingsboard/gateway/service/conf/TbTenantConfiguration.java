@@ -29,6 +29,7 @@ public class TbTenantConfiguration {
     private TbReportingConfiguration reporting;
     private TbPersistenceConfiguration persistence;
     private TbConnectionConfiguration connection;
+    private TbDeadbandConfiguration deadband;
     private Boolean remoteConfiguration;
     private List<TbExtensionConfiguration> extensions;
 }
@@ -0,0 +1,33 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service.data;
+
+import lombok.Data;
+
+/**
+ * Response of ThingsBoard to a device attribute request.
+ */
+@Data
+public class DeviceAttributesResponse {
+
+    private final int requestId;
+    private final String deviceName;
+    /**
+     * Boolean, Long, Double or String value, null if the attribute was not found.
+     */
+    private final Object value;
+
+}
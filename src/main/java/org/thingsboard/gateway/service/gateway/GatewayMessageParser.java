@@ -0,0 +1,157 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service.gateway;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import org.thingsboard.gateway.service.data.DeviceAttributesResponse;
+import org.thingsboard.gateway.service.data.DeviceAttributesUpdate;
+import org.thingsboard.gateway.service.data.DeviceRpcCommand;
+import org.thingsboard.gateway.service.data.RpcCommandData;
+import org.thingsboard.gateway.util.JsonTools;
+import org.thingsboard.server.common.data.kv.KvEntry;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parses messages received from ThingsBoard straight from the MQTT payload buffer, without building a String or a
+ * JSON tree. The buffer is only read, so its reader index and reference count are left untouched.
+ */
+final class GatewayMessageParser {
+
+    private static final String DEVICE = "device";
+    private static final String DATA = "data";
+
+    private GatewayMessageParser() {
+    }
+
+    static DeviceAttributesUpdate parseAttributesUpdate(ByteBuf payload) throws IOException {
+        try (JsonParser parser = createParser(payload)) {
+            String deviceName = null;
+            List<KvEntry> attributes = Collections.emptyList();
+            while (nextField(parser)) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (DEVICE.equals(field)) {
+                    deviceName = JsonTools.getText(parser);
+                } else if (DATA.equals(field)) {
+                    attributes = JsonTools.getKvEntries(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new DeviceAttributesUpdate(checkDevice(deviceName), attributes);
+        }
+    }
+
+    static DeviceRpcCommand parseRpcCommand(ByteBuf payload) throws IOException {
+        try (JsonParser parser = createParser(payload)) {
+            String deviceName = null;
+            RpcCommandData command = null;
+            while (nextField(parser)) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (DEVICE.equals(field)) {
+                    deviceName = JsonTools.getText(parser);
+                } else if (DATA.equals(field) && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                    command = parseRpcCommandData(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (command == null) {
+                throw new IllegalArgumentException("RPC command data is missing!");
+            }
+            return new DeviceRpcCommand(checkDevice(deviceName), command);
+        }
+    }
+
+    static DeviceAttributesResponse parseAttributesResponse(ByteBuf payload) throws IOException {
+        try (JsonParser parser = createParser(payload)) {
+            int requestId = 0;
+            String deviceName = null;
+            Object value = null;
+            while (nextField(parser)) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("id".equals(field)) {
+                    requestId = parser.getValueAsInt();
+                } else if (DEVICE.equals(field)) {
+                    deviceName = JsonTools.getText(parser);
+                } else if ("value".equals(field)) {
+                    value = JsonTools.getValue(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new DeviceAttributesResponse(requestId, checkDevice(deviceName), value);
+        }
+    }
+
+    static JsonNode parseTree(ByteBuf payload) throws IOException {
+        try (JsonParser parser = createParser(payload)) {
+            return JsonTools.readTree(parser);
+        }
+    }
+
+    private static RpcCommandData parseRpcCommandData(JsonParser parser) throws IOException {
+        RpcCommandData command = new RpcCommandData();
+        while (nextField(parser)) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("id".equals(field)) {
+                command.setRequestId(parser.getValueAsInt());
+            } else if ("method".equals(field)) {
+                command.setMethod(JsonTools.getText(parser));
+            } else if ("params".equals(field)) {
+                command.setParams(JsonTools.getText(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return command;
+    }
+
+    private static JsonParser createParser(ByteBuf payload) throws IOException {
+        JsonParser parser;
+        if (payload.hasArray()) {
+            parser = JsonTools.createParser(payload.array(), payload.arrayOffset() + payload.readerIndex(), payload.readableBytes());
+        } else {
+            parser = JsonTools.createParser(new ByteBufInputStream(payload.duplicate()));
+        }
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            parser.close();
+            throw new IllegalArgumentException("JSON object expected!");
+        }
+        return parser;
+    }
+
+    private static boolean nextField(JsonParser parser) throws IOException {
+        return parser.nextToken() == JsonToken.FIELD_NAME;
+    }
+
+    private static String checkDevice(String deviceName) {
+        if (deviceName == null) {
+            throw new IllegalArgumentException("Device name is missing!");
+        }
+        return deviceName;
+    }
+}
@@ -22,6 +22,7 @@ import org.thingsboard.server.common.data.kv.KvEntry;
 import org.thingsboard.server.common.data.kv.TsKvEntry;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Consumer;
 
@@ -36,6 +37,17 @@ public interface GatewayService {
 
     String getTenantLabel();
 
+    /**
+     * Current pressure of the uplink to Thingsboard. Producers should slow down while it is elevated
+     * and stop taking new data while it is critical.
+     */
+    PressureLevel getPressureLevel();
+
+    /**
+     * @return true if telemetry passes a deadband filter, so extensions don't need to drop unchanged values themselves
+     */
+    boolean isTelemetryFiltered();
+
     /**
      * Inform gateway service that device is connected
      *
@@ -151,4 +163,17 @@ public interface GatewayService {
      * @param status - extension status
      */
     void onConfigurationStatus(String id, String status);
+
+    /**
+     * Record latency of a processing stage
+     *
+     * @param metric        - the stage name
+     * @param durationNanos - the latency in nanoseconds
+     */
+    void recordLatency(String metric, long durationNanos);
+
+    /**
+     * Latency statistics of all stages in microseconds, recorded since the latest statistics report
+     */
+    Map<String, Long> getLatencyStatistics();
 }
@@ -0,0 +1,173 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service.gateway;
+
+import org.thingsboard.gateway.service.MqttDeliveryFuture;
+import org.thingsboard.gateway.service.conf.TbExtensionConfiguration;
+import org.thingsboard.gateway.service.data.*;
+import org.thingsboard.server.common.data.kv.KvEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Gateway service handed to one extension. Records how long the extension waits for its data to be persisted
+ * ("&lt;id&gt;Ingest") and how long it takes until ThingsBoard acknowledges it ("&lt;id&gt;Delivery").
+ */
+public class InstrumentedGatewayService implements GatewayService {
+
+    private static final String INGEST = "Ingest";
+    private static final String DELIVERY = "Delivery";
+
+    private final GatewayService delegate;
+    private final String ingestMetric;
+    private final String deliveryMetric;
+
+    public InstrumentedGatewayService(GatewayService delegate, String extensionId) {
+        this.delegate = delegate;
+        this.ingestMetric = extensionId + INGEST;
+        this.deliveryMetric = extensionId + DELIVERY;
+    }
+
+    @Override
+    public void init() throws Exception {
+        delegate.init();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        delegate.destroy();
+    }
+
+    @Override
+    public String getTenantLabel() {
+        return delegate.getTenantLabel();
+    }
+
+    @Override
+    public PressureLevel getPressureLevel() {
+        return delegate.getPressureLevel();
+    }
+
+    @Override
+    public boolean isTelemetryFiltered() {
+        return delegate.isTelemetryFiltered();
+    }
+
+    @Override
+    public MqttDeliveryFuture onDeviceConnect(String deviceName, String deviceType) {
+        return delegate.onDeviceConnect(deviceName, deviceType);
+    }
+
+    @Override
+    public Optional<MqttDeliveryFuture> onDeviceDisconnect(String deviceName) {
+        return delegate.onDeviceDisconnect(deviceName);
+    }
+
+    @Override
+    public MqttDeliveryFuture onDeviceAttributesUpdate(String deviceName, List<KvEntry> attributes) {
+        return measure(() -> delegate.onDeviceAttributesUpdate(deviceName, attributes));
+    }
+
+    @Override
+    public MqttDeliveryFuture onDeviceTelemetry(String deviceName, List<TsKvEntry> telemetry) {
+        return measure(() -> delegate.onDeviceTelemetry(deviceName, telemetry));
+    }
+
+    private MqttDeliveryFuture measure(Supplier<MqttDeliveryFuture> call) {
+        long ingestTime = System.nanoTime();
+        MqttDeliveryFuture future = call.get();
+        delegate.recordLatency(ingestMetric, System.nanoTime() - ingestTime);
+        // filtered data is not sent, so it has no delivery latency
+        if (future != null && !future.isFiltered()) {
+            future.thenAccept(delivered -> {
+                if (Boolean.TRUE.equals(delivered)) {
+                    delegate.recordLatency(deliveryMetric, System.nanoTime() - ingestTime);
+                }
+            });
+        }
+        return future;
+    }
+
+    @Override
+    public void onDeviceAttributeRequest(AttributeRequest attributeRequest, Consumer<AttributeResponse> listener) {
+        delegate.onDeviceAttributeRequest(attributeRequest, listener);
+    }
+
+    @Override
+    public void onDeviceRpcResponse(RpcCommandResponse response) {
+        delegate.onDeviceRpcResponse(response);
+    }
+
+    @Override
+    public boolean subscribe(AttributesUpdateSubscription subscription) {
+        return delegate.subscribe(subscription);
+    }
+
+    @Override
+    public boolean subscribe(RpcCommandSubscription subscription) {
+        return delegate.subscribe(subscription);
+    }
+
+    @Override
+    public boolean unsubscribe(AttributesUpdateSubscription subscription) {
+        return delegate.unsubscribe(subscription);
+    }
+
+    @Override
+    public boolean unsubscribe(RpcCommandSubscription subscription) {
+        return delegate.unsubscribe(subscription);
+    }
+
+    @Override
+    public void onError(Exception e) {
+        delegate.onError(e);
+    }
+
+    @Override
+    public void onError(String deviceName, Exception e) {
+        delegate.onError(deviceName, e);
+    }
+
+    @Override
+    public void onAppliedConfiguration(String configuration) {
+        delegate.onAppliedConfiguration(configuration);
+    }
+
+    @Override
+    public void onConfigurationError(Exception e, TbExtensionConfiguration configuration) {
+        delegate.onConfigurationError(e, configuration);
+    }
+
+    @Override
+    public void onConfigurationStatus(String id, String status) {
+        delegate.onConfigurationStatus(id, status);
+    }
+
+    @Override
+    public void recordLatency(String metric, long durationNanos) {
+        delegate.recordLatency(metric, durationNanos);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyStatistics() {
+        return delegate.getLatencyStatistics();
+    }
+}
@@ -20,21 +20,22 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.io.Resources;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.codec.mqtt.MqttQoS;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.util.concurrent.Promise;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.thingsboard.gateway.service.AttributesUpdateListener;
-import org.thingsboard.gateway.service.MessageFuturePair;
 import org.thingsboard.gateway.service.MqttDeliveryFuture;
-import org.thingsboard.gateway.service.MqttMessageReceiver;
-import org.thingsboard.gateway.service.MqttMessageSender;
 import org.thingsboard.gateway.service.PersistentFileService;
+import org.thingsboard.gateway.service.QosPolicy;
 import org.thingsboard.gateway.service.RpcCommandListener;
+import org.thingsboard.gateway.service.SubscriptionIndex;
+import org.thingsboard.gateway.service.TelemetryFilter;
 import org.thingsboard.gateway.service.conf.TbConnectionConfiguration;
 import org.thingsboard.gateway.service.conf.TbExtensionConfiguration;
 import org.thingsboard.gateway.service.conf.TbPersistenceConfiguration;
@@ -45,17 +46,18 @@ import org.thingsboard.gateway.service.data.AttributeRequestKey;
 import org.thingsboard.gateway.service.data.AttributeRequestListener;
 import org.thingsboard.gateway.service.data.AttributeResponse;
 import org.thingsboard.gateway.service.data.AttributesUpdateSubscription;
+import org.thingsboard.gateway.service.data.DeviceAttributesResponse;
+import org.thingsboard.gateway.service.data.DeviceAttributesUpdate;
 import org.thingsboard.gateway.service.data.DeviceInfo;
+import org.thingsboard.gateway.service.data.DeviceRpcCommand;
 import org.thingsboard.gateway.service.data.RpcCommandData;
 import org.thingsboard.gateway.service.data.RpcCommandResponse;
 import org.thingsboard.gateway.service.data.RpcCommandSubscription;
 import org.thingsboard.gateway.util.JsonTools;
+import org.thingsboard.gateway.util.LatencyMetrics;
+import org.thingsboard.gateway.util.StripedExecutor;
 import org.thingsboard.mqtt.*;
-import org.thingsboard.server.common.data.kv.BooleanDataEntry;
-import org.thingsboard.server.common.data.kv.DoubleDataEntry;
 import org.thingsboard.server.common.data.kv.KvEntry;
-import org.thingsboard.server.common.data.kv.LongDataEntry;
-import org.thingsboard.server.common.data.kv.StringDataEntry;
 import org.thingsboard.server.common.data.kv.TsKvEntry;
 
 import javax.annotation.*;
@@ -69,17 +71,16 @@ import java.io.StringWriter;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -89,17 +90,17 @@ import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static org.thingsboard.gateway.util.JsonTools.fromString;
-import static org.thingsboard.gateway.util.JsonTools.getKvEntries;
 import static org.thingsboard.gateway.util.JsonTools.newNode;
 import static org.thingsboard.gateway.util.JsonTools.putToNode;
+import static org.thingsboard.gateway.util.JsonTools.toByteBuf;
 import static org.thingsboard.gateway.util.JsonTools.toBytes;
+import static org.thingsboard.gateway.util.JsonTools.toKvEntry;
 
 /**
  * Created by ashvayka on 16.01.17.
  */
 @Slf4j
-public class MqttGatewayService implements GatewayService, MqttHandler, MqttClientCallback {
+public class MqttGatewayService implements GatewayService, MqttHandler {
 
     private static final String DEVICE_TELEMETRY_TOPIC = "v1/devices/me/telemetry";
     private static final String GATEWAY_RPC_TOPIC = "v1/gateway/rpc";
@@ -110,6 +111,8 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
     private static final String GATEWAY_CONNECT_TOPIC = "v1/gateway/connect";
     private static final String GATEWAY_DISCONNECT_TOPIC = "v1/gateway/disconnect";
     private static final String GATEWAY = "GATEWAY";
+    // statistics of parallel sessions that are not summed up
+    private static final String REPLAY_ETA_STATISTIC = "replayEta";
 
     private static final String DEVICE_ATTRIBUTES_TOPIC = "v1/devices/me/attributes";
     private static final String DEVICE_GET_ATTRIBUTES_REQUEST_TOPIC = "v1/devices/me/attributes/request/1";
@@ -118,19 +121,31 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
 
     private static final String JKS = "JKS";
     private static final long DEFAULT_CONNECTION_TIMEOUT = 10000;
+    private static final long DEFAULT_MAX_RETRY_INTERVAL = 60000;
     private static final long DEFAULT_POLLING_INTERVAL = 1000;
+    private static final int DEFAULT_CALLBACK_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int DEFAULT_CALLBACK_QUEUE_SIZE = 10000;
+    private static final int DEFAULT_PRIORITY_WEIGHT = 10;
+    private static final int DEFAULT_REPLAY_MIN_RATE = 100;
+    private static final int DEFAULT_REPLAY_MAX_RATE = 10000;
+    private static final long DEFAULT_REPLAY_TARGET_LATENCY = 500;
+    // in buffers of messages
+    private static final int DEFAULT_PRESSURE_ELEVATED_BUFFERS = 10;
+    private static final int DEFAULT_PRESSURE_CRITICAL_BUFFERS = 100;
+    private static final long PRESSURE_CHECK_INTERVAL = 100;
 
     private final ConcurrentMap<String, DeviceInfo> devices = new ConcurrentHashMap<>();
     private final AtomicLong attributesCount = new AtomicLong();
     private final AtomicLong telemetryCount = new AtomicLong();
     private final AtomicInteger msgIdSeq = new AtomicInteger();
-    private final Set<AttributesUpdateSubscription> attributeUpdateSubs = ConcurrentHashMap.newKeySet();
-    private final Set<RpcCommandSubscription> rpcCommandSubs = ConcurrentHashMap.newKeySet();
+    private final SubscriptionIndex<AttributesUpdateListener> attributeUpdateSubs = new SubscriptionIndex<>();
+    private final SubscriptionIndex<RpcCommandListener> rpcCommandSubs = new SubscriptionIndex<>();
     private final Map<AttributeRequestKey, AttributeRequestListener> pendingAttrRequestsMap = new ConcurrentHashMap<>();
 
     private String tenantLabel;
 
-    private PersistentFileService persistentFileService;
+    // one per session, the first one belongs to the primary session
+    private List<PersistentFileService> persistentFileServices;
 
     private Consumer<String> extensionsConfigListener;
     private TbTenantConfiguration configuration;
@@ -140,12 +155,16 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
 
 
     private volatile ObjectNode error;
-    private MqttClient tbClient;
+    private final List<MqttGatewaySession> sessions = new ArrayList<>();
 
     private ScheduledExecutorService scheduler;
-    private ExecutorService mqttSenderExecutor;
-    private ExecutorService mqttReceiverExecutor;
-    private ExecutorService callbackExecutor = Executors.newCachedThreadPool();
+    private StripedExecutor callbackExecutor;
+    private QosPolicy qosPolicy;
+    // null unless deadband filtering is configured
+    private TelemetryFilter telemetryFilter;
+    private final LatencyMetrics latencyMetrics = new LatencyMetrics();
+    private volatile PressureLevel pressureLevel = PressureLevel.NONE;
+    private volatile long pressureCheckTime;
 
     @Autowired
     private NioEventLoopGroup nioEventLoopGroup;
@@ -159,17 +178,26 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
     @Override
     @PostConstruct
     public void init() {
-        BlockingQueue<MessageFuturePair> incomingQueue = new LinkedBlockingQueue<>();
         this.tenantLabel = configuration.getLabel();
         this.connection = configuration.getConnection();
         this.reporting = configuration.getReporting();
         this.persistence = configuration.getPersistence();
         this.tenantLabel = configuration.getLabel();
         initTimeouts();
-        initMqttClient();
-        initMqttSender(incomingQueue);
-        initMqttReceiver(incomingQueue);
+        callbackExecutor = new StripedExecutor("tb-callback-" + tenantLabel, connection.getCallbackThreads(), connection.getCallbackQueueSize());
+        qosPolicy = new QosPolicy(connection);
+        if (configuration.getDeadband() != null) {
+            telemetryFilter = new TelemetryFilter(configuration.getDeadband());
+        }
+        // also runs reconnect attempts of the sessions
         scheduler = Executors.newSingleThreadScheduledExecutor();
+        for (int i = 0; i < persistentFileServices.size(); i++) {
+            sessions.add(new MqttGatewaySession(i, persistentFileServices.get(i), this));
+        }
+        for (int i = 0; i < sessions.size(); i++) {
+            MqttGatewaySession session = sessions.get(i);
+            session.start(initMqttClient(session, i == 0), persistence, connection, qosPolicy, scheduler, latencyMetrics);
+        }
         scheduler.scheduleAtFixedRate(this::reportStats, 0, reporting.getInterval(), TimeUnit.MILLISECONDS);
     }
 
@@ -178,18 +206,45 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
         if (connection.getConnectionTimeout() == 0) {
             connection.setConnectionTimeout(DEFAULT_CONNECTION_TIMEOUT);
         }
+        if (connection.getMaxRetryInterval() == 0) {
+            connection.setMaxRetryInterval(Math.max(connection.getRetryInterval(), DEFAULT_MAX_RETRY_INTERVAL));
+        }
         if (persistence.getPollingInterval() == 0) {
             persistence.setPollingInterval(DEFAULT_POLLING_INTERVAL);
         }
+        if (connection.getCallbackThreads() == 0) {
+            connection.setCallbackThreads(DEFAULT_CALLBACK_THREADS);
+        }
+        if (connection.getCallbackQueueSize() == 0) {
+            connection.setCallbackQueueSize(DEFAULT_CALLBACK_QUEUE_SIZE);
+        }
+        if (persistence.getPriorityWeight() == 0) {
+            persistence.setPriorityWeight(DEFAULT_PRIORITY_WEIGHT);
+        }
+        if (persistence.getReplayMinRate() == 0) {
+            persistence.setReplayMinRate(DEFAULT_REPLAY_MIN_RATE);
+        }
+        if (persistence.getReplayMaxRate() == 0) {
+            persistence.setReplayMaxRate(DEFAULT_REPLAY_MAX_RATE);
+        }
+        if (persistence.getReplayTargetLatency() == 0) {
+            persistence.setReplayTargetLatency(DEFAULT_REPLAY_TARGET_LATENCY);
+        }
+        if (persistence.getPressureElevatedBacklog() == 0) {
+            persistence.setPressureElevatedBacklog((long) Math.max(persistence.getBufferSize(), 1) * DEFAULT_PRESSURE_ELEVATED_BUFFERS);
+        }
+        if (persistence.getPressureCriticalBacklog() == 0) {
+            persistence.setPressureCriticalBacklog((long) Math.max(persistence.getBufferSize(), 1) * DEFAULT_PRESSURE_CRITICAL_BUFFERS);
+        }
     }
 
     @Override
     public void destroy() throws Exception {
         scheduler.shutdownNow();
         callbackExecutor.shutdownNow();
-        mqttSenderExecutor.shutdownNow();
-        mqttReceiverExecutor.shutdownNow();
-        tbClient.disconnect();
+        for (MqttGatewaySession session : sessions) {
+            session.destroy();
+        }
     }
 
     @Override
@@ -197,15 +252,44 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
         return tenantLabel;
     }
 
+    @Override
+    public boolean isTelemetryFiltered() {
+        return telemetryFilter != null;
+    }
+
+    @Override
+    public PressureLevel getPressureLevel() {
+        long now = System.currentTimeMillis();
+        if (now - pressureCheckTime >= PRESSURE_CHECK_INTERVAL) {
+            pressureCheckTime = now;
+            long backlog = 0;
+            for (MqttGatewaySession session : sessions) {
+                backlog = Math.max(backlog, session.getPersistentFileService().getBacklogSize());
+            }
+            PressureLevel level;
+            if (backlog >= persistence.getPressureCriticalBacklog()) {
+                level = PressureLevel.CRITICAL;
+            } else if (backlog >= persistence.getPressureElevatedBacklog()) {
+                level = PressureLevel.ELEVATED;
+            } else {
+                level = PressureLevel.NONE;
+            }
+            if (level != pressureLevel) {
+                log.info("[{}] Uplink pressure changed from {} to {}, backlog {}", tenantLabel, pressureLevel, level, backlog);
+                pressureLevel = level;
+            }
+        }
+        return pressureLevel;
+    }
+
     @Override
     public MqttDeliveryFuture onDeviceConnect(final String deviceName, final String deviceType) {
         final int msgId = msgIdSeq.incrementAndGet();
         ObjectNode gwMsg = newNode().put("device", deviceName);
         gwMsg.put("type", deviceType);
-        byte[] msgData = toBytes(gwMsg);
         log.info("[{}] Device Connected!", deviceName);
         devices.putIfAbsent(deviceName, new DeviceInfo(deviceName, deviceType));
-        return persistMessage(GATEWAY_CONNECT_TOPIC, msgId, msgData, deviceName,
+        return persistMessage(GATEWAY_CONNECT_TOPIC, msgId, gwMsg, deviceName,
                 message -> {
                     log.info("[{}][{}][{}] Device connect event is reported to Thingsboard!", deviceName, deviceType, msgId);
                 },
@@ -217,7 +301,7 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
     public Optional<MqttDeliveryFuture> onDeviceDisconnect(String deviceName) {
         if (deviceName != null && devices.remove(deviceName) != null) {
             final int msgId = msgIdSeq.incrementAndGet();
-            byte[] msgData = toBytes(newNode().put("device", deviceName));
+            ObjectNode msgData = newNode().put("device", deviceName);
             log.info("[{}][{}] Device Disconnected!", deviceName, msgId);
             return Optional.ofNullable(persistMessage(GATEWAY_DISCONNECT_TOPIC, msgId, msgData, deviceName,
                     message -> {
@@ -239,7 +323,7 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
         ObjectNode deviceNode = node.putObject(deviceName);
         attributes.forEach(kv -> putToNode(deviceNode, kv));
         final int packSize = attributes.size();
-        return persistMessage(GATEWAY_ATTRIBUTES_TOPIC, msgId, toBytes(node), deviceName,
+        return persistMessage(GATEWAY_ATTRIBUTES_TOPIC, msgId, node, deviceName,
                 message -> {
                     log.debug("[{}][{}] Device attributes were delivered!", deviceName, msgId);
                     attributesCount.addAndGet(packSize);
@@ -252,6 +336,12 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
         final int msgId = msgIdSeq.incrementAndGet();
         log.trace("[{}][{}] Updating device telemetry: {}", deviceName, msgId, telemetry);
         checkDeviceConnected(deviceName);
+        if (telemetryFilter != null) {
+            telemetry = telemetryFilter.filter(deviceName, telemetry);
+            if (telemetry.isEmpty()) {
+                return MqttDeliveryFuture.filtered();
+            }
+        }
         ObjectNode node = newNode();
         Map<Long, List<TsKvEntry>> tsMap = telemetry.stream().collect(Collectors.groupingBy(TsKvEntry::getTs));
         ArrayNode deviceNode = node.putArray(deviceName);
@@ -263,7 +353,7 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
             kv.getValue().forEach(v -> putToNode(valuesNode, v));
         });
         final int packSize = telemetry.size();
-        return persistMessage(GATEWAY_TELEMETRY_TOPIC, msgId, toBytes(node), deviceName,
+        return persistMessage(GATEWAY_TELEMETRY_TOPIC, msgId, node, deviceName,
                 message -> {
                     log.debug("[{}][{}] Device telemetry published to ThingsBoard!", msgId, deviceName);
                     telemetryCount.addAndGet(packSize);
@@ -274,18 +364,32 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
 
     private MqttDeliveryFuture persistMessage(String topic,
                                               int msgId,
-                                              byte[] payload,
+                                              ObjectNode payload,
                                               String deviceId,
                                               Consumer<Void> onSuccess,
                                               Consumer<Throwable> onFailure) {
         try {
-            return persistentFileService.persistMessage(topic, msgId, payload, deviceId, onSuccess, onFailure);
+            MqttGatewaySession session = sessionFor(deviceId);
+            // loss tolerant messages skip the storage and delivery tracking
+            if (qosPolicy.getQos(topic, deviceId) == MqttQoS.AT_MOST_ONCE) {
+                // serialized straight into a pooled buffer that is handed over to the client
+                return session.publishAtMostOnce(topic, toByteBuf(ByteBufAllocator.DEFAULT, payload), onSuccess, onFailure);
+            }
+            return session.getPersistentFileService().persistMessage(topic, msgId, toBytes(payload), deviceId, onSuccess, onFailure);
         } catch (Throwable e) {
             log.error(e.getMessage(), e);
             throw new RuntimeException(e);
         }
     }
 
+    // messages of a device always go through the same session to keep their order
+    private MqttGatewaySession sessionFor(String deviceId) {
+        if (deviceId == null || GATEWAY.equals(deviceId) || sessions.size() == 1) {
+            return sessions.get(0);
+        }
+        return sessions.get((deviceId.hashCode() & Integer.MAX_VALUE) % sessions.size());
+    }
+
     @Override
     public void onDeviceAttributeRequest(AttributeRequest request, Consumer<AttributeResponse> listener) {
         final int msgId = msgIdSeq.incrementAndGet();
@@ -299,11 +403,8 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
         node.put("client", request.isClientScope());
         node.put("device", request.getDeviceName());
         node.put("key", request.getAttributeKey());
-        MqttMessage msg = new MqttMessage(toBytes(node));
-
-        msg.setId(msgId);
         pendingAttrRequestsMap.put(requestKey, new AttributeRequestListener(request, listener));
-        persistMessage(GATEWAY_REQUESTS_ATTRIBUTES_TOPIC, msgId, toBytes(node), deviceName,
+        persistMessage(GATEWAY_REQUESTS_ATTRIBUTES_TOPIC, msgId, node, deviceName,
                 message -> {
                     log.debug("[{}][{}] Device attributes request was delivered!", deviceName, msgId);
                 },
@@ -325,7 +426,7 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
         node.put("id", requestId);
         node.put("device", deviceName);
         node.put("data", data);
-        persistMessage(GATEWAY_RPC_TOPIC, msgId, toBytes(node), deviceName,
+        persistMessage(GATEWAY_RPC_TOPIC, msgId, node, deviceName,
                 token -> {
                     log.debug("[{}][{}] RPC response from device was delivered!", deviceName, requestId);
                 },
@@ -336,22 +437,22 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
 
     @Override
     public boolean subscribe(AttributesUpdateSubscription subscription) {
-        return subscribe(attributeUpdateSubs::add, subscription);
+        return subscribe(sub -> attributeUpdateSubs.add(sub.getDeviceNameFilter(), sub.getListener()), subscription);
     }
 
     @Override
     public boolean subscribe(RpcCommandSubscription subscription) {
-        return subscribe(rpcCommandSubs::add, subscription);
+        return subscribe(sub -> rpcCommandSubs.add(sub.getDeviceNameFilter(), sub.getListener()), subscription);
     }
 
     @Override
     public boolean unsubscribe(AttributesUpdateSubscription subscription) {
-        return unsubscribe(attributeUpdateSubs::remove, subscription);
+        return unsubscribe(sub -> attributeUpdateSubs.remove(sub.getDeviceNameFilter(), sub.getListener()), subscription);
     }
 
     @Override
     public boolean unsubscribe(RpcCommandSubscription subscription) {
-        return unsubscribe(rpcCommandSubs::remove, subscription);
+        return unsubscribe(sub -> rpcCommandSubs.remove(sub.getDeviceNameFilter(), sub.getListener()), subscription);
     }
 
     @Override
@@ -395,11 +496,19 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
             valuesNode.put("devicesOnline", devices.size());
             valuesNode.put("attributesUploaded", attributesCount.getAndSet(0));
             valuesNode.put("telemetryUploaded", telemetryCount.getAndSet(0));
+            valuesNode.put("callbacksOverflowed", callbackExecutor.pollOverflowed());
+            valuesNode.put("callbacksRejected", callbackExecutor.pollRejected());
+            valuesNode.put("pressureLevel", getPressureLevel().ordinal());
+            if (telemetryFilter != null) {
+                valuesNode.put("telemetryFiltered", telemetryFilter.pollFiltered());
+            }
+            pollSessionStatistics().forEach(valuesNode::put);
+            latencyMetrics.pollStatistics().forEach(valuesNode::put);
             if (error != null) {
                 valuesNode.put("latestError", JsonTools.toString(error));
                 error = null;
             }
-            persistMessage(DEVICE_TELEMETRY_TOPIC, msgIdSeq.incrementAndGet(), toBytes(node), GATEWAY,
+            persistMessage(DEVICE_TELEMETRY_TOPIC, msgIdSeq.incrementAndGet(), node, GATEWAY,
                     token -> log.info("Gateway statistics {} reported!", node),
                     error -> log.warn("Failed to report gateway statistics!", error));
         } catch (Throwable e) {
@@ -408,88 +517,117 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
     }
 
     @Override
-    public void onMessage(String topic, ByteBuf payload) {
-        String message = payload.toString(StandardCharsets.UTF_8);
-
-        log.trace("Message arrived [{}] {}", topic, message);
-        callbackExecutor.submit(() -> {
-            try {
-                if (topic.equals(GATEWAY_ATTRIBUTES_TOPIC)) {
-                    onAttributesUpdate(message);
-                } else if (topic.equals(GATEWAY_RESPONSES_ATTRIBUTES_TOPIC)) {
-                    onDeviceAttributesResponse(message);
-                } else if (topic.equals(GATEWAY_RPC_TOPIC)) {
-                    onRpcCommand(message);
-                } else if (topic.equals(DEVICE_ATTRIBUTES_TOPIC)) {
-                    onGatewayAttributesUpdate(message);
-                } else if (topic.equals(DEVICE_GET_ATTRIBUTES_RESPONSE_TOPIC)) {
-                    onGatewayAttributesGet(message);
-                }
-            } catch (Exception e) {
-                log.warn("Failed to process arrived message!", message);
-            }
-        });
-
+    public void recordLatency(String metric, long durationNanos) {
+        latencyMetrics.record(metric, durationNanos, TimeUnit.NANOSECONDS);
     }
 
     @Override
-    public void connectionLost(Throwable throwable) {
-        log.warn("Lost connection to ThingsBoard.");
-        pendingAttrRequestsMap.clear();
-        devices.clear();
+    public Map<String, Long> getLatencyStatistics() {
+        return latencyMetrics.getStatistics();
+    }
+
+    private Map<String, Long> pollSessionStatistics() {
+        Map<String, Long> statistics = new HashMap<>();
+        for (MqttGatewaySession session : sessions) {
+            session.pollStatistics().forEach((key, value) ->
+                    statistics.merge(key, value, REPLAY_ETA_STATISTIC.equals(key) ? Math::max : Long::sum));
+        }
+        return statistics;
     }
 
     @Override
-    public void onSuccessfulReconnect() {
+    public void onMessage(String topic, ByteBuf payload) {
+        if (log.isTraceEnabled()) {
+            log.trace("Message arrived [{}] {}", topic, payload.toString(StandardCharsets.UTF_8));
+        }
+        // the payload is released by the client once this method returns, so it is parsed right away
+        try {
+            String deviceName;
+            Runnable task;
+            // attribute updates of devices may be dropped while their stripe is full, the rest must not be lost
+            boolean droppable = false;
+            if (topic.equals(GATEWAY_ATTRIBUTES_TOPIC)) {
+                DeviceAttributesUpdate update = GatewayMessageParser.parseAttributesUpdate(payload);
+                deviceName = update.getDeviceName();
+                task = () -> onAttributesUpdate(update);
+                droppable = true;
+            } else if (topic.equals(GATEWAY_RESPONSES_ATTRIBUTES_TOPIC)) {
+                DeviceAttributesResponse response = GatewayMessageParser.parseAttributesResponse(payload);
+                deviceName = response.getDeviceName();
+                task = () -> onDeviceAttributesResponse(response);
+            } else if (topic.equals(GATEWAY_RPC_TOPIC)) {
+                DeviceRpcCommand command = GatewayMessageParser.parseRpcCommand(payload);
+                deviceName = command.getDeviceName();
+                task = () -> onRpcCommand(command);
+            } else if (topic.equals(DEVICE_ATTRIBUTES_TOPIC)) {
+                JsonNode json = GatewayMessageParser.parseTree(payload);
+                deviceName = GATEWAY;
+                task = () -> onGatewayAttributesUpdate(json);
+            } else if (topic.equals(DEVICE_GET_ATTRIBUTES_RESPONSE_TOPIC)) {
+                JsonNode json = GatewayMessageParser.parseTree(payload);
+                deviceName = GATEWAY;
+                task = () -> onGatewayAttributesGet(json);
+            } else {
+                return;
+            }
+            Runnable callback = () -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.warn("[{}] Failed to process arrived message!", topic, e);
+                }
+            };
+            // runs on the shared event loop of the MQTT client, so it never waits for queue space
+            boolean queued = droppable ? callbackExecutor.tryExecute(deviceName, callback)
+                    : callbackExecutor.executeOverflowing(deviceName, callback);
+            if (!queued) {
+                log.warn("[{}] Callback queue is full, dropping message [{}]", deviceName, topic);
+            }
+        } catch (Exception e) {
+            log.warn("[{}] Failed to parse arrived message!", topic, e);
+        }
+    }
 
+    // devices and attribute requests of the other sessions are not affected
+    void connectionLost(MqttGatewaySession session) {
+        pendingAttrRequestsMap.keySet().removeIf(key -> sessionFor(key.getDeviceName()) == session);
+        devices.keySet().removeIf(deviceName -> sessionFor(deviceName) == session);
     }
 
-    private void onAttributesUpdate(String message) {
-        JsonNode payload = fromString(message);
-        String deviceName = payload.get("device").asText();
-        Set<AttributesUpdateListener> listeners = attributeUpdateSubs.stream()
-                .filter(sub -> sub.matches(deviceName)).map(sub -> sub.getListener())
-                .collect(Collectors.toSet());
+    private void onAttributesUpdate(DeviceAttributesUpdate update) {
+        String deviceName = update.getDeviceName();
+        Set<AttributesUpdateListener> listeners = attributeUpdateSubs.match(deviceName);
         if (!listeners.isEmpty()) {
-            JsonNode data = payload.get("data");
-            List<KvEntry> attributes = getKvEntries(data);
-            listeners.forEach(listener -> callbackExecutor.submit(() -> {
+            List<KvEntry> attributes = update.getAttributes();
+            listeners.forEach(listener -> {
                 try {
                     listener.onAttributesUpdated(deviceName, attributes);
                 } catch (Exception e) {
                     log.error("[{}] Failed to process attributes update", deviceName, e);
                 }
-            }));
+            });
         }
     }
 
-    private void onRpcCommand(String message) {
-        JsonNode payload = fromString(message);
-        String deviceName = payload.get("device").asText();
-        Set<RpcCommandListener> listeners = rpcCommandSubs.stream()
-                .filter(sub -> sub.matches(deviceName)).map(RpcCommandSubscription::getListener)
-                .collect(Collectors.toSet());
+    private void onRpcCommand(DeviceRpcCommand command) {
+        String deviceName = command.getDeviceName();
+        Set<RpcCommandListener> listeners = rpcCommandSubs.match(deviceName);
         if (!listeners.isEmpty()) {
-            JsonNode data = payload.get("data");
-            RpcCommandData rpcCommand = new RpcCommandData();
-            rpcCommand.setRequestId(data.get("id").asInt());
-            rpcCommand.setMethod(data.get("method").asText());
-            rpcCommand.setParams(data.get("params").asText());
-            listeners.forEach(listener -> callbackExecutor.submit(() -> {
+            RpcCommandData rpcCommand = command.getCommand();
+            listeners.forEach(listener -> {
                 try {
                     listener.onRpcCommand(deviceName, rpcCommand);
                 } catch (Exception e) {
                     log.error("[{}][{}] Failed to process rpc command", deviceName, rpcCommand.getRequestId(), e);
                 }
-            }));
+            });
         } else {
             log.warn("No listener registered for RPC command to device {}!", deviceName);
         }
     }
 
-    private void onGatewayAttributesGet(String message) {
-        log.info("Configuration arrived! {}", message);
-        JsonNode payload = fromString(message);
+    private void onGatewayAttributesGet(JsonNode payload) {
+        log.info("Configuration arrived! {}", payload);
         if (payload.get("shared").get("configuration") != null) {
             String configuration = payload.get("shared").get("configuration").asText();
             if (!StringUtils.isEmpty(configuration)) {
@@ -498,9 +636,8 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
         }
     }
 
-    private void onGatewayAttributesUpdate(String message) {
-        log.info("Configuration updates arrived! {}", message);
-        JsonNode payload = fromString(message);
+    private void onGatewayAttributesUpdate(JsonNode payload) {
+        log.info("Configuration updates arrived! {}", payload);
         if (payload.has("configuration")) {
             String configuration = payload.get("configuration").asText();
             if (!StringUtils.isEmpty(configuration)) {
@@ -522,7 +659,7 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
 
     @Override
     public void onAppliedConfiguration(String configuration) {
-        byte[] msgData = toBytes(newNode().put("appliedConfiguration", configuration));
+        ObjectNode msgData = newNode().put("appliedConfiguration", configuration);
         persistMessage(DEVICE_ATTRIBUTES_TOPIC, msgIdSeq.incrementAndGet(), msgData, null, null,
                 error ->
                         log.warn("Could not publish applied configuration", error));
@@ -531,32 +668,31 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
     @Override
     public void onConfigurationError(Exception e, TbExtensionConfiguration configuration) {
         String id = configuration.getId();
-        byte[] msgDataError = toBytes(newNode().put(id + "ExtensionError", toString(e)));
+        ObjectNode msgDataError = newNode().put(id + "ExtensionError", toString(e));
         persistMessage(DEVICE_TELEMETRY_TOPIC, msgIdSeq.incrementAndGet(), msgDataError, null, null,
                 error -> log.warn("Could not report extension error", error));
 
-        byte[] msgDataStatus = toBytes(newNode().put(id + "ExtensionStatus", "Failure"));
+        ObjectNode msgDataStatus = newNode().put(id + "ExtensionStatus", "Failure");
         persistMessage(DEVICE_TELEMETRY_TOPIC, msgIdSeq.incrementAndGet(), msgDataStatus, null, null,
                 error -> log.warn("Could not report extension error status", error));
     }
 
     @Override
     public void onConfigurationStatus(String id, String status) {
-        byte[] extentionStatusData = toBytes(newNode().put(id + "ExtensionStatus", status));
+        ObjectNode extentionStatusData = newNode().put(id + "ExtensionStatus", status);
         persistMessage(DEVICE_TELEMETRY_TOPIC, msgIdSeq.incrementAndGet(), extentionStatusData, null,
                 message -> log.info("Reported status [{}] of extension [{}]", status, id),
                 error -> log.warn("Extension status reporting failed", error));
 
 
-        byte[] extentionErrorData = toBytes(newNode().put(id + "ExtensionError", ""));
+        ObjectNode extentionErrorData = newNode().put(id + "ExtensionError", "");
         persistMessage(DEVICE_TELEMETRY_TOPIC, msgIdSeq.incrementAndGet(), extentionErrorData, null,
                 null, error ->
                         log.warn("Extension error clearing failed", error));
     }
 
-    private void onDeviceAttributesResponse(String message) {
-        JsonNode payload = fromString(message);
-        AttributeRequestKey requestKey = new AttributeRequestKey(payload.get("id").asInt(), payload.get("device").asText());
+    private void onDeviceAttributesResponse(DeviceAttributesResponse payload) {
+        AttributeRequestKey requestKey = new AttributeRequestKey(payload.getRequestId(), payload.getDeviceName());
 
         AttributeRequestListener listener = pendingAttrRequestsMap.get(requestKey);
         if (listener == null) {
@@ -575,36 +711,18 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
         response.valueExpression(request.getValueExpression());
 
         String key = listener.getRequest().getAttributeKey();
-        JsonNode value = payload.get("value");
+        Object value = payload.getValue();
         if (value == null) {
             response.data(Optional.empty());
-        } else if (value.isBoolean()) {
-            response.data(Optional.of(new BooleanDataEntry(key, value.asBoolean())));
-        } else if (value.canConvertToLong()) {
-            response.data(Optional.of(new LongDataEntry(key, value.asLong())));
-        } else if (value.isDouble()) {
-            response.data(Optional.of(new DoubleDataEntry(key, value.asDouble())));
         } else {
-            response.data(Optional.of(new StringDataEntry(key, value.asText())));
+            response.data(Optional.of(toKvEntry(key, value)));
         }
 
-        callbackExecutor.submit(() -> {
-            try {
-                listener.getListener().accept(response.build());
-            } catch (Exception e) {
-                log.error("[{}][{}] Failed to process attributes response", requestKey.getDeviceName(), requestKey.getRequestId(), e);
-            }
-        });
-    }
-
-    private void initMqttSender(BlockingQueue<MessageFuturePair> incomingQueue) {
-        mqttSenderExecutor = Executors.newSingleThreadExecutor();
-        mqttSenderExecutor.submit(new MqttMessageSender(persistence, connection, tbClient, persistentFileService, incomingQueue));
-    }
-
-    private void initMqttReceiver(BlockingQueue<MessageFuturePair> incomingQueue) {
-        mqttReceiverExecutor = Executors.newSingleThreadExecutor();
-        mqttReceiverExecutor.submit(new MqttMessageReceiver(persistentFileService, incomingQueue, connection.getIncomingQueueWarningThreshold()));
+        try {
+            listener.getListener().accept(response.build());
+        } catch (Exception e) {
+            log.error("[{}][{}] Failed to process attributes response", requestKey.getDeviceName(), requestKey.getRequestId(), e);
+        }
     }
 
     private static String toString(Exception e) {
@@ -633,12 +751,16 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
         }
     }
 
-    private MqttClient initMqttClient() {
+    /**
+     * Connects a session client. Only the primary session subscribes to the gateway device topics and requests
+     * the shared configuration, all sessions subscribe to the gateway topics of the devices routed to them.
+     */
+    private MqttClient initMqttClient(MqttClientCallback callback, boolean primary) {
         try {
             MqttClientConfig mqttClientConfig = getMqttClientConfig();
             mqttClientConfig.setUsername(connection.getSecurity().getAccessToken());
-            tbClient = MqttClient.create(mqttClientConfig, this);
-            tbClient.setCallback(this);
+            MqttClient tbClient = MqttClient.create(mqttClientConfig, this);
+            tbClient.setCallback(callback);
             tbClient.setEventLoop(nioEventLoopGroup);
             Promise<MqttConnectResult> connectResult = (Promise<MqttConnectResult>) tbClient.connect(connection.getHost(), connection.getPort());
             connectResult.addListener(future -> {
@@ -655,17 +777,21 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
             connectResult.get(connection.getConnectionTimeout(), TimeUnit.MILLISECONDS);
 
 
-            tbClient.on(DEVICE_ATTRIBUTES_TOPIC, this).await(connection.getConnectionTimeout(), TimeUnit.MILLISECONDS);
-            tbClient.on(DEVICE_GET_ATTRIBUTES_RESPONSE_PLUS_TOPIC, this).await(connection.getConnectionTimeout(), TimeUnit.MILLISECONDS);
+            if (primary) {
+                tbClient.on(DEVICE_ATTRIBUTES_TOPIC, this).await(connection.getConnectionTimeout(), TimeUnit.MILLISECONDS);
+                tbClient.on(DEVICE_GET_ATTRIBUTES_RESPONSE_PLUS_TOPIC, this).await(connection.getConnectionTimeout(), TimeUnit.MILLISECONDS);
+            }
 
             tbClient.on(GATEWAY_RESPONSES_ATTRIBUTES_TOPIC, this).await(connection.getConnectionTimeout(), TimeUnit.MILLISECONDS);
             tbClient.on(GATEWAY_ATTRIBUTES_TOPIC, this).await(connection.getConnectionTimeout(), TimeUnit.MILLISECONDS);
             tbClient.on(GATEWAY_RPC_TOPIC, this).await(connection.getConnectionTimeout(), TimeUnit.MILLISECONDS);
 
-            byte[] msgData = toBytes(newNode().put("sharedKeys", "configuration"));
-            persistMessage(DEVICE_GET_ATTRIBUTES_REQUEST_TOPIC, msgIdSeq.incrementAndGet(), msgData, null,
-                    null,
-                    error -> log.warn("Error getiing attributes", error));
+            if (primary) {
+                ObjectNode msgData = newNode().put("sharedKeys", "configuration");
+                persistMessage(DEVICE_GET_ATTRIBUTES_REQUEST_TOPIC, msgIdSeq.incrementAndGet(), msgData, null,
+                        null,
+                        error -> log.warn("Error getiing attributes", error));
+            }
             return tbClient;
         } catch (InterruptedException e) {
             log.error(e.getMessage(), e);
@@ -745,7 +871,7 @@ public class MqttGatewayService implements GatewayService, MqttHandler, MqttClie
         return SslContextBuilder.forClient().keyManager(kmf).trustManager(tmf).build();
     }
 
-    public void setPersistentFileService(PersistentFileService persistentFileService) {
-        this.persistentFileService = persistentFileService;
+    public void setPersistentFileServices(List<PersistentFileService> persistentFileServices) {
+        this.persistentFileServices = persistentFileServices;
     }
 }
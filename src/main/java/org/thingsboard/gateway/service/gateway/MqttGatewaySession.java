@@ -0,0 +1,156 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service.gateway;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.gateway.service.MessageFuturePair;
+import org.thingsboard.gateway.service.MqttDeliveryFuture;
+import org.thingsboard.gateway.service.MqttMessageReceiver;
+import org.thingsboard.gateway.service.MqttMessageSender;
+import org.thingsboard.gateway.service.PersistentFileService;
+import org.thingsboard.gateway.service.QosPolicy;
+import org.thingsboard.gateway.service.ReconnectManager;
+import org.thingsboard.gateway.service.conf.TbConnectionConfiguration;
+import org.thingsboard.gateway.service.conf.TbPersistenceConfiguration;
+import org.thingsboard.gateway.util.LatencyMetrics;
+import org.thingsboard.mqtt.MqttClient;
+import org.thingsboard.mqtt.MqttClientCallback;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * One MQTT connection of a gateway to ThingsBoard with its own storage, sender and receiver.
+ * Sessions are connected and reconnected independently of each other.
+ */
+@Slf4j
+class MqttGatewaySession implements MqttClientCallback {
+
+    private final int index;
+    private final PersistentFileService persistentFileService;
+    private final MqttGatewayService gateway;
+
+    private MqttClient tbClient;
+    private ExecutorService mqttSenderExecutor;
+    private MqttMessageSender mqttSender;
+    private ExecutorService mqttReceiverExecutor;
+    private final AtomicLong atMostOncePublished = new AtomicLong();
+    private final AtomicLong atMostOnceDropped = new AtomicLong();
+
+    MqttGatewaySession(int index, PersistentFileService persistentFileService, MqttGatewayService gateway) {
+        this.index = index;
+        this.persistentFileService = persistentFileService;
+        this.gateway = gateway;
+    }
+
+    void start(MqttClient tbClient, TbPersistenceConfiguration persistence, TbConnectionConfiguration connection,
+               QosPolicy qosPolicy, ScheduledExecutorService scheduler, LatencyMetrics latencyMetrics) {
+        this.tbClient = tbClient;
+        BlockingQueue<MessageFuturePair> incomingQueue = new LinkedBlockingQueue<>();
+        ReconnectManager reconnectManager = new ReconnectManager(tbClient, scheduler, connection.getRetryInterval(),
+                connection.getMaxRetryInterval(), connection.getConnectionTimeout());
+        mqttSenderExecutor = Executors.newSingleThreadExecutor();
+        mqttSender = new MqttMessageSender(persistence, tbClient, persistentFileService, incomingQueue, qosPolicy, reconnectManager,
+                latencyMetrics);
+        mqttSenderExecutor.submit(mqttSender);
+        mqttReceiverExecutor = Executors.newSingleThreadExecutor();
+        mqttReceiverExecutor.submit(new MqttMessageReceiver(persistentFileService, incomingQueue, connection.getIncomingQueueWarningThreshold()));
+    }
+
+    /**
+     * Publishes the message right away with {@link MqttQoS#AT_MOST_ONCE}, bypassing the storage and the sender.
+     * Messages are dropped while the session is disconnected. Takes over the payload buffer.
+     */
+    MqttDeliveryFuture publishAtMostOnce(String topic, ByteBuf payload, Consumer<Void> onSuccess, Consumer<Throwable> onFailure) {
+        MqttDeliveryFuture future = new MqttDeliveryFuture();
+        if (!tbClient.isConnected()) {
+            payload.release();
+            atMostOnceDropped.incrementAndGet();
+            future.complete(false);
+            if (onFailure != null) {
+                onFailure.accept(new IllegalStateException("Session [" + index + "] is disconnected!"));
+            }
+            return future;
+        }
+        tbClient.publish(topic, payload, MqttQoS.AT_MOST_ONCE).addListener(result -> {
+            if (result.isSuccess()) {
+                atMostOncePublished.incrementAndGet();
+                future.complete(true);
+                if (onSuccess != null) {
+                    onSuccess.accept(null);
+                }
+            } else {
+                atMostOnceDropped.incrementAndGet();
+                future.complete(false);
+                if (onFailure != null) {
+                    onFailure.accept(result.cause());
+                }
+            }
+        });
+        return future;
+    }
+
+    void destroy() throws Exception {
+        if (mqttSenderExecutor != null) {
+            mqttSenderExecutor.shutdownNow();
+            mqttReceiverExecutor.shutdownNow();
+        }
+        if (tbClient != null) {
+            tbClient.disconnect();
+        }
+        persistentFileService.destroy();
+    }
+
+    MqttClient getClient() {
+        return tbClient;
+    }
+
+    PersistentFileService getPersistentFileService() {
+        return persistentFileService;
+    }
+
+    Map<String, Long> pollStatistics() {
+        Map<String, Long> statistics = new HashMap<>(persistentFileService.getStatistics());
+        if (mqttSender != null) {
+            statistics.putAll(mqttSender.pollStatistics());
+        }
+        statistics.put("qos0Published", atMostOncePublished.getAndSet(0));
+        statistics.put("qos0Dropped", atMostOnceDropped.getAndSet(0));
+        return statistics;
+    }
+
+    @Override
+    public void connectionLost(Throwable throwable) {
+        log.warn("Session [{}] lost connection to ThingsBoard.", index);
+        persistentFileService.onConnectionStateChanged(false);
+        gateway.connectionLost(this);
+    }
+
+    @Override
+    public void onSuccessfulReconnect() {
+        log.info("Session [{}] reconnected to ThingsBoard.", index);
+        persistentFileService.onConnectionStateChanged(true);
+    }
+}
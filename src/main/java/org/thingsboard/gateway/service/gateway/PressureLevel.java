@@ -0,0 +1,37 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service.gateway;
+
+/**
+ * Pressure of the uplink to Thingsboard, derived from the backlog of messages waiting to be sent.
+ */
+public enum PressureLevel {
+
+    NONE(1), ELEVATED(2), CRITICAL(4);
+
+    private final int pollStretch;
+
+    PressureLevel(int pollStretch) {
+        this.pollStretch = pollStretch;
+    }
+
+    /**
+     * @return factor periodic producers should stretch their period by
+     */
+    public int getPollStretch() {
+        return pollStretch;
+    }
+}
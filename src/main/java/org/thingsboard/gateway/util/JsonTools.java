@@ -15,15 +15,20 @@
  */
 package org.thingsboard.gateway.util;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
 import org.thingsboard.server.common.data.kv.*;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
 import java.util.*;
 
 /**
@@ -38,7 +43,25 @@ public class JsonTools {
     }
 
     public static byte[] toBytes(ObjectNode node) {
-        return toString(node).getBytes(StandardCharsets.UTF_8);
+        try {
+            return JSON.writeValueAsBytes(node);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the node as UTF-8 straight into a new buffer of the allocator, which is owned by the caller.
+     */
+    public static ByteBuf toByteBuf(ByteBufAllocator allocator, JsonNode node) {
+        ByteBuf buf = allocator.ioBuffer();
+        try {
+            JSON.writeValue(new ByteBufOutputStream(buf), node);
+            return buf;
+        } catch (IOException e) {
+            buf.release();
+            throw new RuntimeException(e);
+        }
     }
 
     public static JsonNode fromString(String data) {
@@ -49,6 +72,18 @@ public class JsonTools {
         }
     }
 
+    public static JsonParser createParser(byte[] data, int offset, int length) throws IOException {
+        return JSON.getFactory().createParser(data, offset, length);
+    }
+
+    public static JsonParser createParser(InputStream in) throws IOException {
+        return JSON.getFactory().createParser(in);
+    }
+
+    public static JsonNode readTree(JsonParser parser) throws IOException {
+        return JSON.readTree(parser);
+    }
+
     public static <T> T fromString(String data, TypeReference<T> type) {
         try {
             return JSON.readValue(data, type);
@@ -108,4 +143,74 @@ public class JsonTools {
         }
         return attributes;
     }
+
+    /**
+     * Streaming counterpart of {@link #getKvEntries(JsonNode)}, starting at the current token of the parser.
+     */
+    public static List<KvEntry> getKvEntries(JsonParser parser) throws IOException {
+        List<KvEntry> attributes = new ArrayList<>();
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return attributes;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            parser.nextToken();
+            attributes.add(toKvEntry(key, getValue(parser)));
+        }
+        return attributes;
+    }
+
+    /**
+     * Reads the current value as Boolean, Long, Double or String, following the rules of {@link #getKvEntries(JsonNode)}.
+     */
+    public static Object getValue(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NUMBER_INT:
+                if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                    return parser.getText();
+                }
+                return parser.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                double value = parser.getDoubleValue();
+                if (value >= Long.MIN_VALUE && value <= Long.MAX_VALUE) {
+                    return (long) value;
+                }
+                return value;
+            default:
+                return getText(parser);
+        }
+    }
+
+    /**
+     * Reads the current value as text the way {@link JsonNode#asText()} does: empty for objects and arrays.
+     */
+    public static String getText(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case START_OBJECT:
+            case START_ARRAY:
+                parser.skipChildren();
+                return "";
+            case VALUE_NULL:
+                return "null";
+            default:
+                return parser.getText();
+        }
+    }
+
+    public static KvEntry toKvEntry(String key, Object value) {
+        if (value instanceof Boolean) {
+            return new BooleanDataEntry(key, (Boolean) value);
+        } else if (value instanceof Long) {
+            return new LongDataEntry(key, (Long) value);
+        } else if (value instanceof Double) {
+            return new DoubleDataEntry(key, (Double) value);
+        } else {
+            return new StringDataEntry(key, String.valueOf(value));
+        }
+    }
 }
@@ -0,0 +1,114 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets in microseconds.
+ * <p>
+ * Every power of two is split into {@value #SUB_BUCKETS} linear buckets, so recorded values keep a precision of about
+ * 3% from one microsecond up to about twelve days. Larger values go into the last bucket.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_VALUE_BITS = 40;
+    private static final int BUCKETS = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    // in tenths of a percent, so ranks are computed without rounding errors
+    private static final long[] PERCENTILES = {500, 900, 990, 999};
+    private static final String[] PERCENTILE_NAMES = {"P50", "P90", "P99", "P999"};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long duration, TimeUnit unit) {
+        counts.incrementAndGet(indexOf(Math.max(0, unit.toMicros(duration))));
+    }
+
+    /**
+     * @return count, percentiles and max in microseconds recorded since the previous poll, the histogram is reset
+     */
+    public Map<String, Long> pollStatistics(String prefix) {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.getAndSet(i, 0);
+        }
+        return toStatistics(prefix, snapshot);
+    }
+
+    /**
+     * @return count, percentiles and max in microseconds recorded since the previous poll
+     */
+    public Map<String, Long> getStatistics(String prefix) {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return toStatistics(prefix, snapshot);
+    }
+
+    private static Map<String, Long> toStatistics(String prefix, long[] snapshot) {
+        long total = 0;
+        int maxIndex = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (snapshot[i] > 0) {
+                total += snapshot[i];
+                maxIndex = i;
+            }
+        }
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put(prefix + "Count", total);
+        if (total == 0) {
+            return statistics;
+        }
+        int p = 0;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && p < PERCENTILES.length; i++) {
+            seen += snapshot[i];
+            while (p < PERCENTILES.length && seen >= (total * PERCENTILES[p] + 999) / 1000) {
+                statistics.put(prefix + PERCENTILE_NAMES[p], highestValueOf(i));
+                p++;
+            }
+        }
+        statistics.put(prefix + "Max", highestValueOf(maxIndex));
+        return statistics;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_VALUE_BITS) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (index - shift * SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
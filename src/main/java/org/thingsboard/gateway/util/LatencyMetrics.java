@@ -0,0 +1,55 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Named latency histograms, created on first use. Statistics keys are the histogram name followed by "Latency" and
+ * the statistic, for example "publishToAckLatencyP99". Latencies are in microseconds.
+ */
+public class LatencyMetrics {
+
+    private static final String LATENCY = "Latency";
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    public void record(String name, long duration, TimeUnit unit) {
+        histograms.computeIfAbsent(name, n -> new LatencyHistogram()).record(duration, unit);
+    }
+
+    /**
+     * @return statistics of all histograms since the previous poll, the histograms are reset
+     */
+    public Map<String, Long> pollStatistics() {
+        Map<String, Long> statistics = new TreeMap<>();
+        histograms.forEach((name, histogram) -> statistics.putAll(histogram.pollStatistics(name + LATENCY)));
+        return statistics;
+    }
+
+    /**
+     * @return statistics of all histograms since the previous poll
+     */
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new TreeMap<>();
+        histograms.forEach((name, histogram) -> statistics.putAll(histogram.getStatistics(name + LATENCY)));
+        return statistics;
+    }
+}
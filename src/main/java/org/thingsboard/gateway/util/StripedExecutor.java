@@ -0,0 +1,226 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on a fixed number of single-threaded stripes with bounded queues.
+ * Tasks submitted with equal keys always run on the same stripe, in submission order.
+ * <p>
+ * Tasks that must not be lost can be queued past the capacity with {@link #executeOverflowing(Object, Runnable)},
+ * so producers that must never block don't have to drop them.
+ */
+@Slf4j
+public class StripedExecutor {
+
+    private final String name;
+    private final BlockingQueue<Runnable>[] queues;
+    // free places of the bounded part of each queue
+    private final Semaphore[] capacities;
+    private final Thread[] workers;
+    private final AtomicLong producerWaits = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+
+    private volatile boolean stopped;
+
+    @SuppressWarnings("unchecked")
+    public StripedExecutor(String name, int stripes, int queueCapacity) {
+        if (stripes <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Stripes and queue capacity must be positive!");
+        }
+        this.name = name;
+        this.queues = new BlockingQueue[stripes];
+        this.capacities = new Semaphore[stripes];
+        this.workers = new Thread[stripes];
+        for (int i = 0; i < stripes; i++) {
+            BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+            Semaphore capacity = new Semaphore(queueCapacity);
+            queues[i] = queue;
+            capacities[i] = capacity;
+            workers[i] = new Thread(() -> runStripe(queue, capacity), name + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queues the task on the stripe of the given key, waiting for space if that stripe is full.
+     */
+    public void execute(Object key, Runnable task) throws InterruptedException {
+        int stripe = stripeOf(key);
+        if (!capacities[stripe].tryAcquire()) {
+            producerWaits.incrementAndGet();
+            capacities[stripe].acquire();
+        }
+        queues[stripe].add(task);
+    }
+
+    /**
+     * Queues the task on the stripe of the given key without waiting.
+     *
+     * @return false if the stripe is full and the task was rejected
+     */
+    public boolean tryExecute(Object key, Runnable task) {
+        int stripe = stripeOf(key);
+        if (stopped || !capacities[stripe].tryAcquire()) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        queues[stripe].add(task);
+        return true;
+    }
+
+    /**
+     * Queues the task on the stripe of the given key, waiting up to the timeout if that stripe is full.
+     *
+     * @return false if the stripe stayed full and the task was rejected
+     */
+    public boolean tryExecute(Object key, Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        if (stopped) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        int stripe = stripeOf(key);
+        if (!capacities[stripe].tryAcquire()) {
+            producerWaits.incrementAndGet();
+            if (!capacities[stripe].tryAcquire(timeout, unit)) {
+                rejected.incrementAndGet();
+                return false;
+            }
+        }
+        queues[stripe].add(task);
+        return true;
+    }
+
+    /**
+     * Queues the task on the stripe of the given key without waiting, past the queue capacity if that stripe is full.
+     *
+     * @return false if the executor is stopped
+     */
+    public boolean executeOverflowing(Object key, Runnable task) {
+        if (stopped) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        int stripe = stripeOf(key);
+        if (capacities[stripe].tryAcquire()) {
+            queues[stripe].add(task);
+        } else {
+            overflowed.incrementAndGet();
+            queues[stripe].add(new OverflowTask(task));
+        }
+        return true;
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (BlockingQueue<Runnable> queue : queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    public int getMaxStripeDepth() {
+        int max = 0;
+        for (BlockingQueue<Runnable> queue : queues) {
+            max = Math.max(max, queue.size());
+        }
+        return max;
+    }
+
+    /**
+     * @return number of submissions that had to wait for a full stripe since the previous call
+     */
+    public long pollProducerWaits() {
+        return producerWaits.getAndSet(0);
+    }
+
+    /**
+     * @return number of tasks rejected by the tryExecute methods since the previous call
+     */
+    public long pollRejected() {
+        return rejected.getAndSet(0);
+    }
+
+    /**
+     * @return number of tasks queued past the capacity of their stripe since the previous call
+     */
+    public long pollOverflowed() {
+        return overflowed.getAndSet(0);
+    }
+
+    public void shutdownNow() {
+        stopped = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        // frees the places of dropped tasks, so producers waiting for space are not stuck
+        for (int i = 0; i < queues.length; i++) {
+            Runnable task;
+            while ((task = queues[i].poll()) != null) {
+                if (!(task instanceof OverflowTask)) {
+                    capacities[i].release();
+                }
+            }
+        }
+    }
+
+    private int stripeOf(Object key) {
+        int h = key != null ? key.hashCode() : 0;
+        h ^= (h >>> 16);
+        return (h & Integer.MAX_VALUE) % queues.length;
+    }
+
+    private void runStripe(BlockingQueue<Runnable> queue, Semaphore capacity) {
+        while (!stopped) {
+            try {
+                Runnable task = queue.take();
+                if (!(task instanceof OverflowTask)) {
+                    capacity.release();
+                }
+                task.run();
+            } catch (InterruptedException e) {
+                log.trace("[{}] Worker interrupted", name);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                log.error("[{}] Task failed", name, e);
+            }
+        }
+    }
+
+    // takes no place of the bounded part of the queue
+    private static class OverflowTask implements Runnable {
+        private final Runnable task;
+
+        private OverflowTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
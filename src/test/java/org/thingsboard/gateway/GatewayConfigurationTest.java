@@ -0,0 +1,92 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.thingsboard.gateway.service.conf.TbPersistenceConfiguration;
+import org.thingsboard.gateway.service.conf.TbTenantConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+import static org.junit.Assert.*;
+
+public class GatewayConfigurationTest {
+
+    private File dir;
+    private TbTenantConfiguration configuration;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("tb-gateway-sessions").toFile();
+        TbPersistenceConfiguration persistence = new TbPersistenceConfiguration();
+        persistence.setPath(dir.getAbsolutePath());
+        configuration = new TbTenantConfiguration();
+        configuration.setLabel("Tenant A");
+        configuration.setPersistence(persistence);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        Files.walk(dir.toPath()).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    @Test
+    public void shouldStartWithStorageOfConfiguredSessions() throws IOException {
+        storeMessages("Tenant_A");
+        storeMessages("Tenant_A-1");
+        GatewayConfiguration.checkRemovedSessionsStorage(configuration, 2);
+    }
+
+    @Test
+    public void shouldStartWithEmptyStorageOfRemovedSessions() {
+        new File(dir, "Tenant_A-1").mkdirs();
+        new File(dir, "Tenant_A-2").mkdirs();
+        GatewayConfiguration.checkRemovedSessionsStorage(configuration, 1);
+    }
+
+    @Test
+    public void shouldIgnoreStorageOfOtherTenants() throws IOException {
+        storeMessages("Tenant_B-1");
+        storeMessages("Tenant_A-backup");
+        GatewayConfiguration.checkRemovedSessionsStorage(configuration, 1);
+    }
+
+    @Test
+    public void shouldRefuseToStartWithStoredMessagesOfRemovedSessions() throws IOException {
+        storeMessages("Tenant_A-1");
+        storeMessages("Tenant_A-3");
+        try {
+            GatewayConfiguration.checkRemovedSessionsStorage(configuration, 1);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains(new File(dir, "Tenant_A-1").getAbsolutePath()));
+            assertTrue(e.getMessage().contains(new File(dir, "Tenant_A-3").getAbsolutePath()));
+            assertTrue(e.getMessage().contains("Set connection.sessions to 4"));
+        }
+    }
+
+    private void storeMessages(String storageDir) throws IOException {
+        File sessionDir = new File(dir, storageDir);
+        sessionDir.mkdirs();
+        Files.write(new File(sessionDir, "tb-gateway-storage-1").toPath(), new byte[]{1});
+    }
+}
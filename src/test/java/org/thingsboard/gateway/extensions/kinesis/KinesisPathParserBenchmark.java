@@ -0,0 +1,96 @@
+package org.thingsboard.gateway.extensions.kinesis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Compares the cached path parser with the string operations Kinesis used to
+ * run for every record, over the sample stream in kinesis/sample-stream.json.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.thingsboard.gateway.extensions.kinesis.KinesisPathParserBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+public class KinesisPathParserBenchmark {
+    private static final String SAMPLE_STREAM = "/kinesis/sample-stream.json";
+
+
+    private KinesisMessage[] records;
+    private KinesisPathParser parser;
+
+
+    @Setup
+    public void setup() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+        try (InputStream in = KinesisPathParserBenchmark.class.getResourceAsStream(SAMPLE_STREAM)) {
+            records = mapper.readValue(in, KinesisMessage[].class);
+        }
+
+        parser = new KinesisPathParser();
+    }
+
+
+    @Benchmark
+    public void parser(Blackhole blackhole) {
+        for (KinesisMessage message : records) {
+            KinesisPathParser.ParsedPath path = parser.parse(message.analyticsId, message.path);
+            blackhole.consume(path.getDevice());
+            blackhole.consume(path.getVariable());
+        }
+    }
+
+
+    @Benchmark
+    public void stringOperations(Blackhole blackhole) {
+        for (KinesisMessage message : records) {
+            if (message.path == null || message.path.isEmpty() || message.path.indexOf("Devices") != 0) {
+                continue;
+            }
+            if (message.path.contains("variables")) {
+                String variable = message.path.substring(message.path.indexOf("/variables/") + 11);
+                String device = message.analyticsId + "/" + message.path.replace("/variables/" + variable, "");
+                blackhole.consume(device);
+                blackhole.consume(variable);
+            } else if (message.path.contains("events")) {
+                boolean validDevice = message.path.contains("Bridges") || message.path.contains("Servers");
+                if (validDevice && message.path.contains(Kinesis.EVENTS_STARTED_PATH)) {
+                    blackhole.consume(message.analyticsId + "/" + message.path.replace(Kinesis.EVENTS_STARTED_PATH, ""));
+                }
+            }
+        }
+    }
+
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(KinesisPathParserBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,161 @@
+package org.thingsboard.gateway.extensions.kinesis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.thingsboard.gateway.extensions.kinesis.KinesisPathParser.Kind;
+import org.thingsboard.gateway.extensions.kinesis.KinesisPathParser.ParsedPath;
+
+
+
+public class KinesisPathParserTest {
+    private static final String ANALYTICS_ID = "58ac4b889058c24616a43b3b";
+
+    private static final String VARIABLE_PATH = "Devices/Living Room/Dimmer/variables/level";
+    private static final String OTHER_VARIABLE_PATH = "Devices/Living Room/Dimmer/variables/power";
+    private static final String BRIDGES_STARTED_PATH = "Devices/Living Room/Controller/Bridges/Zwave/events/started";
+    private static final String SERVERS_STARTED_PATH = "Devices/Controller/Servers/Http/events/started";
+
+
+    private KinesisPathParser parser = null;
+
+
+    @Before
+    public void setup() {
+        parser = new KinesisPathParser();
+    }
+
+
+    @Test
+    public void shouldIgnoreNullPath() {
+        assertEquals(Kind.NONE, parser.parse(ANALYTICS_ID, null).getKind());
+    }
+
+
+    @Test
+    public void shouldIgnoreEmptyPath() {
+        assertEquals(Kind.NONE, parser.parse(ANALYTICS_ID, "").getKind());
+    }
+
+
+    @Test
+    public void shouldIgnoreNonDevicePath() {
+        assertEquals(Kind.NONE, parser.parse(ANALYTICS_ID, "Rooms/Living Room/variables/level").getKind());
+    }
+
+
+    @Test
+    public void shouldIgnoreDevicePathWithoutVariablesOrEvents() {
+        assertEquals(Kind.NONE, parser.parse(ANALYTICS_ID, "Devices/Living Room/Dimmer").getKind());
+    }
+
+
+    @Test
+    public void shouldParseVariablePath() {
+        ParsedPath path = parser.parse(ANALYTICS_ID, VARIABLE_PATH);
+
+        assertEquals(Kind.VARIABLE, path.getKind());
+        assertEquals(ANALYTICS_ID + "/Devices/Living Room/Dimmer", path.getDevice());
+        assertEquals("level", path.getVariable());
+    }
+
+
+    @Test
+    public void shouldKeepNestedVariableName() {
+        ParsedPath path = parser.parse(ANALYTICS_ID, "Devices/Dimmer/variables/level/target");
+
+        assertEquals(Kind.VARIABLE, path.getKind());
+        assertEquals(ANALYTICS_ID + "/Devices/Dimmer", path.getDevice());
+        assertEquals("level/target", path.getVariable());
+    }
+
+
+    @Test
+    public void shouldIgnoreTrailingVariablesSegment() {
+        assertEquals(Kind.NONE, parser.parse(ANALYTICS_ID, "Devices/variables").getKind());
+    }
+
+
+    @Test
+    public void shouldUseNullAnalyticsIdLikeStringConcatenation() {
+        ParsedPath path = parser.parse(null, VARIABLE_PATH);
+
+        assertEquals("null/Devices/Living Room/Dimmer", path.getDevice());
+    }
+
+
+    @Test
+    public void shouldParseBridgesStartedEvent() {
+        ParsedPath path = parser.parse(ANALYTICS_ID, BRIDGES_STARTED_PATH);
+
+        assertEquals(Kind.STARTED_EVENT, path.getKind());
+        assertEquals(ANALYTICS_ID + "/Devices/Living Room/Controller/Bridges/Zwave", path.getDevice());
+        assertNull(path.getVariable());
+    }
+
+
+    @Test
+    public void shouldParseServersStartedEvent() {
+        ParsedPath path = parser.parse(ANALYTICS_ID, SERVERS_STARTED_PATH);
+
+        assertEquals(Kind.STARTED_EVENT, path.getKind());
+        assertEquals(ANALYTICS_ID + "/Devices/Controller/Servers/Http", path.getDevice());
+    }
+
+
+    @Test
+    public void shouldStripStartedEventInTheMiddleOfPath() {
+        ParsedPath path = parser.parse(ANALYTICS_ID, "Devices/Bridges/events/started/foobar");
+
+        assertEquals(Kind.STARTED_EVENT, path.getKind());
+        assertEquals(ANALYTICS_ID + "/Devices/Bridges/foobar", path.getDevice());
+    }
+
+
+    @Test
+    public void shouldTreatStartedEventOfOtherDevicesAsPlainEvent() {
+        assertEquals(Kind.EVENT, parser.parse(ANALYTICS_ID, "Devices/Dimmer/events/started").getKind());
+    }
+
+
+    @Test
+    public void shouldTreatOtherEventsAsPlainEvent() {
+        assertEquals(Kind.EVENT, parser.parse(ANALYTICS_ID, "Devices/Bridges/Zwave/events/stopped").getKind());
+    }
+
+
+    @Test
+    public void shouldReturnCachedResultForSamePath() {
+        ParsedPath first = parser.parse(ANALYTICS_ID, VARIABLE_PATH);
+        ParsedPath second = parser.parse(ANALYTICS_ID, new String(VARIABLE_PATH));
+
+        assertSame(first, second);
+    }
+
+
+    @Test
+    public void shouldShareDeviceNameAcrossVariables() {
+        ParsedPath level = parser.parse(ANALYTICS_ID, VARIABLE_PATH);
+        ParsedPath power = parser.parse(ANALYTICS_ID, OTHER_VARIABLE_PATH);
+
+        assertSame(level.getDevice(), power.getDevice());
+    }
+
+
+    @Test
+    public void shouldKeepCacheBounded() {
+        KinesisPathParser boundedParser = new KinesisPathParser(4);
+
+        for (int i = 0; i < 20; i++) {
+            boundedParser.parse(ANALYTICS_ID, VARIABLE_PATH + i);
+        }
+
+        assertTrue(boundedParser.getCacheSize() <= 4);
+        assertEquals("level19", boundedParser.parse(ANALYTICS_ID, VARIABLE_PATH + 19).getVariable());
+    }
+}
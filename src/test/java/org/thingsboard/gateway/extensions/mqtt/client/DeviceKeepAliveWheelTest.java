@@ -0,0 +1,166 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.extensions.mqtt.client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class DeviceKeepAliveWheelTest {
+
+    private static final long TICK = 10;
+    // one turn of the wheel takes 80 ms
+    private static final int WHEEL_SIZE = 8;
+
+    private List<String> expired;
+    private Map<String, Long> expiryTimes;
+    private DeviceKeepAliveWheel wheel;
+
+    @Before
+    public void setup() {
+        expired = Collections.synchronizedList(new ArrayList<>());
+        expiryTimes = new ConcurrentHashMap<>();
+        wheel = new DeviceKeepAliveWheel(TICK, WHEEL_SIZE, deviceName -> {
+            expired.add(deviceName);
+            expiryTimes.put(deviceName, System.currentTimeMillis());
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectWheelSizeNotPowerOfTwo() {
+        new DeviceKeepAliveWheel(TICK, 6, deviceName -> {
+        });
+    }
+
+    @Test
+    public void shouldExpireAtDeadline() throws InterruptedException {
+        long touched = System.currentTimeMillis();
+        wheel.touch("A", 50);
+        assertEquals(1, wheel.size());
+
+        tickFor(400);
+        assertEquals(Collections.singletonList("A"), expired);
+        long waited = expiryTimes.get("A") - touched;
+        assertTrue("Expired after " + waited, waited >= 50 && waited < 300);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void shouldRearmOnTouch() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 300;
+        wheel.touch("A", 60);
+        while (System.currentTimeMillis() < deadline) {
+            wheel.touch("A", 60);
+            wheel.tick();
+            Thread.sleep(TICK);
+        }
+        assertTrue(expired.isEmpty());
+
+        long touched = System.currentTimeMillis();
+        wheel.touch("A", 60);
+        tickFor(400);
+        assertEquals(Collections.singletonList("A"), expired);
+        assertTrue(expiryTimes.get("A") - touched >= 60);
+    }
+
+    @Test
+    public void shouldApplyTimeoutOfLatestTouch() throws InterruptedException {
+        long touched = System.currentTimeMillis();
+        wheel.touch("A", 30);
+        wheel.touch("A", 200);
+
+        tickFor(500);
+        assertEquals(Collections.singletonList("A"), expired);
+        assertTrue(expiryTimes.get("A") - touched >= 200);
+    }
+
+    @Test
+    public void shouldNotExpireCancelledDevice() throws InterruptedException {
+        wheel.touch("A", 30);
+        wheel.touch("B", 30);
+        wheel.tick();
+        wheel.cancel("A");
+        assertEquals(1, wheel.size());
+
+        tickFor(200);
+        assertEquals(Collections.singletonList("B"), expired);
+    }
+
+    @Test
+    public void shouldNotExpireDeviceCancelledBeforeFirstTick() throws InterruptedException {
+        wheel.touch("A", 30);
+        wheel.cancel("A");
+
+        tickFor(200);
+        assertTrue(expired.isEmpty());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void shouldExpireTimeoutLongerThanWheelTurn() throws InterruptedException {
+        long touched = System.currentTimeMillis();
+        wheel.touch("A", 250);
+
+        tickFor(200);
+        assertTrue(expired.isEmpty());
+        tickFor(600);
+        assertEquals(Collections.singletonList("A"), expired);
+        long waited = expiryTimes.get("A") - touched;
+        assertTrue("Expired after " + waited, waited >= 250 && waited < 600);
+    }
+
+    @Test
+    public void shouldTrackDeviceAgainAfterExpiry() throws InterruptedException {
+        wheel.touch("A", 20);
+        tickFor(200);
+        wheel.touch("A", 20);
+        assertEquals(1, wheel.size());
+
+        tickFor(200);
+        assertEquals(2, expired.size());
+    }
+
+    @Test
+    public void shouldKeepTickingAfterFailedCallback() throws InterruptedException {
+        List<String> seen = new ArrayList<>();
+        wheel = new DeviceKeepAliveWheel(TICK, WHEEL_SIZE, deviceName -> {
+            seen.add(deviceName);
+            throw new IllegalStateException("Callback failed");
+        });
+        wheel.touch("A", 20);
+        wheel.touch("B", 20);
+
+        tickFor(200);
+        assertEquals(2, seen.size());
+        assertEquals(0, wheel.size());
+    }
+
+    // calls tick every tick duration, like the scheduler of the MQTT extension
+    private void tickFor(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < deadline) {
+            wheel.tick();
+            Thread.sleep(TICK);
+        }
+    }
+}
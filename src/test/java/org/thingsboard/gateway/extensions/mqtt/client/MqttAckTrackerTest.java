@@ -0,0 +1,117 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.extensions.mqtt.client;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MqttAckTrackerTest {
+
+    private List<Integer> sent;
+    private MqttAckTracker acks;
+
+    @Before
+    public void setup() {
+        sent = new ArrayList<>();
+        acks = new MqttAckTracker((messageId, qos) -> sent.add(messageId));
+    }
+
+    @Test
+    public void shouldAckProcessedMessage() {
+        MqttMessage message = message(1);
+        acks.arrived(message);
+        assertTrue(sent.isEmpty());
+
+        acks.processed(message);
+        assertEquals(Collections.singletonList(1), sent);
+        assertEquals(0, acks.getPendingCount());
+    }
+
+    @Test
+    public void shouldAckInArrivalOrder() {
+        MqttMessage first = message(1);
+        MqttMessage second = message(2);
+        MqttMessage third = message(3);
+        acks.arrived(first);
+        acks.arrived(second);
+        acks.arrived(third);
+
+        acks.processed(third);
+        acks.processed(second);
+        assertTrue(sent.isEmpty());
+        acks.processed(first);
+        assertEquals(Arrays.asList(1, 2, 3), sent);
+    }
+
+    @Test
+    public void shouldHoldBackAcksWhilePaused() {
+        acks.setPaused(true);
+        MqttMessage first = message(1);
+        MqttMessage second = message(2);
+        acks.arrived(first);
+        acks.arrived(second);
+        acks.processed(first);
+        acks.processed(second);
+        assertTrue(sent.isEmpty());
+        assertEquals(2, acks.getPendingCount());
+
+        acks.setPaused(false);
+        assertEquals(Arrays.asList(1, 2), sent);
+        assertEquals(0, acks.getPendingCount());
+    }
+
+    @Test
+    public void shouldNotAckMessagesOfLostConnection() {
+        MqttMessage lost = message(1);
+        acks.arrived(lost);
+        acks.clear();
+        acks.processed(lost);
+        assertTrue(sent.isEmpty());
+
+        MqttMessage next = message(1);
+        acks.arrived(next);
+        acks.processed(next);
+        assertEquals(Collections.singletonList(1), sent);
+    }
+
+    @Test
+    public void shouldTellMessagesWithEqualIdsApart() {
+        MqttMessage first = message(7);
+        MqttMessage second = message(7);
+        acks.arrived(first);
+        acks.arrived(second);
+
+        acks.processed(second);
+        assertTrue(sent.isEmpty());
+        acks.processed(first);
+        assertEquals(Arrays.asList(7, 7), sent);
+    }
+
+    private static MqttMessage message(int id) {
+        MqttMessage message = new MqttMessage(new byte[0]);
+        message.setId(id);
+        message.setQos(1);
+        return message;
+    }
+}
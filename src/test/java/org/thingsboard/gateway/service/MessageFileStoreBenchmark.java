@@ -0,0 +1,104 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.thingsboard.gateway.service.MessageFileStore.Compression;
+import org.thingsboard.gateway.service.MessageFileStore.FsyncPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency of writing message batches to storage files with each fsync policy and compression.
+ * Producer threads write to one store, like the flushers of a gateway with several tenants would.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.thingsboard.gateway.service.MessageFileStoreBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+@Threads(4)
+public class MessageFileStoreBenchmark {
+
+    private static final byte[] PAYLOAD = "{\"Device A\":[{\"ts\":1483228800000,\"values\":{\"temperature\":42.5}}]}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Param({"NONE", "BATCH", "INTERVAL"})
+    private FsyncPolicy fsync;
+
+    @Param({"NONE", "DEFLATE"})
+    private Compression compression;
+
+    @Param({"100"})
+    private int batchSize;
+
+    private File dir;
+    private MessageFileStore store;
+    private List<MqttPersistentMessage> batch;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("tb-gateway-benchmark").toFile();
+        store = new MessageFileStore(dir, "tb-gateway-storage-", fsync, 100, compression);
+        batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(MqttPersistentMessage.builder().sequenceId(i).timestamp(System.currentTimeMillis())
+                    .topic("v1/gateway/telemetry").deviceId("Device A").messageId(i).payload(PAYLOAD).build());
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        store.sync();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public File writeBatch() throws IOException {
+        return store.write(batch);
+    }
+
+    @Benchmark
+    public List<MqttPersistentMessage> writeAndDrainBatch() throws IOException {
+        store.write(batch);
+        return store.readOldest();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MessageFileStoreBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.thingsboard.gateway.service.MessageFileStore.Compression;
+import org.thingsboard.gateway.service.MessageFileStore.FsyncPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class MessageFileStoreTest {
+
+    private static final String PREFIX = "test-storage-";
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("tb-gateway-store").toFile();
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        Files.walk(dir.toPath()).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    @Test
+    public void shouldReadFilesInWriteOrder() throws IOException {
+        MessageFileStore store = new MessageFileStore(dir, PREFIX);
+        assertTrue(store.isEmpty());
+        store.write(messages(0, 3));
+        store.write(messages(3, 3));
+        store.write(messages(6, 2));
+        assertEquals(3, store.getFileCount());
+        assertEquals(totalLength(), store.getTotalBytes());
+
+        assertEquals(messages(0, 3), store.readOldest());
+        assertEquals(messages(3, 3), store.readOldest());
+        assertEquals(totalLength(), store.getTotalBytes());
+        assertEquals(messages(6, 2), store.readOldest());
+        assertTrue(store.isEmpty());
+        assertEquals(0, store.getTotalBytes());
+        assertEquals(Collections.emptyList(), store.readOldest());
+    }
+
+    @Test
+    public void shouldPickUpFilesOfPreviousRun() throws IOException {
+        MessageFileStore store = new MessageFileStore(dir, PREFIX);
+        store.write(messages(0, 2));
+        store.write(messages(2, 2));
+
+        MessageFileStore restarted = new MessageFileStore(dir, PREFIX);
+        assertEquals(2, restarted.getFileCount());
+        assertEquals(totalLength(), restarted.getTotalBytes());
+        restarted.write(messages(4, 2));
+        assertEquals(messages(0, 2), restarted.readOldest());
+        assertEquals(messages(2, 2), restarted.readOldest());
+        assertEquals(messages(4, 2), restarted.readOldest());
+    }
+
+    @Test
+    public void shouldWriteFirstAsOldestFile() throws IOException {
+        MessageFileStore store = new MessageFileStore(dir, PREFIX);
+        store.write(messages(2, 2));
+        store.writeFirst(messages(0, 2));
+
+        assertEquals(messages(0, 2), store.readOldest());
+        assertEquals(messages(2, 2), store.readOldest());
+    }
+
+    @Test
+    public void shouldKeepFileWrittenFirstOldestOnRestart() throws IOException {
+        MessageFileStore store = new MessageFileStore(dir, PREFIX);
+        store.write(messages(2, 2));
+        store.writeFirst(messages(0, 2));
+
+        MessageFileStore restarted = new MessageFileStore(dir, PREFIX);
+        assertEquals(messages(0, 2), restarted.readOldest());
+        assertEquals(messages(2, 2), restarted.readOldest());
+    }
+
+    @Test
+    public void shouldCompactOldestFilesUntilWithinLimit() throws IOException {
+        MessageFileStore store = new MessageFileStore(dir, PREFIX);
+        for (int i = 0; i < 3; i++) {
+            store.write(messages(i * 10, 10));
+        }
+        // dropping half of the oldest file is enough
+        long maxBytes = store.getTotalBytes() - store.getTotalBytes() / 12;
+        List<MqttPersistentMessage> removed = new ArrayList<>();
+
+        int removedCount = store.compact(1, maxBytes, Long.MIN_VALUE, MessageFileStoreTest::evenOnly, removed::add);
+
+        assertEquals(5, removedCount);
+        assertEquals(odd(messages(0, 10)), removed);
+        assertTrue(store.getTotalBytes() <= maxBytes);
+        assertEquals(totalLength(), store.getTotalBytes());
+        assertEquals(evenOnly(messages(0, 10)), store.readOldest());
+        assertEquals(messages(10, 10), store.readOldest());
+        assertEquals(messages(20, 10), store.readOldest());
+    }
+
+    @Test
+    public void shouldDeleteFilesLeftEmpty() throws IOException {
+        MessageFileStore store = new MessageFileStore(dir, PREFIX);
+        store.write(messages(0, 5));
+        store.write(messages(5, 5));
+        List<MqttPersistentMessage> removed = new ArrayList<>();
+
+        int removedCount = store.compact(1, 0, Long.MIN_VALUE, messages -> Collections.emptyList(), removed::add);
+
+        assertEquals(10, removedCount);
+        assertEquals(messages(0, 10), removed);
+        assertTrue(store.isEmpty());
+        assertEquals(0, store.getTotalBytes());
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void shouldSkipFilesCompactedWithSameLevel() throws IOException {
+        MessageFileStore store = new MessageFileStore(dir, PREFIX);
+        store.write(messages(0, 10));
+        AtomicInteger calls = new AtomicInteger();
+
+        store.compact(1, 0, Long.MIN_VALUE, messages -> {
+            calls.incrementAndGet();
+            return evenOnly(messages);
+        }, message -> {
+        });
+        store.compact(1, 0, Long.MIN_VALUE, messages -> {
+            calls.incrementAndGet();
+            return messages;
+        }, message -> fail("Nothing should be removed"));
+        assertEquals(1, calls.get());
+
+        List<MqttPersistentMessage> removed = new ArrayList<>();
+        store.compact(2, 0, Long.MIN_VALUE, messages -> messages.subList(0, 1), removed::add);
+        assertEquals(evenOnly(messages(0, 10)).subList(1, 5), removed);
+    }
+
+    @Test
+    public void shouldCompactFilesOlderThanMinLastModified() throws IOException {
+        MessageFileStore store = new MessageFileStore(dir, PREFIX);
+        long now = System.currentTimeMillis();
+        store.write(messages(0, 4)).setLastModified(now - 60000);
+        store.write(messages(4, 4));
+        List<MqttPersistentMessage> removed = new ArrayList<>();
+
+        store.compact(1, Long.MAX_VALUE, now - 30000, MessageFileStoreTest::evenOnly, removed::add);
+
+        assertEquals(odd(messages(0, 4)), removed);
+        assertEquals(evenOnly(messages(0, 4)), store.readOldest());
+        assertEquals(messages(4, 4), store.readOldest());
+    }
+
+    @Test
+    public void shouldReadFilesWrittenWithEachFsyncPolicy() throws IOException {
+        for (FsyncPolicy policy : FsyncPolicy.values()) {
+            MessageFileStore store = new MessageFileStore(dir, PREFIX, policy, 0, Compression.NONE);
+            store.write(messages(0, 3));
+            store.writeFirst(messages(3, 3));
+            store.syncIfDue();
+            assertEquals(policy.name(), messages(3, 3), store.readOldest());
+            assertEquals(policy.name(), messages(0, 3), store.readOldest());
+        }
+    }
+
+    @Test
+    public void shouldSyncIntervalFilesWhenAsked() throws IOException {
+        MessageFileStore store = new MessageFileStore(dir, PREFIX, FsyncPolicy.INTERVAL, TimeUnit.HOURS.toMillis(1), Compression.NONE);
+        store.write(messages(0, 3));
+        store.write(messages(3, 3));
+        store.syncIfDue();
+        store.sync();
+
+        MessageFileStore restarted = new MessageFileStore(dir, PREFIX);
+        assertEquals(messages(0, 3), restarted.readOldest());
+        assertEquals(messages(3, 3), restarted.readOldest());
+    }
+
+    @Test
+    public void shouldSkipFilesReadBeforeSync() throws IOException {
+        MessageFileStore store = new MessageFileStore(dir, PREFIX, FsyncPolicy.INTERVAL, TimeUnit.HOURS.toMillis(1), Compression.NONE);
+        store.write(messages(0, 3));
+        store.write(messages(3, 3));
+        assertEquals(messages(0, 3), store.readOldest());
+        store.compact(1, 0, Long.MIN_VALUE, messages -> Collections.emptyList(), message -> {
+        });
+
+        store.sync();
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    public void shouldReadCompressedFiles() throws IOException {
+        MessageFileStore store = new MessageFileStore(dir, PREFIX, FsyncPolicy.NONE, 0, Compression.DEFLATE);
+        store.write(messages(0, 100));
+        store.writeFirst(messages(100, 1));
+        assertEquals(messages(100, 1), store.readOldest());
+        assertEquals(messages(0, 100), store.readOldest());
+    }
+
+    @Test
+    public void shouldWriteSmallerFilesWithCompression() throws IOException {
+        MessageFileStore plain = new MessageFileStore(dir, "plain-");
+        MessageFileStore compressed = new MessageFileStore(dir, "compressed-", FsyncPolicy.NONE, 0, Compression.DEFLATE);
+        plain.write(messages(0, 100));
+        compressed.write(messages(0, 100));
+        assertTrue(compressed.getTotalBytes() * 2 < plain.getTotalBytes());
+    }
+
+    @Test
+    public void shouldReadFilesWrittenWithOtherCompressionSetting() throws IOException {
+        new MessageFileStore(dir, PREFIX).write(messages(0, 10));
+        new MessageFileStore(dir, PREFIX, FsyncPolicy.NONE, 0, Compression.DEFLATE).write(messages(10, 10));
+
+        MessageFileStore compressed = new MessageFileStore(dir, PREFIX, FsyncPolicy.NONE, 0, Compression.DEFLATE);
+        assertEquals(messages(0, 10), compressed.readOldest());
+        new MessageFileStore(dir, PREFIX, FsyncPolicy.NONE, 0, Compression.DEFLATE).write(messages(20, 10));
+        MessageFileStore plain = new MessageFileStore(dir, PREFIX);
+        assertEquals(messages(10, 10), plain.readOldest());
+        assertEquals(messages(20, 10), plain.readOldest());
+    }
+
+    @Test
+    public void shouldCompactCompressedFiles() throws IOException {
+        MessageFileStore store = new MessageFileStore(dir, PREFIX, FsyncPolicy.NONE, 0, Compression.DEFLATE);
+        store.write(messages(0, 10));
+        store.compact(1, 0, Long.MIN_VALUE, MessageFileStoreTest::evenOnly, message -> {
+        });
+        assertEquals(totalLength(), store.getTotalBytes());
+        assertEquals(evenOnly(messages(0, 10)), store.readOldest());
+    }
+
+    static List<MqttPersistentMessage> messages(int from, int count) {
+        List<MqttPersistentMessage> messages = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            messages.add(MqttPersistentMessage.builder()
+                    .sequenceId(i).timestamp(1000 + i).messageId(i)
+                    .topic("v1/gateway/telemetry").deviceId("Device " + i % 3)
+                    .payload(("{\"Device " + i % 3 + "\":[{\"ts\":" + (1000 + i) + ",\"values\":{\"value\":" + i + "}}]}")
+                            .getBytes(StandardCharsets.UTF_8))
+                    .build());
+        }
+        return messages;
+    }
+
+    private static List<MqttPersistentMessage> evenOnly(List<MqttPersistentMessage> messages) {
+        return messages.stream().filter(message -> message.getSequenceId() % 2 == 0).collect(Collectors.toList());
+    }
+
+    private static List<MqttPersistentMessage> odd(List<MqttPersistentMessage> messages) {
+        return messages.stream().filter(message -> message.getSequenceId() % 2 != 0).collect(Collectors.toList());
+    }
+
+    private long totalLength() {
+        return Arrays.stream(dir.listFiles()).mapToLong(File::length).sum();
+    }
+}
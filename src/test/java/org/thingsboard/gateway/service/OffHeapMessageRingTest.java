@@ -0,0 +1,142 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class OffHeapMessageRingTest {
+
+    @Test
+    public void shouldReturnMessagesInOrder() {
+        OffHeapMessageRing ring = new OffHeapMessageRing(4096);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(ring.offer(message(i, "payload " + i)));
+        }
+        assertEquals(10, ring.size());
+        for (int i = 0; i < 10; i++) {
+            MqttPersistentMessage message = ring.poll();
+            assertEquals(message(i, "payload " + i), message);
+        }
+        assertTrue(ring.isEmpty());
+        assertNull(ring.poll());
+        assertEquals(0, ring.getUsedBytes());
+    }
+
+    @Test
+    public void shouldKeepAllFields() {
+        OffHeapMessageRing ring = new OffHeapMessageRing(1024);
+        MqttPersistentMessage message = MqttPersistentMessage.builder()
+                .sequenceId(Long.MAX_VALUE).timestamp(1234567890123L).messageId(-7)
+                .topic("v1/gateway/telemetry").deviceId("Gerät 1").payload(new byte[]{0, -1, 127}).build();
+        ring.offer(message);
+        assertEquals(message, ring.poll());
+    }
+
+    @Test
+    public void shouldKeepNullFields() {
+        OffHeapMessageRing ring = new OffHeapMessageRing(1024);
+        MqttPersistentMessage message = MqttPersistentMessage.builder().sequenceId(1).build();
+        ring.offer(message);
+        MqttPersistentMessage polled = ring.poll();
+        assertNull(polled.getTopic());
+        assertNull(polled.getDeviceId());
+        assertNull(polled.getPayload());
+        assertEquals(1, polled.getSequenceId());
+    }
+
+    @Test
+    public void shouldRejectMessagesWhenFull() {
+        OffHeapMessageRing ring = new OffHeapMessageRing(200);
+        int accepted = 0;
+        while (ring.offer(message(accepted, "0123456789"))) {
+            accepted++;
+        }
+        assertTrue(accepted > 0);
+        assertEquals(accepted, ring.size());
+        int used = ring.getUsedBytes();
+        assertTrue(used <= ring.getCapacity());
+        ring.poll();
+        assertTrue(ring.getUsedBytes() < used);
+        assertTrue(ring.offer(message(accepted, "0123456789")));
+    }
+
+    @Test
+    public void shouldRejectMessageLargerThanCapacity() {
+        OffHeapMessageRing ring = new OffHeapMessageRing(64);
+        assertFalse(ring.offer(message(1, "a payload that does not fit into the ring at all")));
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void shouldWrapRecordsAroundBufferEnd() {
+        // capacity not aligned to the record sizes, so records and their length prefixes get split
+        OffHeapMessageRing ring = new OffHeapMessageRing(301);
+        long nextIn = 0;
+        long nextOut = 0;
+        for (int round = 0; round < 500; round++) {
+            while (ring.offer(message(nextIn, payload(nextIn)))) {
+                nextIn++;
+            }
+            int toPoll = 1 + round % 3;
+            for (int i = 0; i < toPoll && !ring.isEmpty(); i++) {
+                assertEquals(message(nextOut, payload(nextOut)), ring.poll());
+                nextOut++;
+            }
+        }
+        while (!ring.isEmpty()) {
+            assertEquals(message(nextOut, payload(nextOut)), ring.poll());
+            nextOut++;
+        }
+        assertEquals(nextIn, nextOut);
+    }
+
+    @Test
+    public void shouldKeepMessagesLargerThanScratchBuffer() {
+        OffHeapMessageRing ring = new OffHeapMessageRing(64 * 1024);
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            payload.append((char) ('a' + i % 26));
+        }
+        ring.offer(message(1, payload.toString()));
+        ring.offer(message(2, "small"));
+        assertEquals(message(1, payload.toString()), ring.poll());
+        assertEquals(message(2, "small"), ring.poll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveCapacity() {
+        new OffHeapMessageRing(0);
+    }
+
+    private static String payload(long i) {
+        StringBuilder payload = new StringBuilder("{\"value\":");
+        for (long j = 0; j <= i % 7; j++) {
+            payload.append(i);
+        }
+        return payload.append('}').toString();
+    }
+
+    private static MqttPersistentMessage message(long sequenceId, String payload) {
+        return MqttPersistentMessage.builder()
+                .sequenceId(sequenceId).timestamp(1000 + sequenceId).messageId((int) sequenceId)
+                .topic("v1/gateway/telemetry").deviceId("Device " + sequenceId % 3)
+                .payload(payload.getBytes(StandardCharsets.UTF_8)).build();
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.thingsboard.gateway.service.conf.TbPersistenceConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class PersistentFileServiceImplTest {
+
+    private static final String TELEMETRY_TOPIC = "v1/gateway/telemetry";
+    private static final String ATTRIBUTES_TOPIC = "v1/gateway/attributes";
+    private static final String RPC_TOPIC = "v1/gateway/rpc";
+
+    private File dir;
+    private TbPersistenceConfiguration persistence;
+    private PersistentFileServiceImpl service;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("tb-gateway-persistence").toFile();
+        persistence = new TbPersistenceConfiguration();
+        persistence.setPath(dir.getAbsolutePath());
+        persistence.setBufferSize(5);
+        persistence.setPollingInterval(10);
+        persistence.setPriorityWeight(10);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        if (service != null) {
+            service.destroy();
+        }
+        Files.walk(dir.toPath()).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    @Test
+    public void shouldFailDeliveryOfEvictedTelemetry() throws Exception {
+        persistence.setMaxBytes(1);
+        start();
+        AtomicInteger failures = new AtomicInteger();
+        List<MqttDeliveryFuture> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(persist(TELEMETRY_TOPIC, i, error -> failures.incrementAndGet()));
+        }
+        MqttDeliveryFuture attributes = persist(ATTRIBUTES_TOPIC, 10, error -> failures.incrementAndGet());
+
+        for (MqttDeliveryFuture future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("Delivery of evicted telemetry must fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        assertEquals(10, failures.get());
+        assertFalse(attributes.isDone());
+        assertEquals(10L, (long) service.getStatistics().get("telemetryEvicted"));
+    }
+
+    @Test
+    public void shouldSendPriorityMessagesAheadOfStoredMessages() throws Exception {
+        start();
+        persist(TELEMETRY_TOPIC, 0, null);
+        persist(RPC_TOPIC, 1, null);
+        persist(ATTRIBUTES_TOPIC, 2, null);
+
+        assertEquals(Collections.singletonList(1), messageIds(service.getPriorityMessages()));
+        assertEquals(Arrays.asList(0, 2), messageIds(service.getPersistentMessages()));
+    }
+
+    @Test
+    public void shouldStorePriorityMessagesWhenLaneIsFull() throws Exception {
+        start();
+        for (int i = 0; i < 7; i++) {
+            persist(RPC_TOPIC, i, null);
+        }
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), messageIds(service.getPriorityMessages()));
+        assertTrue(service.getPriorityMessages().isEmpty());
+        assertEquals(Arrays.asList(5, 6), messageIds(service.getPersistentMessages()));
+    }
+
+    @Test
+    public void shouldStorePriorityLaneOnDestroy() throws Exception {
+        start();
+        for (int i = 0; i < 3; i++) {
+            persist(RPC_TOPIC, i, null);
+        }
+        service.destroy();
+        service = null;
+
+        start();
+        assertTrue(service.getPriorityMessages().isEmpty());
+        assertEquals(Arrays.asList(0, 1, 2), messageIds(service.getPersistentMessages()));
+    }
+
+    @Test
+    public void shouldWaitForLingerTimeUntilBatchIsFull() throws Exception {
+        lingerBatches(200);
+        start();
+        for (int i = 0; i < 3; i++) {
+            persist(TELEMETRY_TOPIC, i, null);
+        }
+
+        long started = System.currentTimeMillis();
+        List<MqttPersistentMessage> messages = service.getPersistentMessages();
+        long waited = System.currentTimeMillis() - started;
+        assertEquals(3, messages.size());
+        assertTrue("Waited " + waited, waited >= 100 && waited < 2000);
+    }
+
+    @Test
+    public void shouldReturnFullBatchWithoutLinger() throws Exception {
+        lingerBatches(5000);
+        start();
+        for (int i = 0; i < 15; i++) {
+            persist(TELEMETRY_TOPIC, i, null);
+        }
+
+        long started = System.currentTimeMillis();
+        List<MqttPersistentMessage> messages = service.getPersistentMessages();
+        assertTrue(System.currentTimeMillis() - started < 1000);
+        assertEquals(10, messages.size());
+        assertEquals(0, messages.get(0).getMessageId());
+        assertEquals(9, messages.get(9).getMessageId());
+    }
+
+    @Test
+    public void shouldWakeUpWhenBatchIsFilled() throws Exception {
+        lingerBatches(5000);
+        start();
+        persist(TELEMETRY_TOPIC, 0, null);
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                for (int i = 1; i < 10; i++) {
+                    persist(TELEMETRY_TOPIC, i, null);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        producer.start();
+
+        long started = System.currentTimeMillis();
+        List<MqttPersistentMessage> messages = service.getPersistentMessages();
+        long waited = System.currentTimeMillis() - started;
+        producer.join();
+        assertEquals(10, messages.size());
+        assertTrue("Waited " + waited, waited < 2500);
+    }
+
+    @Test
+    public void shouldStopLingeringForPriorityMessages() throws Exception {
+        lingerBatches(5000);
+        start();
+        persist(TELEMETRY_TOPIC, 0, null);
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                persist(RPC_TOPIC, 1, null);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        producer.start();
+
+        long started = System.currentTimeMillis();
+        List<MqttPersistentMessage> messages = service.getPersistentMessages();
+        long waited = System.currentTimeMillis() - started;
+        producer.join();
+        assertTrue("Waited " + waited, waited < 2500);
+        assertEquals(1, messages.size());
+        List<MqttPersistentMessage> priority = service.getPriorityMessages();
+        assertEquals(1, priority.size());
+        assertEquals(RPC_TOPIC, priority.get(0).getTopic());
+    }
+
+    @Test
+    public void shouldReturnBufferedMessagesRightAwayWithoutLinger() throws Exception {
+        persistence.setBufferSize(100);
+        persistence.setBatchSize(10);
+        start();
+        for (int i = 0; i < 3; i++) {
+            persist(TELEMETRY_TOPIC, i, null);
+        }
+
+        long started = System.currentTimeMillis();
+        List<MqttPersistentMessage> messages = service.getPersistentMessages();
+        assertTrue(System.currentTimeMillis() - started < 100);
+        assertEquals(3, messages.size());
+        assertTrue(service.getPersistentMessages().isEmpty());
+    }
+
+    @Test
+    public void shouldKeepOrderOfFlushedMessages() throws Exception {
+        start();
+        for (int i = 0; i < 23; i++) {
+            persist(TELEMETRY_TOPIC, i, null);
+        }
+
+        List<Integer> ids = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ids.size() < 23 && System.currentTimeMillis() < deadline) {
+            for (MqttPersistentMessage message : service.getPersistentMessages()) {
+                ids.add(message.getMessageId());
+            }
+        }
+        assertEquals(23, ids.size());
+        for (int i = 0; i < 23; i++) {
+            assertEquals(i, (int) ids.get(i));
+        }
+    }
+
+    private void start() {
+        service = new PersistentFileServiceImpl();
+        service.setTenantName("Test tenant");
+        service.setPersistence(persistence);
+        service.init();
+    }
+
+    private static List<Integer> messageIds(List<MqttPersistentMessage> messages) {
+        List<Integer> ids = new ArrayList<>();
+        for (MqttPersistentMessage message : messages) {
+            ids.add(message.getMessageId());
+        }
+        return ids;
+    }
+
+    private void lingerBatches(long lingerMs) {
+        persistence.setBufferSize(100);
+        persistence.setBatchSize(10);
+        persistence.setLingerMs(lingerMs);
+    }
+
+    private MqttDeliveryFuture persist(String topic, int i, Consumer<Throwable> onFailure) throws IOException {
+        byte[] payload = ("{\"Device\":{\"value\":" + i + "}}").getBytes(StandardCharsets.UTF_8);
+        return service.persistMessage(topic, i, payload, "Device", null, onFailure);
+    }
+}
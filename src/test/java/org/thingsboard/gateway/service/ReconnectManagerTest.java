@@ -0,0 +1,215 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.thingsboard.mqtt.MqttClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReconnectManagerTest {
+
+    private static final long RETRY_INTERVAL = 1000;
+    private static final long MAX_RETRY_INTERVAL = 8000;
+    // tells connection timeout checks apart from scheduled attempts
+    private static final long CONNECTION_TIMEOUT = 999_999;
+
+    @Mock
+    private MqttClient client;
+
+    private RecordingScheduler scheduler;
+    private List<Boolean> notifications;
+
+    @Before
+    public void setup() {
+        scheduler = new RecordingScheduler();
+        notifications = new ArrayList<>();
+    }
+
+    @Test
+    public void shouldRandomizeDelayWithinExponentialBackoff() {
+        ReconnectManager manager = start(MAX_RETRY_INTERVAL);
+        failReconnects();
+
+        manager.onConnectionLost();
+        long[] backoffs = {1000, 2000, 4000, 8000, 8000, 8000};
+        for (long backoff : backoffs) {
+            long delay = runNextAttempt();
+            assertTrue("Delay " + delay + " for backoff " + backoff, delay >= backoff / 2 && delay <= backoff);
+        }
+        assertFalse(manager.isConnected());
+    }
+
+    @Test
+    public void shouldNotOverflowBackoffAfterManyFailures() {
+        ReconnectManager manager = start(Long.MAX_VALUE);
+        failReconnects();
+
+        manager.onConnectionLost();
+        for (int i = 0; i < 40; i++) {
+            long delay = runNextAttempt();
+            assertTrue("Delay " + delay, delay > 0 && delay <= RETRY_INTERVAL << 30);
+        }
+    }
+
+    @Test
+    public void shouldRetryWhenReconnectThrows() {
+        ReconnectManager manager = start(MAX_RETRY_INTERVAL);
+        when(client.reconnect()).thenThrow(new IllegalStateException("Channel closed"));
+
+        manager.onConnectionLost();
+        runNextAttempt();
+        long delay = runNextAttempt();
+        assertTrue("Delay " + delay, delay >= 1000 && delay <= 2000);
+    }
+
+    @Test
+    public void shouldIgnoreRepeatedConnectionLoss() {
+        ReconnectManager manager = start(MAX_RETRY_INTERVAL);
+
+        manager.onConnectionLost();
+        manager.onConnectionLost();
+        assertEquals(1, scheduler.tasks.size());
+        assertEquals(1, notifications.size());
+    }
+
+    @Test
+    public void shouldNotifyListenersOfLostAndRestoredConnection() throws InterruptedException {
+        ReconnectManager manager = start(MAX_RETRY_INTERVAL);
+        succeedReconnects();
+
+        manager.onConnectionLost();
+        assertFalse(manager.isConnected());
+        runNextAttempt();
+        runConnectionTimeoutCheck();
+        assertTrue(manager.isConnected());
+        assertEquals(2, notifications.size());
+        assertFalse(notifications.get(0));
+        assertTrue(notifications.get(1));
+        long started = System.currentTimeMillis();
+        manager.awaitConnected(5000);
+        assertTrue(System.currentTimeMillis() - started < 1000);
+    }
+
+    @Test
+    public void shouldResetBackoffAfterReconnect() {
+        ReconnectManager manager = start(MAX_RETRY_INTERVAL);
+        failReconnects();
+        manager.onConnectionLost();
+        for (int i = 0; i < 4; i++) {
+            runNextAttempt();
+        }
+        succeedReconnects();
+        runNextAttempt();
+        runConnectionTimeoutCheck();
+        assertTrue(manager.isConnected());
+
+        manager.onConnectionLost();
+        long delay = runNextAttempt();
+        assertTrue("Delay " + delay, delay >= 500 && delay <= 1000);
+    }
+
+    @Test
+    public void shouldCountAttemptsSincePreviousPoll() {
+        ReconnectManager manager = start(MAX_RETRY_INTERVAL);
+        failReconnects();
+
+        manager.onConnectionLost();
+        for (int i = 0; i < 3; i++) {
+            runNextAttempt();
+        }
+        assertEquals(3, manager.pollAttempts());
+        assertEquals(0, manager.pollAttempts());
+    }
+
+    private ReconnectManager start(long maxRetryInterval) {
+        ReconnectManager manager = new ReconnectManager(client, scheduler, RETRY_INTERVAL, maxRetryInterval,
+                CONNECTION_TIMEOUT);
+        manager.addListener(notifications::add);
+        return manager;
+    }
+
+    private void failReconnects() {
+        when(client.reconnect()).thenReturn(ImmediateEventExecutor.INSTANCE.newFailedFuture(new IOException("Refused")));
+        when(client.isConnected()).thenReturn(false);
+    }
+
+    // the connection is reported by the timeout check
+    private void succeedReconnects() {
+        when(client.reconnect()).thenReturn(ImmediateEventExecutor.INSTANCE.newPromise());
+        when(client.isConnected()).thenReturn(true);
+    }
+
+    // runs the pending attempt and returns the delay it was scheduled with
+    private long runNextAttempt() {
+        ScheduledTask task = scheduler.take(false);
+        task.command.run();
+        return task.delay;
+    }
+
+    private void runConnectionTimeoutCheck() {
+        scheduler.take(true).command.run();
+    }
+
+    private static class ScheduledTask {
+        private final Runnable command;
+        private final long delay;
+
+        private ScheduledTask(Runnable command, long delay) {
+            this.command = command;
+            this.delay = delay;
+        }
+    }
+
+    // records tasks instead of running them, so tests decide when time passes
+    private static class RecordingScheduler extends ScheduledThreadPoolExecutor {
+        private final List<ScheduledTask> tasks = new ArrayList<>();
+
+        private RecordingScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            tasks.add(new ScheduledTask(command, unit.toMillis(delay)));
+            return null;
+        }
+
+        // the latest one, checks of earlier attempts are left over
+        private ScheduledTask take(boolean timeoutCheck) {
+            for (int i = tasks.size() - 1; i >= 0; i--) {
+                if ((tasks.get(i).delay == CONNECTION_TIMEOUT) == timeoutCheck) {
+                    return tasks.remove(i);
+                }
+            }
+            throw new AssertionError("No " + (timeoutCheck ? "timeout check" : "attempt") + " scheduled");
+        }
+    }
+}
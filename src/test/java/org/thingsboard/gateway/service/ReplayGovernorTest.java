@@ -0,0 +1,122 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReplayGovernorTest {
+
+    private static final long ADJUSTMENT_INTERVAL_MS = 1000;
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(1000);
+
+    @Test
+    public void shouldStartAtQuarterOfMaxRate() {
+        assertEquals(250, new ReplayGovernor(100, 1000, 500).getRate(), 0);
+        assertEquals(500, new ReplayGovernor(500, 1000, 500).getRate(), 0);
+        // max rate below min rate is raised to it
+        assertEquals(300, new ReplayGovernor(300, 100, 500).getRate(), 0);
+    }
+
+    @Test
+    public void shouldLimitBurstToTenthOfRate() throws InterruptedException {
+        ReplayGovernor governor = new ReplayGovernor(100, 1000, 500);
+        Thread.sleep(200);
+        int acquired = 0;
+        while (governor.tryAcquire()) {
+            acquired++;
+        }
+        long pause = governor.getPauseMillis();
+        assertTrue("Acquired " + acquired, acquired >= 25 && acquired <= 26);
+        // one token at 250 messages per second
+        assertTrue("Pause " + pause, pause <= 4);
+    }
+
+    @Test
+    public void shouldReplenishTokensAtRate() throws InterruptedException {
+        ReplayGovernor governor = new ReplayGovernor(100, 100, 500);
+        Thread.sleep(50);
+        int acquired = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500)) {
+            if (governor.tryAcquire()) {
+                acquired++;
+            } else {
+                Thread.sleep(governor.getPauseMillis());
+            }
+        }
+        // 50 per half a second plus the initial burst of 10
+        assertTrue("Acquired " + acquired, acquired >= 45 && acquired <= 62);
+    }
+
+    @Test
+    public void shouldNotAdjustRateWithinInterval() {
+        ReplayGovernor governor = new ReplayGovernor(100, 1000, 500);
+        governor.onPublished(SLOW, false);
+        governor.onPublished(FAST, true);
+        assertEquals(250, governor.getRate(), 0);
+    }
+
+    @Test
+    public void shouldIncreaseRateWhileLatencyIsBelowTarget() throws InterruptedException {
+        ReplayGovernor governor = new ReplayGovernor(100, 1000, 500);
+        Thread.sleep(ADJUSTMENT_INTERVAL_MS);
+        governor.onPublished(FAST, true);
+        assertEquals(300, governor.getRate(), 0);
+    }
+
+    @Test
+    public void shouldHalveRateWhenLatencyExceedsTarget() throws InterruptedException {
+        ReplayGovernor governor = new ReplayGovernor(100, 1000, 500);
+        governor.onPublished(FAST, true);
+        Thread.sleep(ADJUSTMENT_INTERVAL_MS);
+        // average of the interval is above the target
+        governor.onPublished(2 * SLOW, true);
+        assertEquals(125, governor.getRate(), 0);
+    }
+
+    @Test
+    public void shouldHalveRateOnFailureDownToMinRate() throws InterruptedException {
+        ReplayGovernor governor = new ReplayGovernor(200, 1000, 500);
+        governor.onPublished(FAST, false);
+        Thread.sleep(ADJUSTMENT_INTERVAL_MS);
+        governor.onPublished(FAST, true);
+        assertEquals(200, governor.getRate(), 0);
+    }
+
+    @Test
+    public void shouldNotExceedMaxRate() throws InterruptedException {
+        ReplayGovernor governor = new ReplayGovernor(100, 100, 500);
+        Thread.sleep(ADJUSTMENT_INTERVAL_MS);
+        governor.onPublished(FAST, true);
+        assertEquals(100, governor.getRate(), 0);
+    }
+
+    @Test
+    public void shouldEstimateDrainTimeFromRateLimitWithoutReplays() {
+        ReplayGovernor governor = new ReplayGovernor(100, 1000, 500);
+        Map<String, Long> statistics = governor.pollStatistics(5000);
+        assertEquals(250L, (long) statistics.get("replayRateLimit"));
+        assertEquals(0L, (long) statistics.get("replayRate"));
+        assertEquals(5000L, (long) statistics.get("replayBacklog"));
+        assertEquals(20L, (long) statistics.get("replayEta"));
+    }
+}
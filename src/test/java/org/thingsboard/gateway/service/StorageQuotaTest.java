@@ -0,0 +1,180 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.thingsboard.gateway.service.conf.TbPersistenceConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StorageQuotaTest {
+
+    private static final String TELEMETRY_TOPIC = "v1/gateway/telemetry";
+    private static final String ATTRIBUTES_TOPIC = "v1/gateway/attributes";
+    private static final String RPC_TOPIC = "v1/gateway/rpc";
+    private static final String CONNECT_TOPIC = "v1/gateway/connect";
+    private static final long NOW = System.currentTimeMillis();
+
+    private File dir;
+    private MessageFileStore store;
+    private long sequence;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("tb-gateway-quota").toFile();
+        store = new MessageFileStore(dir, "test-storage-");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        Files.walk(dir.toPath()).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    @Test
+    public void shouldNotTouchStorageWithoutLimits() throws IOException {
+        StorageQuota quota = new StorageQuota(new TbPersistenceConfiguration());
+        store.write(Arrays.asList(telemetry("A", NOW), telemetry("A", NOW + 1)));
+
+        assertFalse(quota.isEnabled());
+        assertTrue(quota.enforce(store).isEmpty());
+        assertEquals(2, store.readOldest().size());
+    }
+
+    @Test
+    public void shouldEvictTelemetryOfOldestFilesOverMaxBytes() throws IOException {
+        List<MqttPersistentMessage> oldest = Arrays.asList(telemetry("A", NOW), message(ATTRIBUTES_TOPIC, "A", NOW),
+                telemetry("B", NOW), message(RPC_TOPIC, "B", NOW), message(CONNECT_TOPIC, "C", NOW));
+        List<MqttPersistentMessage> newest = Arrays.asList(telemetry("A", NOW + 1), telemetry("B", NOW + 1));
+        store.write(oldest);
+        store.write(newest);
+        TbPersistenceConfiguration persistence = new TbPersistenceConfiguration();
+        persistence.setMaxBytes(store.getTotalBytes() - 1);
+        StorageQuota quota = new StorageQuota(persistence);
+
+        List<MqttPersistentMessage> evicted = quota.enforce(store);
+
+        assertEquals(Arrays.asList(oldest.get(0), oldest.get(2)), evicted);
+        assertEquals(Arrays.asList(oldest.get(1), oldest.get(3), oldest.get(4)), store.readOldest());
+        assertEquals(newest, store.readOldest());
+        Map<String, Long> statistics = quota.pollStatistics();
+        assertEquals(2L, (long) statistics.get("telemetryEvicted"));
+        assertEquals(0L, (long) statistics.get("telemetryDownsampled"));
+        assertEquals(0L, (long) quota.pollStatistics().get("telemetryEvicted"));
+    }
+
+    @Test
+    public void shouldDeleteFilesWithTelemetryOnly() throws IOException {
+        List<MqttPersistentMessage> first = Arrays.asList(telemetry("A", NOW), telemetry("B", NOW));
+        List<MqttPersistentMessage> second = Arrays.asList(telemetry("A", NOW + 1), message(ATTRIBUTES_TOPIC, "A", NOW + 1));
+        store.write(first);
+        store.write(second);
+        TbPersistenceConfiguration persistence = new TbPersistenceConfiguration();
+        persistence.setMaxBytes(1);
+        StorageQuota quota = new StorageQuota(persistence);
+
+        List<MqttPersistentMessage> evicted = quota.enforce(store);
+
+        assertEquals(Arrays.asList(first.get(0), first.get(1), second.get(0)), evicted);
+        assertEquals(1, store.getFileCount());
+        assertEquals(second.subList(1, 2), store.readOldest());
+    }
+
+    @Test
+    public void shouldEvictTelemetryOfFilesOlderThanMaxAge() throws IOException {
+        List<MqttPersistentMessage> old = Arrays.asList(telemetry("A", NOW), message(ATTRIBUTES_TOPIC, "A", NOW));
+        List<MqttPersistentMessage> recent = Arrays.asList(telemetry("A", NOW + 1), telemetry("B", NOW + 1));
+        store.write(old).setLastModified(NOW - 120000);
+        store.write(recent);
+        TbPersistenceConfiguration persistence = new TbPersistenceConfiguration();
+        persistence.setMaxAge(60000);
+        StorageQuota quota = new StorageQuota(persistence);
+
+        List<MqttPersistentMessage> evicted = quota.enforce(store);
+
+        assertEquals(old.subList(0, 1), evicted);
+        assertEquals(old.subList(1, 2), store.readOldest());
+        assertEquals(recent, store.readOldest());
+    }
+
+    @Test
+    public void shouldDownsampleTelemetryBeforeEvicting() throws IOException {
+        List<MqttPersistentMessage> old = Arrays.asList(
+                telemetry("A", NOW), telemetry("B", NOW + 5000), telemetry("A", NOW + 10000),
+                message(ATTRIBUTES_TOPIC, "A", NOW + 20000), telemetry("A", NOW + 59999), telemetry("A", NOW + 60000),
+                telemetry("B", NOW + 70000));
+        store.write(old).setLastModified(NOW - 120000);
+        TbPersistenceConfiguration persistence = new TbPersistenceConfiguration();
+        persistence.setMaxAge(60000);
+        persistence.setDownsampleInterval(60000);
+        StorageQuota quota = new StorageQuota(persistence);
+
+        List<MqttPersistentMessage> evicted = quota.enforce(store);
+
+        assertEquals(Arrays.asList(old.get(2), old.get(4)), evicted);
+        assertEquals(Arrays.asList(old.get(0), old.get(1), old.get(3), old.get(5), old.get(6)), store.readOldest());
+        Map<String, Long> statistics = quota.pollStatistics();
+        assertEquals(0L, (long) statistics.get("telemetryEvicted"));
+        assertEquals(2L, (long) statistics.get("telemetryDownsampled"));
+    }
+
+    @Test
+    public void shouldEvictTelemetryLeftAfterDownsampling() throws IOException {
+        List<MqttPersistentMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            messages.add(telemetry("A", NOW + i * 60000));
+        }
+        messages.add(message(ATTRIBUTES_TOPIC, "A", NOW));
+        store.write(messages);
+        TbPersistenceConfiguration persistence = new TbPersistenceConfiguration();
+        persistence.setMaxBytes(1);
+        persistence.setDownsampleInterval(60000);
+        StorageQuota quota = new StorageQuota(persistence);
+
+        List<MqttPersistentMessage> evicted = quota.enforce(store);
+
+        assertEquals(messages.subList(0, 10), evicted);
+        assertEquals(messages.subList(10, 11), store.readOldest());
+        Map<String, Long> statistics = quota.pollStatistics();
+        assertEquals(10L, (long) statistics.get("telemetryEvicted"));
+        assertEquals(0L, (long) statistics.get("telemetryDownsampled"));
+    }
+
+    private MqttPersistentMessage telemetry(String deviceId, long timestamp) {
+        return message(TELEMETRY_TOPIC, deviceId, timestamp);
+    }
+
+    private MqttPersistentMessage message(String topic, String deviceId, long timestamp) {
+        long sequenceId = ++sequence;
+        return MqttPersistentMessage.builder()
+                .sequenceId(sequenceId).timestamp(timestamp).messageId((int) sequenceId)
+                .topic(topic).deviceId(deviceId)
+                .payload(("{\"" + deviceId + "\":{\"value\":" + sequenceId + "}}").getBytes(StandardCharsets.UTF_8))
+                .build();
+    }
+}
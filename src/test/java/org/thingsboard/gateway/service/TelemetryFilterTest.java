@@ -0,0 +1,204 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import org.junit.Test;
+import org.thingsboard.gateway.service.conf.TbDeadbandConfiguration;
+import org.thingsboard.gateway.service.conf.TbDeadbandKeyConfiguration;
+import org.thingsboard.server.common.data.kv.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetryFilterTest {
+
+    private static final String DEVICE = "Device A";
+    private static final long TS = 1_000_000L;
+
+    @Test
+    public void shouldPassFirstValueOfEachKey() {
+        TelemetryFilter filter = new TelemetryFilter(deadband(10, 0, 0));
+        List<TsKvEntry> telemetry = Arrays.asList(entry(TS, "temperature", 20.0), entry(TS, "humidity", 40.0));
+        assertEquals(telemetry, filter.filter(DEVICE, telemetry));
+    }
+
+    @Test
+    public void shouldFilterValuesWithinAbsoluteBand() {
+        TelemetryFilter filter = new TelemetryFilter(deadband(1, 0, 0));
+        assertPassed(filter, entry(TS, "temperature", 10.0));
+        assertFiltered(filter, entry(TS + 1, "temperature", 10.4));
+        // the band is measured from the last passed value, so slow drift is not lost
+        assertFiltered(filter, entry(TS + 2, "temperature", 10.8));
+        assertFiltered(filter, entry(TS + 3, "temperature", 11.0));
+        assertPassed(filter, entry(TS + 4, "temperature", 11.1));
+        assertFiltered(filter, entry(TS + 5, "temperature", 10.2));
+        assertPassed(filter, entry(TS + 6, "temperature", 10.0));
+    }
+
+    @Test
+    public void shouldFilterValuesWithinPercentBand() {
+        TelemetryFilter filter = new TelemetryFilter(deadband(0, 5, 0));
+        assertPassed(filter, entry(TS, "pressure", 100.0));
+        assertFiltered(filter, entry(TS + 1, "pressure", 104.0));
+        assertFiltered(filter, entry(TS + 2, "pressure", 95.0));
+        assertPassed(filter, entry(TS + 3, "pressure", 106.0));
+        // 5 percent of the new last value
+        assertFiltered(filter, entry(TS + 4, "pressure", 111.0));
+        assertPassed(filter, entry(TS + 5, "pressure", 111.4));
+    }
+
+    @Test
+    public void shouldPassAnyChangeFromZeroWithPercentBand() {
+        TelemetryFilter filter = new TelemetryFilter(deadband(0, 5, 0));
+        assertPassed(filter, entry(TS, "flow", 0.0));
+        assertFiltered(filter, entry(TS + 1, "flow", 0.0));
+        assertPassed(filter, entry(TS + 2, "flow", 0.001));
+    }
+
+    @Test
+    public void shouldPassEveryChangeWithoutBands() {
+        TelemetryFilter filter = new TelemetryFilter(deadband(0, 0, 0));
+        assertPassed(filter, entry(TS, "counter", 1L));
+        assertFiltered(filter, entry(TS + 1, "counter", 1L));
+        assertPassed(filter, entry(TS + 2, "counter", 2L));
+        assertPassed(filter, entry(TS + 3, "on", true));
+        assertFiltered(filter, entry(TS + 4, "on", true));
+        assertPassed(filter, entry(TS + 5, "on", false));
+    }
+
+    @Test
+    public void shouldPassStringsOnChange() {
+        TelemetryFilter filter = new TelemetryFilter(deadband(1, 5, 0));
+        assertPassed(filter, entry(TS, "state", "idle"));
+        assertFiltered(filter, entry(TS + 1, "state", "idle"));
+        assertPassed(filter, entry(TS + 2, "state", "running"));
+        assertPassed(filter, entry(TS + 3, "state", "idle"));
+    }
+
+    @Test
+    public void shouldPassUnchangedValueAfterMaxSilence() {
+        TelemetryFilter filter = new TelemetryFilter(deadband(1, 0, 1000));
+        assertPassed(filter, entry(TS, "temperature", 20.0));
+        assertPassed(filter, entry(TS, "state", "idle"));
+        assertFiltered(filter, entry(TS + 999, "temperature", 20.0));
+        assertFiltered(filter, entry(TS + 999, "state", "idle"));
+        assertPassed(filter, entry(TS + 1000, "temperature", 20.5));
+        assertPassed(filter, entry(TS + 1000, "state", "idle"));
+        // the heartbeat restarts the silence period and becomes the reference value
+        assertFiltered(filter, entry(TS + 1999, "temperature", 21.4));
+        assertFiltered(filter, entry(TS + 1999, "state", "idle"));
+        assertPassed(filter, entry(TS + 1999, "temperature", 21.6));
+    }
+
+    @Test
+    public void shouldApplyKeyBandInsteadOfDefaultBands() {
+        TbDeadbandConfiguration configuration = deadband(0, 10, 0);
+        configuration.setKeys(Collections.singletonList(keyBand("temperature", 1, 0)));
+        TelemetryFilter filter = new TelemetryFilter(configuration);
+        assertPassed(filter, entry(TS, "temperature", 100.0));
+        assertPassed(filter, entry(TS, "humidity", 100.0));
+        // the key band has no percent band, so only the absolute band applies
+        assertPassed(filter, entry(TS + 1, "temperature", 105.0));
+        assertFiltered(filter, entry(TS + 1, "humidity", 105.0));
+        assertFiltered(filter, entry(TS + 2, "temperature", 105.9));
+    }
+
+    @Test
+    public void shouldKeepValuesOfManyKeys() {
+        TelemetryFilter filter = new TelemetryFilter(deadband(1, 0, 0));
+        List<TsKvEntry> first = new ArrayList<>();
+        List<TsKvEntry> unchanged = new ArrayList<>();
+        List<TsKvEntry> changed = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            first.add(entry(TS, "key" + i, (double) i));
+            unchanged.add(entry(TS + 1, "key" + i, i + 0.5));
+            changed.add(entry(TS + 2, "key" + i, i + 2.0));
+        }
+        first.add(entry(TS, "state", "idle"));
+        unchanged.add(entry(TS + 1, "state", "idle"));
+        assertEquals(first, filter.filter(DEVICE, first));
+        assertTrue(filter.filter(DEVICE, unchanged).isEmpty());
+        assertEquals(changed, filter.filter(DEVICE, changed));
+    }
+
+    @Test
+    public void shouldFilterDevicesIndependently() {
+        TelemetryFilter filter = new TelemetryFilter(deadband(1, 0, 0));
+        assertPassed(filter, entry(TS, "temperature", 20.0));
+        assertEquals(1, filter.filter("Device B", Collections.singletonList(entry(TS, "temperature", 20.0))).size());
+        assertEquals(1, filter.filter("Device B", Collections.singletonList(entry(TS + 1, "temperature", 25.0))).size());
+        assertFiltered(filter, entry(TS + 1, "temperature", 20.5));
+    }
+
+    @Test
+    public void shouldKeepOrderAndCountFilteredValues() {
+        TelemetryFilter filter = new TelemetryFilter(deadband(1, 0, 0));
+        filter.filter(DEVICE, Arrays.asList(entry(TS, "a", 1.0), entry(TS, "b", 1.0), entry(TS, "c", 1.0)));
+        assertEquals(0, filter.pollFiltered());
+        TsKvEntry a = entry(TS + 1, "a", 5.0);
+        TsKvEntry c = entry(TS + 1, "c", 5.0);
+        List<TsKvEntry> result = filter.filter(DEVICE, Arrays.asList(a, entry(TS + 1, "b", 1.5), c));
+        assertEquals(Arrays.asList(a, c), result);
+        assertEquals(1, filter.pollFiltered());
+        assertEquals(0, filter.pollFiltered());
+    }
+
+    private static void assertPassed(TelemetryFilter filter, TsKvEntry entry) {
+        assertEquals("Expected to pass " + entry, Collections.singletonList(entry),
+                filter.filter(DEVICE, Collections.singletonList(entry)));
+    }
+
+    private static void assertFiltered(TelemetryFilter filter, TsKvEntry entry) {
+        assertTrue("Expected to filter " + entry, filter.filter(DEVICE, Collections.singletonList(entry)).isEmpty());
+    }
+
+    private static TbDeadbandConfiguration deadband(double absolute, double percent, long maxSilence) {
+        TbDeadbandConfiguration configuration = new TbDeadbandConfiguration();
+        configuration.setAbsolute(absolute);
+        configuration.setPercent(percent);
+        configuration.setMaxSilence(maxSilence);
+        return configuration;
+    }
+
+    private static TbDeadbandKeyConfiguration keyBand(String key, double absolute, double percent) {
+        TbDeadbandKeyConfiguration band = new TbDeadbandKeyConfiguration();
+        band.setKey(key);
+        band.setAbsolute(absolute);
+        band.setPercent(percent);
+        return band;
+    }
+
+    private static TsKvEntry entry(long ts, String key, double value) {
+        return new BasicTsKvEntry(ts, new DoubleDataEntry(key, value));
+    }
+
+    private static TsKvEntry entry(long ts, String key, long value) {
+        return new BasicTsKvEntry(ts, new LongDataEntry(key, value));
+    }
+
+    private static TsKvEntry entry(long ts, String key, boolean value) {
+        return new BasicTsKvEntry(ts, new BooleanDataEntry(key, value));
+    }
+
+    private static TsKvEntry entry(long ts, String key, String value) {
+        return new BasicTsKvEntry(ts, new StringDataEntry(key, value));
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class UplinkLaneTest {
+
+    @Test
+    public void shouldSendRepliesAndGatewayMessagesThroughPriorityLane() {
+        assertEquals(UplinkLane.PRIORITY, UplinkLane.of("v1/gateway/rpc"));
+        assertEquals(UplinkLane.PRIORITY, UplinkLane.of("v1/gateway/attributes/request"));
+        assertEquals(UplinkLane.PRIORITY, UplinkLane.of("v1/devices/me/telemetry"));
+        assertEquals(UplinkLane.PRIORITY, UplinkLane.of("v1/devices/me/attributes"));
+        assertEquals(UplinkLane.PRIORITY, UplinkLane.of("v1/devices/me/attributes/request/1"));
+    }
+
+    @Test
+    public void shouldSendDeviceDataThroughBulkLane() {
+        assertEquals(UplinkLane.BULK, UplinkLane.of("v1/gateway/telemetry"));
+        assertEquals(UplinkLane.BULK, UplinkLane.of("v1/gateway/attributes"));
+    }
+
+    @Test
+    public void shouldKeepConnectsAndDisconnectsInBulkLane() {
+        // a connect must not overtake a disconnect, nor a disconnect the data of its device
+        assertEquals(UplinkLane.BULK, UplinkLane.of("v1/gateway/connect"));
+        assertEquals(UplinkLane.BULK, UplinkLane.of("v1/gateway/disconnect"));
+    }
+
+    @Test
+    public void shouldMatchPriorityTopicsExactly() {
+        assertEquals(UplinkLane.BULK, UplinkLane.of("v1/gateway/rpc/1"));
+        assertEquals(UplinkLane.BULK, UplinkLane.of("v1/gateway/attributes/request/1"));
+        assertEquals(UplinkLane.BULK, UplinkLane.of("v1/devices/other/telemetry"));
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.service.gateway;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import org.thingsboard.gateway.service.data.DeviceAttributesResponse;
+import org.thingsboard.gateway.service.data.DeviceAttributesUpdate;
+import org.thingsboard.gateway.service.data.DeviceRpcCommand;
+import org.thingsboard.server.common.data.kv.DataType;
+import org.thingsboard.server.common.data.kv.KvEntry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GatewayMessageParserTest {
+
+    @Test
+    public void shouldParseAttributesUpdate() throws Exception {
+        DeviceAttributesUpdate update = GatewayMessageParser.parseAttributesUpdate(heap(
+                "{\"device\":\"Device A\",\"data\":{\"active\":true,\"count\":42,\"ratio\":0.5,\"name\":\"pump\"}}"));
+
+        assertEquals("Device A", update.getDeviceName());
+        List<KvEntry> attributes = update.getAttributes();
+        assertEquals(4, attributes.size());
+        assertEntry(attributes.get(0), "active", DataType.BOOLEAN, true);
+        assertEntry(attributes.get(1), "count", DataType.LONG, 42L);
+        assertEntry(attributes.get(2), "ratio", DataType.LONG, 0L);
+        assertEntry(attributes.get(3), "name", DataType.STRING, "pump");
+    }
+
+    @Test
+    public void shouldConvertFloatsInLongRangeToLongs() throws Exception {
+        List<KvEntry> attributes = GatewayMessageParser.parseAttributesUpdate(heap(
+                "{\"device\":\"A\",\"data\":{\"whole\":3.0,\"truncated\":-2.7,\"huge\":1.0E20}}")).getAttributes();
+
+        assertEntry(attributes.get(0), "whole", DataType.LONG, 3L);
+        assertEntry(attributes.get(1), "truncated", DataType.LONG, -2L);
+        assertEntry(attributes.get(2), "huge", DataType.DOUBLE, 1.0E20);
+    }
+
+    @Test
+    public void shouldKeepIntegersOutOfLongRangeAsText() throws Exception {
+        List<KvEntry> attributes = GatewayMessageParser.parseAttributesUpdate(heap(
+                "{\"device\":\"A\",\"data\":{\"big\":123456789012345678901234567890}}")).getAttributes();
+
+        assertEntry(attributes.get(0), "big", DataType.STRING, "123456789012345678901234567890");
+    }
+
+    @Test
+    public void shouldConvertNullAndNestedValuesToText() throws Exception {
+        List<KvEntry> attributes = GatewayMessageParser.parseAttributesUpdate(heap(
+                "{\"device\":\"A\",\"data\":{\"missing\":null,\"object\":{\"a\":1},\"array\":[1,[2]],\"after\":1}}")).getAttributes();
+
+        assertEquals(4, attributes.size());
+        assertEntry(attributes.get(0), "missing", DataType.STRING, "null");
+        assertEntry(attributes.get(1), "object", DataType.STRING, "");
+        assertEntry(attributes.get(2), "array", DataType.STRING, "");
+        assertEntry(attributes.get(3), "after", DataType.LONG, 1L);
+    }
+
+    @Test
+    public void shouldSkipUnknownAndNestedFields() throws Exception {
+        DeviceAttributesUpdate update = GatewayMessageParser.parseAttributesUpdate(heap(
+                "{\"extra\":{\"device\":\"Wrong\",\"data\":{\"x\":1}},\"list\":[{\"device\":\"Wrong\"}],"
+                        + "\"device\":\"Device A\",\"flag\":false,\"data\":{\"key\":\"value\"},\"tail\":null}"));
+
+        assertEquals("Device A", update.getDeviceName());
+        assertEquals(1, update.getAttributes().size());
+        assertEntry(update.getAttributes().get(0), "key", DataType.STRING, "value");
+    }
+
+    @Test
+    public void shouldParseAttributesUpdateWithoutData() throws Exception {
+        DeviceAttributesUpdate update = GatewayMessageParser.parseAttributesUpdate(heap("{\"device\":\"A\"}"));
+
+        assertEquals("A", update.getDeviceName());
+        assertTrue(update.getAttributes().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAttributesUpdateWithoutDevice() throws Exception {
+        GatewayMessageParser.parseAttributesUpdate(heap("{\"data\":{\"key\":1}}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonObjectPayload() throws Exception {
+        GatewayMessageParser.parseAttributesUpdate(heap("[{\"device\":\"A\"}]"));
+    }
+
+    @Test
+    public void shouldParseRpcCommand() throws Exception {
+        DeviceRpcCommand command = GatewayMessageParser.parseRpcCommand(heap(
+                "{\"device\":\"Device A\",\"data\":{\"id\":7,\"method\":\"setValue\",\"params\":\"42\",\"extra\":[1]}}"));
+
+        assertEquals("Device A", command.getDeviceName());
+        assertEquals(7, command.getCommand().getRequestId());
+        assertEquals("setValue", command.getCommand().getMethod());
+        assertEquals("42", command.getCommand().getParams());
+    }
+
+    @Test
+    public void shouldConvertRpcParamsToText() throws Exception {
+        assertEquals("", rpcParams("{\"value\":1}"));
+        assertEquals("", rpcParams("[1,2]"));
+        assertEquals("null", rpcParams("null"));
+        assertEquals("true", rpcParams("true"));
+        assertEquals("1.5", rpcParams("1.5"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectRpcCommandWithoutData() throws Exception {
+        GatewayMessageParser.parseRpcCommand(heap("{\"device\":\"A\"}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectRpcCommandWithNonObjectData() throws Exception {
+        GatewayMessageParser.parseRpcCommand(heap("{\"device\":\"A\",\"data\":\"setValue\"}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectRpcCommandWithoutDevice() throws Exception {
+        GatewayMessageParser.parseRpcCommand(heap("{\"data\":{\"id\":1,\"method\":\"m\"}}"));
+    }
+
+    @Test
+    public void shouldParseAttributesResponse() throws Exception {
+        DeviceAttributesResponse response = GatewayMessageParser.parseAttributesResponse(heap(
+                "{\"id\":3,\"device\":\"Device A\",\"value\":12.0,\"ignored\":{\"value\":\"x\"}}"));
+
+        assertEquals(3, response.getRequestId());
+        assertEquals("Device A", response.getDeviceName());
+        assertEquals(12L, response.getValue());
+    }
+
+    @Test
+    public void shouldParseAttributesResponseValues() throws Exception {
+        assertEquals(Boolean.FALSE, responseValue("false"));
+        assertEquals(2.5E19, responseValue("2.5E19"));
+        assertEquals("text", responseValue("\"text\""));
+        assertEquals("null", responseValue("null"));
+        assertEquals("", responseValue("{\"a\":1}"));
+    }
+
+    @Test
+    public void shouldParseAttributesResponseWithoutValue() throws Exception {
+        DeviceAttributesResponse response = GatewayMessageParser.parseAttributesResponse(heap("{\"id\":3,\"device\":\"A\"}"));
+
+        assertNull(response.getValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAttributesResponseWithoutDevice() throws Exception {
+        GatewayMessageParser.parseAttributesResponse(heap("{\"id\":3,\"value\":1}"));
+    }
+
+    @Test
+    public void shouldParseFromReaderIndexOfHeapBuffer() throws Exception {
+        ByteBuf payload = heap("garbage{\"device\":\"A\",\"data\":{\"key\":1}}");
+        payload.skipBytes("garbage".length());
+
+        DeviceAttributesUpdate update = GatewayMessageParser.parseAttributesUpdate(payload);
+        assertEquals("A", update.getDeviceName());
+        assertEquals("garbage".length(), payload.readerIndex());
+    }
+
+    @Test
+    public void shouldParseDirectBuffer() throws Exception {
+        ByteBuf payload = direct("{\"device\":\"Device A\",\"data\":{\"id\":1,\"method\":\"reboot\",\"params\":{}}}");
+        assertFalse(payload.hasArray());
+
+        DeviceRpcCommand command = GatewayMessageParser.parseRpcCommand(payload);
+        assertEquals("Device A", command.getDeviceName());
+        assertEquals("reboot", command.getCommand().getMethod());
+        assertEquals("", command.getCommand().getParams());
+        assertEquals(0, payload.readerIndex());
+        assertEquals(1, payload.refCnt());
+        payload.release();
+    }
+
+    private static String rpcParams(String params) throws Exception {
+        return GatewayMessageParser.parseRpcCommand(heap("{\"device\":\"A\",\"data\":{\"id\":1,\"params\":" + params + "}}"))
+                .getCommand().getParams();
+    }
+
+    private static Object responseValue(String value) throws Exception {
+        return GatewayMessageParser.parseAttributesResponse(heap("{\"id\":1,\"device\":\"A\",\"value\":" + value + "}")).getValue();
+    }
+
+    private static void assertEntry(KvEntry entry, String key, DataType type, Object value) {
+        assertEquals(key, entry.getKey());
+        assertEquals(type, entry.getDataType());
+        assertEquals(value, entry.getValue());
+    }
+
+    private static ByteBuf heap(String json) {
+        return Unpooled.wrappedBuffer(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuf direct(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return Unpooled.directBuffer(bytes.length).writeBytes(bytes);
+    }
+}
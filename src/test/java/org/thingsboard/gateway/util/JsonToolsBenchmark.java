@@ -0,0 +1,88 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.util;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation and time of turning a telemetry message into a publish payload: through a String as before, as bytes
+ * written by Jackson directly, and into a pooled buffer. Run with -prof gc to compare allocation per message.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.thingsboard.gateway.util.JsonToolsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+public class JsonToolsBenchmark {
+
+    private ObjectNode node;
+
+    @Setup
+    public void setup() {
+        node = JsonTools.newNode();
+        ArrayNode deviceNode = node.putArray("Device A");
+        for (int i = 0; i < 10; i++) {
+            ObjectNode tsNode = deviceNode.addObject();
+            tsNode.put("ts", 1483228800000L + i);
+            ObjectNode valuesNode = tsNode.putObject("values");
+            valuesNode.put("temperature", 42.5 + i);
+            valuesNode.put("humidity", 73L + i);
+            valuesNode.put("status", "ok");
+        }
+    }
+
+    @Benchmark
+    public ByteBuf viaString() {
+        ByteBuf buf = Unpooled.wrappedBuffer(JsonTools.toString(node).getBytes(StandardCharsets.UTF_8));
+        buf.release();
+        return buf;
+    }
+
+    @Benchmark
+    public ByteBuf toBytes() {
+        ByteBuf buf = Unpooled.wrappedBuffer(JsonTools.toBytes(node));
+        buf.release();
+        return buf;
+    }
+
+    @Benchmark
+    public ByteBuf toByteBuf() {
+        ByteBuf buf = JsonTools.toByteBuf(ByteBufAllocator.DEFAULT, node);
+        buf.release();
+        return buf;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JsonToolsBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.util;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    private static final long MAX_TRACKED_VALUE = (1L << 40) - 1;
+
+    @Test
+    public void shouldKeepSmallValuesExact() {
+        for (long value = 0; value <= 64; value++) {
+            long highest = LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(value));
+            if (value < 64) {
+                assertEquals(value, highest);
+            } else {
+                assertEquals(65, highest);
+            }
+        }
+    }
+
+    @Test
+    public void shouldRoundTripValuesWithinPrecision() {
+        for (int exponent = 0; exponent < 40; exponent++) {
+            long power = 1L << exponent;
+            for (long value : new long[]{power - 1, power, power + 1, power + power / 3, 2 * power - 1}) {
+                assertWithinPrecision(value);
+            }
+        }
+        for (long value = 1; value < MAX_TRACKED_VALUE; value = value * 7 / 5 + 3) {
+            assertWithinPrecision(value);
+        }
+    }
+
+    @Test
+    public void shouldCoverValuesWithAdjacentBuckets() {
+        int lastIndex = LatencyHistogram.indexOf(MAX_TRACKED_VALUE);
+        for (int index = 0; index < lastIndex; index++) {
+            long highest = LatencyHistogram.highestValueOf(index);
+            assertEquals(index, LatencyHistogram.indexOf(highest));
+            assertEquals(index + 1, LatencyHistogram.indexOf(highest + 1));
+        }
+        assertEquals(MAX_TRACKED_VALUE, LatencyHistogram.highestValueOf(lastIndex));
+    }
+
+    @Test
+    public void shouldClampLargeValuesToLastBucket() {
+        int lastIndex = LatencyHistogram.indexOf(MAX_TRACKED_VALUE);
+        assertEquals(lastIndex, LatencyHistogram.indexOf(MAX_TRACKED_VALUE + 1));
+        assertEquals(lastIndex, LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldComputePercentilesOfUniformDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1000; value >= 1; value--) {
+            histogram.record(value, TimeUnit.MICROSECONDS);
+        }
+        Map<String, Long> statistics = histogram.pollStatistics("test");
+        assertEquals(1000L, (long) statistics.get("testCount"));
+        assertEquals(503L, (long) statistics.get("testP50"));
+        assertEquals(911L, (long) statistics.get("testP90"));
+        assertEquals(991L, (long) statistics.get("testP99"));
+        assertEquals(1007L, (long) statistics.get("testP999"));
+        assertEquals(1007L, (long) statistics.get("testMax"));
+    }
+
+    @Test
+    public void shouldComputePercentilesOfSkewedDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(100, TimeUnit.MICROSECONDS);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(10, TimeUnit.MILLISECONDS);
+        }
+        Map<String, Long> statistics = histogram.pollStatistics("test");
+        assertEquals(1000L, (long) statistics.get("testCount"));
+        assertEquals(101L, (long) statistics.get("testP50"));
+        assertEquals(101L, (long) statistics.get("testP99"));
+        assertEquals(10239L, (long) statistics.get("testP999"));
+        assertEquals(10239L, (long) statistics.get("testMax"));
+    }
+
+    @Test
+    public void shouldUseRankOfNearestSample() {
+        // 99.9% of 41000 samples is exactly the 40959th sample
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 40959; i++) {
+            histogram.record(10, TimeUnit.MICROSECONDS);
+        }
+        for (int i = 0; i < 41; i++) {
+            histogram.record(20, TimeUnit.MICROSECONDS);
+        }
+        assertEquals(10L, (long) histogram.pollStatistics("test").get("testP999"));
+    }
+
+    @Test
+    public void shouldRecordNegativeDurationsAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5, TimeUnit.MILLISECONDS);
+        assertEquals(0L, (long) histogram.pollStatistics("test").get("testMax"));
+    }
+
+    @Test
+    public void shouldResetOnPollOnly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42, TimeUnit.MICROSECONDS);
+        assertEquals(1L, (long) histogram.getStatistics("test").get("testCount"));
+        assertEquals(1L, (long) histogram.pollStatistics("test").get("testCount"));
+        Map<String, Long> statistics = histogram.pollStatistics("test");
+        assertEquals(0L, (long) statistics.get("testCount"));
+        assertEquals(1, statistics.size());
+    }
+
+    private static void assertWithinPrecision(long value) {
+        long highest = LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(value));
+        assertTrue("Bucket of " + value + " ends below it at " + highest, highest >= value);
+        assertTrue("Bucket of " + value + " ends too far at " + highest, (highest - value) * 32 <= value);
+    }
+}
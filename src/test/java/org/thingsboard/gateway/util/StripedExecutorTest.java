@@ -0,0 +1,260 @@
+/**
+ * Copyright © 2017 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.gateway.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class StripedExecutorTest {
+
+    private static final String KEY = "Device A";
+
+    private StripedExecutor executor;
+
+    @After
+    public void cleanup() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectEmptyQueues() {
+        new StripedExecutor("test", 2, 0);
+    }
+
+    @Test
+    public void shouldRunTasksOfOneKeyInOrder() throws InterruptedException {
+        executor = new StripedExecutor("test", 4, 1000);
+        int keys = 8;
+        int tasks = 500;
+        List<List<Integer>> results = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(keys * tasks);
+        for (int k = 0; k < keys; k++) {
+            results.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+        for (int i = 0; i < tasks; i++) {
+            for (int k = 0; k < keys; k++) {
+                List<Integer> result = results.get(k);
+                int value = i;
+                executor.execute("Device " + k, () -> {
+                    result.add(value);
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (List<Integer> result : results) {
+            for (int i = 0; i < tasks; i++) {
+                assertEquals(i, (int) result.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void shouldKeepRunningAfterFailedTask() throws InterruptedException {
+        executor = new StripedExecutor("test", 1, 10);
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(KEY, () -> {
+            throw new IllegalStateException("Task failed");
+        });
+        executor.execute(KEY, done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldWaitForSpaceInFullStripe() throws InterruptedException {
+        executor = new StripedExecutor("test", 1, 1);
+        CountDownLatch release = blockStripe();
+        executor.execute(KEY, () -> {
+        });
+        assertEquals(0, executor.pollProducerWaits());
+
+        CountDownLatch queued = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                executor.execute(KEY, () -> {
+                });
+                queued.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        assertFalse(queued.await(200, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.pollProducerWaits());
+        assertEquals(0, executor.pollProducerWaits());
+    }
+
+    @Test
+    public void shouldRejectTaskOfFullStripe() throws InterruptedException {
+        executor = new StripedExecutor("test", 1, 2);
+        CountDownLatch release = blockStripe();
+        assertTrue(executor.tryExecute(KEY, () -> {
+        }));
+        assertTrue(executor.tryExecute(KEY, () -> {
+        }));
+        assertEquals(2, executor.getQueueDepth());
+
+        AtomicBoolean ran = new AtomicBoolean();
+        assertFalse(executor.tryExecute(KEY, () -> ran.set(true)));
+        assertEquals(1, executor.pollRejected());
+        assertEquals(0, executor.pollRejected());
+        assertEquals(0, executor.pollProducerWaits());
+
+        release.countDown();
+        awaitEmpty();
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void shouldRejectTaskAfterTimeout() throws InterruptedException {
+        executor = new StripedExecutor("test", 1, 1);
+        CountDownLatch release = blockStripe();
+        executor.execute(KEY, () -> {
+        });
+
+        long started = System.currentTimeMillis();
+        assertFalse(executor.tryExecute(KEY, () -> {
+        }, 100, TimeUnit.MILLISECONDS));
+        assertTrue(System.currentTimeMillis() - started >= 90);
+        assertEquals(1, executor.pollProducerWaits());
+        assertEquals(1, executor.pollRejected());
+        release.countDown();
+    }
+
+    @Test
+    public void shouldQueueTaskWhenSpaceFreesUpWithinTimeout() throws InterruptedException {
+        executor = new StripedExecutor("test", 1, 1);
+        CountDownLatch release = blockStripe();
+        executor.execute(KEY, () -> {
+        });
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        });
+        releaser.start();
+
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(executor.tryExecute(KEY, done::countDown, 5, TimeUnit.SECONDS));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.pollProducerWaits());
+        assertEquals(0, executor.pollRejected());
+    }
+
+    @Test
+    public void shouldQueueOverflowingTasksPastCapacityInOrder() throws InterruptedException {
+        executor = new StripedExecutor("test", 1, 2);
+        CountDownLatch release = blockStripe();
+        List<Integer> result = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 5; i++) {
+            int value = i;
+            assertTrue(executor.executeOverflowing(KEY, () -> result.add(value)));
+        }
+        assertEquals(5, executor.getMaxStripeDepth());
+        assertEquals(3, executor.pollOverflowed());
+        assertEquals(0, executor.pollOverflowed());
+        assertFalse(executor.tryExecute(KEY, () -> result.add(-1)));
+
+        release.countDown();
+        awaitEmpty();
+        release = blockStripe();
+        assertTrue(executor.tryExecute(KEY, () -> result.add(5)));
+        assertTrue(executor.tryExecute(KEY, () -> result.add(6)));
+        assertFalse(executor.tryExecute(KEY, () -> result.add(-1)));
+        release.countDown();
+        awaitEmpty();
+        assertEquals(7, result.size());
+        for (int i = 0; i < 7; i++) {
+            assertEquals(i, (int) result.get(i));
+        }
+    }
+
+    @Test
+    public void shouldRejectTasksAfterShutdown() throws InterruptedException {
+        executor = new StripedExecutor("test", 2, 10);
+        executor.shutdownNow();
+
+        assertFalse(executor.tryExecute(KEY, () -> {
+        }));
+        assertFalse(executor.tryExecute(KEY, () -> {
+        }, 1, TimeUnit.SECONDS));
+        assertFalse(executor.executeOverflowing(KEY, () -> {
+        }));
+        assertEquals(3, executor.pollRejected());
+    }
+
+    @Test
+    public void shouldReleaseWaitingProducerOnShutdown() throws InterruptedException {
+        executor = new StripedExecutor("test", 1, 1);
+        blockStripe();
+        executor.execute(KEY, () -> {
+        });
+        CountDownLatch returned = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                executor.execute(KEY, () -> {
+                });
+                returned.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        assertFalse(returned.await(100, TimeUnit.MILLISECONDS));
+
+        executor.shutdownNow();
+        assertTrue(returned.await(5, TimeUnit.SECONDS));
+    }
+
+    // occupies the worker of the stripe until the returned latch is released
+    private CountDownLatch blockStripe() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(KEY, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private void awaitEmpty() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        executor.executeOverflowing(KEY, done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}